@@ -0,0 +1,78 @@
+package graph;
+
+/**
+ * Memory footprint of {@link HeuristicSearchGraph} against {@link CompactSearchGraph}
+ *
+ * Inserts the same synthetic titles into each graph and reports retained Java
+ *     heap per title, measured as used heap after repeated GC, plus direct
+ *     memory taken by an off-heap title arena. Titles are generated on the fly,
+ *     the graph is the only holder, same as in the crawler.
+ *     Run with a fixed heap, e.g. {@code java -Xms2g -Xmx2g graph.FootprintBench}.
+ *
+ * Usage: {@code java graph.FootprintBench [titles]}
+ */
+public class FootprintBench {
+
+    interface Build {
+        Graph build(int n);
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        System.out.printf("titles=%d sample=\"%s\"%n", n, title(n - 1));
+
+        report("HeuristicSearchGraph", n, count -> {
+            HeuristicSearchGraph hsg = HeuristicSearchGraph.getInstance();
+            for (int i = 0; i < count; ++i) {
+                hsg.insert(title(i));
+            }
+            return hsg;
+        });
+        HeuristicSearchGraph.getInstance().clear();
+
+        report("CompactSearchGraph heap", n, count -> {
+            CompactSearchGraph csg = new CompactSearchGraph(false);
+            for (int i = 0; i < count; ++i) {
+                csg.insert(title(i));
+            }
+            return csg;
+        });
+
+        CompactSearchGraph offHeap = (CompactSearchGraph) report("CompactSearchGraph off-heap", n, count -> {
+            CompactSearchGraph csg = new CompactSearchGraph(true);
+            for (int i = 0; i < count; ++i) {
+                csg.insert(title(i));
+            }
+            return csg;
+        });
+        System.out.printf("%-28s %10.1f bytes/title direct%n", "", (double) offHeap.arenaBytes() / n);
+    }
+
+    private static String title(int i) {
+        return "Wiki title " + Integer.toString(i * 7919, 36) + " (disambiguation)";
+    }
+
+    private static Graph report(String name, int n, Build build) {
+        long before = usedHeap();
+        Graph graph = build.build(n);
+        long after = usedHeap();
+        System.out.printf("%-28s %10.1f bytes/title heap (size=%d)%n", name, (double) (after - before) / n,
+                graph.size());
+        return graph;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+}
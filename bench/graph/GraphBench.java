@@ -0,0 +1,328 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark suite for the graph package
+ *
+ * Structured like a JMH run without the dependency: every (implementation,
+ *     size, benchmark, threads) point gets warm-up iterations then measured
+ *     iterations, throughput is averaged over measured iterations, latency
+ *     percentiles come from sampled operations. Baseline is {@link MapGraph}.
+ *
+ * Benchmarks
+ *     insert      insert new titles into a prefilled graph
+ *     hit         contains of present titles, skewed toward a few hot ones
+ *     miss        contains of absent titles
+ *     crawler     containsOrInsert, {@code --new} fraction of titles never seen,
+ *                 rest skewed toward hot titles, one call per crawler hop
+ *     traversal   full traversal
+ *     fill        insert all titles into an empty graph, titles dealt round
+ *                 robin to the threads
+ *     clear       clear of a prefilled graph, single thread
+ *
+ * Usage: {@code java -Xmx8g graph.GraphBench [--impl=hsg,sharded,compact,map]
+ *     [--size=1000,100000,10000000] [--threads=1,2,4] [--bench=hit,crawler]
+ *     [--new=0.7] [--warmup=2] [--iterations=3] [--time=1000]}
+ *
+ * Defaults cover sizes 1e3 to 1e7 and 1 thread up to all cores, 1e7 titles in
+ *     {@link HeuristicSearchGraph} need about 3 GB of heap.
+ */
+public class GraphBench {
+    private static final int SAMPLE_MASK = 63; // record latency of 1 op in 64
+    private static final int MISS_KEYS = 1 << 16;
+
+    private static String[] impls = { "hsg", "sharded", "compact", "map" };
+    private static int[] sizes = { 1000, 10000, 100000, 1000000, 10000000 };
+    private static int[] threads = defaultThreads();
+    private static String[] benches = { "insert", "hit", "miss", "crawler", "traversal", "fill", "clear" };
+    private static double newRatio = 0.7;
+    private static int warmup = 2;
+    private static int iterations = 3;
+    private static long time = 1000;
+
+    /**
+     * One operation of a benchmark, {@code r} is thread-local random state
+     */
+    interface Op {
+        void run(Graph graph, ThreadLocalRandom r, int thread, long n);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("expected --key=value, got " + arg);
+            }
+            switch (kv[0]) {
+            case "impl":
+                impls = kv[1].split(",");
+                break;
+            case "size":
+                sizes = Arrays.stream(kv[1].split(",")).mapToInt(Integer::parseInt).toArray();
+                break;
+            case "threads":
+                threads = Arrays.stream(kv[1].split(",")).mapToInt(Integer::parseInt).toArray();
+                break;
+            case "bench":
+                benches = kv[1].split(",");
+                break;
+            case "new":
+                newRatio = Double.parseDouble(kv[1]);
+                break;
+            case "warmup":
+                warmup = Integer.parseInt(kv[1]);
+                break;
+            case "iterations":
+                iterations = Integer.parseInt(kv[1]);
+                break;
+            case "time":
+                time = Long.parseLong(kv[1]);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + kv[0]);
+            }
+        }
+
+        System.out.printf("%-8s %9s %-10s %7s %14s %10s %10s%n", "impl", "size", "bench", "threads", "ops/s",
+                "p50 ns", "p99 ns");
+        for (int size : sizes) {
+            String[] keys = keys("Title ", size);
+            String[] missing = keys("Missing ", MISS_KEYS);
+            for (String impl : impls) {
+                Supplier<Graph> graph = graph(impl);
+                for (String bench : benches) {
+                    if (bench.equals("clear")) {
+                        clear(impl, graph, keys);
+                        continue;
+                    }
+                    if (bench.equals("fill")) {
+                        for (int t : threads) {
+                            fill(impl, graph, keys, t);
+                        }
+                        continue;
+                    }
+                    for (int t : threads) {
+                        measure(impl, graph, keys, bench, op(bench, keys, missing), t);
+                    }
+                }
+                graph.get().clear();
+            }
+        }
+    }
+
+    private static Op op(String bench, String[] keys, String[] missing) {
+        switch (bench) {
+        case "insert":
+            return (g, r, thread, n) -> g.insert("New " + thread + " " + n);
+        case "hit":
+            return (g, r, thread, n) -> g.contains(keys[skewed(r, keys.length)]);
+        case "miss":
+            return (g, r, thread, n) -> g.contains(missing[r.nextInt(MISS_KEYS)]);
+        case "crawler":
+            return (g, r, thread, n) -> {
+                if (r.nextDouble() < newRatio) {
+                    g.containsOrInsert("Crawl " + thread + " " + n);
+                } else {
+                    g.containsOrInsert(keys[skewed(r, keys.length)]);
+                }
+            };
+        case "traversal":
+            return (g, r, thread, n) -> g.traversal();
+        default:
+            throw new IllegalArgumentException("unknown benchmark " + bench);
+        }
+    }
+
+    /**
+     * Warm up, then measure {@code op} on a graph prefilled with {@code keys}
+     */
+    private static void measure(String impl, Supplier<Graph> supplier, String[] keys, String bench, Op op,
+            int threadCount) throws InterruptedException {
+        double ops = 0;
+        List<long[]> samples = new ArrayList<long[]>();
+        for (int it = 0; it < warmup + iterations; ++it) {
+            Graph graph = supplier.get();
+            graph.clear();
+            graph.insertAll(keys);
+
+            AtomicBoolean stop = new AtomicBoolean(false);
+            long[] counts = new long[threadCount];
+            long[][] latency = new long[threadCount][];
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] arr = new Thread[threadCount];
+            for (int t = 0; t < threadCount; ++t) {
+                final int thread = t;
+                arr[t] = new Thread(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    long[] sample = new long[1 << 12];
+                    int sampled = 0;
+                    long n = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (!stop.get()) {
+                        if ((n & SAMPLE_MASK) == 0) {
+                            long begin = System.nanoTime();
+                            op.run(graph, r, thread, n);
+                            if (sampled == sample.length) {
+                                sample = Arrays.copyOf(sample, sampled * 2);
+                            }
+                            sample[sampled++] = System.nanoTime() - begin;
+                        } else {
+                            op.run(graph, r, thread, n);
+                        }
+                        ++n;
+                    }
+                    counts[thread] = n;
+                    latency[thread] = Arrays.copyOf(sample, sampled);
+                });
+                arr[t].start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep(time);
+            stop.set(true);
+            for (Thread t : arr) {
+                t.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            if (it >= warmup) {
+                ops += Arrays.stream(counts).sum() * 1e9 / elapsed;
+                samples.addAll(Arrays.asList(latency));
+            }
+        }
+
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%-8s %9d %-10s %7d %14.0f %10d %10d%n", impl, keys.length, bench, threadCount,
+                ops / iterations, percentile(all, 0.5), percentile(all, 0.99));
+    }
+
+    /**
+     * Time {@link Graph#clear()} of a graph prefilled with {@code keys}
+     */
+    private static void clear(String impl, Supplier<Graph> supplier, String[] keys) {
+        long[] times = new long[warmup + iterations];
+        for (int it = 0; it < times.length; ++it) {
+            Graph graph = supplier.get();
+            graph.clear();
+            graph.insertAll(keys);
+            long begin = System.nanoTime();
+            graph.clear();
+            times[it] = System.nanoTime() - begin;
+        }
+        long[] measured = Arrays.copyOfRange(times, warmup, times.length);
+        Arrays.sort(measured);
+        System.out.printf("%-8s %9d %-10s %7d %14.1f %10d %10d%n", impl, keys.length, "clear", 1,
+                1e9 / Arrays.stream(measured).average().orElse(Double.NaN), percentile(measured, 0.5),
+                percentile(measured, 0.99));
+    }
+
+    /**
+     * Time concurrent inserts of {@code keys} into an empty graph, ops/s and
+     *     percentiles are over whole fills
+     */
+    private static void fill(String impl, Supplier<Graph> supplier, String[] keys, int threadCount)
+            throws InterruptedException {
+        long[] times = new long[warmup + iterations];
+        for (int it = 0; it < times.length; ++it) {
+            Graph graph = supplier.get();
+            graph.clear();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] arr = new Thread[threadCount];
+            for (int t = 0; t < threadCount; ++t) {
+                final int offset = t;
+                arr[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = offset; i < keys.length; i += threadCount) {
+                        graph.insert(keys[i]);
+                    }
+                });
+                arr[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread t : arr) {
+                t.join();
+            }
+            times[it] = System.nanoTime() - begin;
+            if (graph.size() != keys.length) {
+                throw new IllegalStateException(impl + " lost inserts, " + graph.size() + " of " + keys.length);
+            }
+        }
+        long[] measured = Arrays.copyOfRange(times, warmup, times.length);
+        Arrays.sort(measured);
+        System.out.printf("%-8s %9d %-10s %7d %14.0f %10d %10d%n", impl, keys.length, "fill", threadCount,
+                keys.length * 1e9 / Arrays.stream(measured).average().orElse(Double.NaN), percentile(measured, 0.5),
+                percentile(measured, 0.99));
+    }
+
+    private static Supplier<Graph> graph(String impl) {
+        switch (impl) {
+        case "hsg":
+            return HeuristicSearchGraph::getInstance;
+        case "sharded": {
+            HeuristicSearchGraph graph = new HeuristicSearchGraph(Runtime.getRuntime().availableProcessors() * 4);
+            return () -> graph;
+        }
+        case "compact": {
+            CompactSearchGraph graph = new CompactSearchGraph();
+            return () -> graph;
+        }
+        case "map": {
+            MapGraph graph = new MapGraph();
+            return () -> graph;
+        }
+        default:
+            throw new IllegalArgumentException("unknown implementation " + impl);
+        }
+    }
+
+    /**
+     * Index skewed toward 0, roughly a power law, a few titles (Science,
+     *     Philosophy...) take most lookups
+     */
+    private static int skewed(ThreadLocalRandom r, int n) {
+        double u = r.nextDouble();
+        return (int) (n * u * u * u);
+    }
+
+    private static String[] keys(String prefix, int n) {
+        String[] res = new String[n];
+        for (int i = 0; i < n; ++i) {
+            res[i] = prefix + i;
+        }
+        return res;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static int[] defaultThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> res = new ArrayList<Integer>();
+        for (int t = 1; t < cores; t *= 2) {
+            res.add(t);
+        }
+        res.add(cores);
+        return res.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,57 @@
+package graph;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Baseline for benchmarks, a {@link ConcurrentHashMap} from title to heat.
+ *
+ * Same {@link Graph} contract except ordering, traversal is in hash order and
+ *     nothing is ever reordered. Anything slower than this needs a reason.
+ */
+public class MapGraph implements Graph {
+    private ConcurrentHashMap<String, LongAdder> map = new ConcurrentHashMap<String, LongAdder>();
+
+    @Override
+    public void insert(String item) {
+        map.computeIfAbsent(item, k -> new LongAdder());
+    }
+
+    @Override
+    public boolean contains(String item) {
+        LongAdder heat = map.get(item);
+        if (heat == null) {
+            return false;
+        }
+        heat.increment();
+        return true;
+    }
+
+    @Override
+    public boolean containsOrInsert(String item) {
+        if (contains(item)) {
+            return true;
+        }
+        return map.putIfAbsent(item, new LongAdder()) != null;
+    }
+
+    @Override
+    public boolean pop(String item) {
+        return map.remove(item) != null;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        map = new ConcurrentHashMap<String, LongAdder>();
+    }
+
+    @Override
+    public String[] traversal() {
+        return map.keySet().toArray(new String[0]);
+    }
+}
@@ -0,0 +1,178 @@
+package graph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for graph node locks
+ *
+ * Compares {@link GraphNode} locks against the previous spin locks (two
+ *     {@link AtomicInteger}, kept below as {@link SpinNode}). Every thread
+ *     hammers the same node with a read/write mix similar to crawler's,
+ *     reports throughput and CPU time burnt per operation.
+ *
+ * Usage: {@code java graph.NodeLockBench [threads] [writePercent] [seconds]}
+ */
+public class NodeLockBench {
+
+    interface NodeLock {
+        void read();
+
+        void write();
+    }
+
+    /**
+     * Previous {@code GraphNode} lock scheme, readers give up and retry if a
+     *     writer is present (as old {@code retrieveNodes} did), writers spin
+     *     until readers leave.
+     */
+    static class SpinNode implements NodeLock {
+        private AtomicInteger consumer = new AtomicInteger(0);
+        private AtomicInteger producer = new AtomicInteger(0);
+        private int value;
+        private AtomicBoolean stop;
+
+        SpinNode(AtomicBoolean stop) {
+            this.stop = stop;
+        }
+
+        @Override
+        public void read() {
+            while (true) {
+                consumer.incrementAndGet();
+                if (producer.get() == 0) {
+                    break;
+                }
+                consumer.decrementAndGet();
+                if (stop.get()) {
+                    return;
+                }
+            }
+            Blackhole.consume(value);
+            consumer.decrementAndGet();
+        }
+
+        @Override
+        public void write() {
+            producer.incrementAndGet();
+            while (consumer.get() > 0) {
+                // wait until all clear
+                if (stop.get()) {
+                    break;
+                }
+            }
+            ++value;
+            producer.decrementAndGet();
+        }
+    }
+
+    /**
+     * Current scheme, readers go optimistic first, same as traversal
+     */
+    static class StampedNode implements NodeLock {
+        private GraphNode node = new GraphNode();
+
+        StampedNode() {
+            node.next = new GraphNode[1];
+        }
+
+        @Override
+        public void read() {
+            long stamp = GraphNode.re_optimistic(node);
+            int value = node.heat;
+            if (!GraphNode.re_validate(node, stamp)) {
+                GraphNode.re_lock(node, true);
+                value = node.heat;
+                GraphNode.re_free(node);
+            }
+            Blackhole.consume(value);
+        }
+
+        @Override
+        public void write() {
+            GraphNode.wr_lock(node, true);
+            ++node.heat;
+            GraphNode.wr_free(node);
+        }
+    }
+
+    static class Blackhole {
+        static volatile int sink;
+
+        static void consume(int v) {
+            if (v == Integer.MIN_VALUE) {
+                sink = v;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int writePercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.printf("threads=%d write=%d%% duration=%ds%n", threads, writePercent, seconds);
+        for (int round = 0; round < 2; ++round) {
+            // first round is warm up
+            AtomicBoolean stop = new AtomicBoolean(false);
+            run("spin", new SpinNode(stop), stop, threads, writePercent, seconds, round > 0);
+            stop = new AtomicBoolean(false);
+            run("stamped", new StampedNode(), stop, threads, writePercent, seconds, round > 0);
+        }
+    }
+
+    private static void run(String name, NodeLock lock, AtomicBoolean stop, int threads, int writePercent,
+            int seconds, boolean report) throws InterruptedException {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        LongAdder ops = new LongAdder();
+        LongAdder cpu = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; ++t) {
+            final int seed = t + 1;
+            workers[t] = new Thread(() -> {
+                int r = seed;
+                long n = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long begin = mx.getCurrentThreadCpuTime();
+                while (!stop.get()) {
+                    // xorshift, cheap per-thread random
+                    r ^= r << 13;
+                    r ^= r >>> 17;
+                    r ^= r << 5;
+                    if (Math.floorMod(r, 100) < writePercent) {
+                        lock.write();
+                    } else {
+                        lock.read();
+                    }
+                    ++n;
+                }
+                cpu.add(mx.getCurrentThreadCpuTime() - begin);
+                ops.add(n);
+            });
+            workers[t].start();
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        if (report) {
+            double total = ops.sum();
+            System.out.printf("%-8s %12.0f ops/s %10.1f ns cpu/op%n", name, total / seconds,
+                    total == 0 ? Double.NaN : cpu.sum() / total);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package wiki;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Link filtering benchmark
+ *
+ * Runs the crawler's include and exclude rules over hrefs recorded from
+ *     articles of several languages (bench/wiki/hrefs.txt): as getNth did
+ *     before, decoding every href and calling {@link String#matches(String)}
+ *     per rule; with the rules precompiled to {@link Pattern}s; and with
+ *     {@link LinkFilter}. Reports time and bytes allocated per href.
+ *
+ * Usage: {@code java wiki.LinkFilterBench [hrefs file] [seconds]}
+ */
+public class LinkFilterBench {
+    private static final String[] INCLUDE = { "#.+?", "/wiki/.+?" };
+    private static final String[] EXCLUDE = { "/wiki/.+?:.+?", "#cite note.+?" };
+
+    static class Blackhole {
+        static volatile int sink;
+
+        static void consume(Object o) {
+            if (o != null && o.hashCode() == Integer.MIN_VALUE) {
+                sink = 1;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : "bench/wiki/hrefs.txt";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        String[] hrefs = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8).stream()
+                .filter(l -> !l.isEmpty() && !l.startsWith("# ")).toArray(String[]::new);
+
+        Pattern[] include = Arrays.stream(INCLUDE).map(Pattern::compile).toArray(Pattern[]::new);
+        Pattern[] exclude = Arrays.stream(EXCLUDE).map(Pattern::compile).toArray(Pattern[]::new);
+        LinkFilter filter = new LinkFilter(INCLUDE, EXCLUDE);
+
+        Function<String, String> matches = h -> {
+            String t;
+            try {
+                t = URLDecoder.decode(h, StandardCharsets.UTF_8).replace("_", " ");
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            boolean in = Arrays.stream(INCLUDE).anyMatch(e -> t.matches(e))
+                    && Arrays.stream(EXCLUDE).noneMatch(e -> t.matches(e));
+            return in ? t : null;
+        };
+        Function<String, String> patterns = h -> {
+            String t = LinkExtractor.title(h);
+            if (t == null || Arrays.stream(include).noneMatch(p -> p.matcher(t).matches())
+                    || Arrays.stream(exclude).anyMatch(p -> p.matcher(t).matches())) {
+                return null;
+            }
+            return t;
+        };
+
+        List<String> followed = Arrays.stream(hrefs).map(filter::title).filter(t -> t != null)
+                .collect(Collectors.toList());
+        System.out.printf("hrefs=%d followed=%d duration=%ds%n", hrefs.length, followed.size(), seconds);
+        for (String h : hrefs) {
+            if (!String.valueOf(matches.apply(h)).equals(String.valueOf(filter.title(h)))) {
+                throw new AssertionError(h);
+            }
+        }
+
+        for (int round = 0; round < 2; ++round) {
+            // first round warms up
+            run("matches", hrefs, matches, seconds, round > 0);
+            run("patterns", hrefs, patterns, seconds, round > 0);
+            run("filter", hrefs, filter::title, seconds, round > 0);
+        }
+    }
+
+    private static void run(String name, String[] hrefs, Function<String, String> f, int seconds, boolean report) {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        long bytes = mx.getThreadAllocatedBytes(tid);
+        long begin = System.nanoTime();
+        long end = begin + seconds * 1_000_000_000L;
+        long ops = 0;
+        while (System.nanoTime() < end) {
+            for (String h : hrefs) {
+                Blackhole.consume(f.apply(h));
+            }
+            ops += hrefs.length;
+        }
+        long elapsed = System.nanoTime() - begin;
+        bytes = mx.getThreadAllocatedBytes(tid) - bytes;
+        if (report) {
+            System.out.printf("%-9s %8.1f ns/href %8.1f B/href%n", name, (double) elapsed / ops, (double) bytes / ops);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent scalable Bloom filter for titles
+ *
+ * Answers "definitely absent" or "maybe present". Filter is a list of stages,
+ *     a new stage twice as large with a tighter error rate is added when the
+ *     last one reaches its capacity. Stage error rates form a geometric series,
+ *     total false positive rate stays under {@code fpp} however large the
+ *     graph grows.
+ *
+ * Bits are set with atomic OR on an {@link AtomicLongArray}, lookups and
+ *     inserts never lock. Only adding a stage is synchronized. Positions are
+ *     derived from {@link String#hashCode()} (cached by String) with double
+ *     hashing, no extra pass over the title.
+ *
+ * Items can't be removed, only the whole filter can be cleared.
+ */
+class BloomFilter {
+    private static final double TIGHTENING = 0.5;
+
+    /**
+     * One fixed size filter
+     */
+    private static final class Stage {
+        final AtomicLongArray bits;
+        final int mask; // number of bits - 1, power of 2
+        final int hashes;
+        final int capacity;
+        final double fpp;
+        final AtomicInteger count = new AtomicInteger(0);
+
+        Stage(int capacity, double fpp) {
+            // m = -n ln(p) / ln(2)^2, k = m / n ln(2)
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            int bits = Integer.highestOneBit((int) Math.min(Math.max(m, 64), 1 << 30) - 1) << 1;
+            this.bits = new AtomicLongArray(bits >>> 6);
+            this.mask = bits - 1;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * Math.log(2)));
+            this.capacity = capacity;
+            this.fpp = fpp;
+        }
+
+        void put(int h1, int h2) {
+            for (int i = 0; i < hashes; ++i) {
+                int bit = (h1 + i * h2) & mask;
+                long flag = 1L << bit;
+                int word = bit >>> 6;
+                if ((bits.get(word) & flag) == 0) {
+                    bits.getAndAccumulate(word, flag, (a, b) -> a | b);
+                }
+            }
+        }
+
+        boolean mightContain(int h1, int h2) {
+            for (int i = 0; i < hashes; ++i) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * (1 - e^(-kn/m))^k
+         */
+        double expectedFpp() {
+            return Math.pow(1 - Math.exp(-(double) hashes * count.get() / (mask + 1.0)), hashes);
+        }
+    }
+
+    private final int expected;
+    private final double fpp;
+    private volatile Stage[] stages;
+
+    /**
+     * @param expected expected number of titles, first stage capacity
+     * @param fpp      target false positive rate, in (0, 1)
+     * @exception IllegalArgumentException parameters out of range
+     */
+    BloomFilter(int expected, double fpp) {
+        if (expected < 1 || !(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("expected must be positive, fpp in (0, 1)");
+        }
+        this.expected = expected;
+        this.fpp = fpp;
+        clear();
+    }
+
+    /**
+     * @param item title
+     */
+    void put(String item) {
+        int h1 = mix(item.hashCode());
+        int h2 = mix(item.hashCode() ^ 0x5bd1e995) | 1;
+        Stage[] arr = stages;
+        Stage last = arr[arr.length - 1];
+        if (last.count.incrementAndGet() > last.capacity) {
+            last = grow(last);
+        }
+        last.put(h1, h2);
+    }
+
+    /**
+     * @param item title
+     * @return {@code false} if title was never put, {@code true} if it might be
+     */
+    boolean mightContain(String item) {
+        int h1 = mix(item.hashCode());
+        int h2 = mix(item.hashCode() ^ 0x5bd1e995) | 1;
+        for (Stage stage : stages) {
+            if (stage.mightContain(h1, h2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget everything, back to one stage
+     */
+    void clear() {
+        stages = new Stage[] { new Stage(expected, fpp * (1 - TIGHTENING)) };
+    }
+
+    /**
+     * @return false positive rate expected from current fill of all stages
+     */
+    double expectedFpp() {
+        double pass = 1;
+        for (Stage stage : stages) {
+            pass *= 1 - stage.expectedFpp();
+        }
+        return 1 - pass;
+    }
+
+    /**
+     * @return number of stages
+     */
+    int stages() {
+        return stages.length;
+    }
+
+    private synchronized Stage grow(Stage full) {
+        Stage[] arr = stages;
+        Stage last = arr[arr.length - 1];
+        if (last != full) {
+            // another thread already grew
+            return last;
+        }
+        long capacity = Math.min((long) last.capacity * 2, 1 << 28);
+        Stage next = new Stage((int) capacity, last.fpp * TIGHTENING);
+        arr = Arrays.copyOf(arr, arr.length + 1);
+        arr[arr.length - 1] = next;
+        stages = arr;
+        return next;
+    }
+
+    /**
+     * murmur3 finalizer
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
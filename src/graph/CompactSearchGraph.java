@@ -0,0 +1,577 @@
+package graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safed data structure
+ *
+ * Same heat ordered tree as {@link HeuristicSearchGraph}, stored in struct-of-arrays
+ *     form instead of one object per node. Per slot (BFS position) columns are
+ *     primitive arrays: title reference, heat, title hash and a lock word. Titles
+ *     live as UTF-8 bytes in a {@link TitleArena}, optionally off-heap.
+ *
+ * The tree is always complete and filled in BFS order, so child indices are not
+ *     stored at all, children of slot s are at s * BUCKETSIZE + 1 + i.
+ *
+ * Columns are split in pages, growing the graph never copies existing slots.
+ *     Title index is an open-addressing table of int slots split in segments,
+ *     each guarded by a {@link StampedLock}.
+ *
+ * Locking:
+ *     lookups read-lock the segment of their title, swaps write-lock the
+ *     segments of both titles, so a title never moves under a lookup
+ *     lock word (seqlock) per slot, odd while the slot is written. Traversal
+ *     reads slot content lock-free and retries if the word changed
+ *
+ * ! Warnning, using {@link #clear()} concurrently with other methods such as {@link #insert(String)}
+ * !    or {@link #contains(String)} might cause error.
+ */
+public class CompactSearchGraph implements Graph {
+    private static final int BUCKETSIZE = 5;
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int SEGMENT_BITS = 6;
+
+    /**
+     * Slot columns of one page
+     */
+    private static final class Page {
+        final AtomicLongArray title = new AtomicLongArray(PAGE_SIZE); // arena reference, 0 if empty
+        final AtomicIntegerArray heat = new AtomicIntegerArray(PAGE_SIZE);
+        final AtomicIntegerArray hash = new AtomicIntegerArray(PAGE_SIZE);
+        final AtomicIntegerArray lock = new AtomicIntegerArray(PAGE_SIZE); // seqlock word
+    }
+
+    /**
+     * Open-addressing part of title index, entries are slot + 1, 0 if empty
+     */
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        int[] hashes = new int[16];
+        int[] entries = new int[16];
+        int count;
+    }
+
+    private final boolean offHeap;
+
+    private AtomicInteger size = new AtomicInteger(0);
+    private AtomicInteger slots = new AtomicInteger(0);
+    private volatile Page[] pages = new Page[0];
+    private volatile Segment[] segments = newSegments();
+    private volatile TitleArena arena;
+    // slots emptied by pop, filled before new slots are taken
+    private volatile ConcurrentLinkedQueue<Integer> free = new ConcurrentLinkedQueue<Integer>();
+
+    private Reorganizer reorganizer = new Reorganizer(new Reorganizer.Target() {
+        @Override
+        public int slotCount() {
+            return slots.get();
+        }
+
+        @Override
+        public void reform(int slot) {
+            CompactSearchGraph.this.reform(slot);
+        }
+    }, BUCKETSIZE);
+
+    /**
+     * Graph with titles on Java heap
+     */
+    public CompactSearchGraph() {
+        this(false);
+    }
+
+    /**
+     * @param offHeap {@code true} to keep titles in direct memory, outside Java heap
+     */
+    public CompactSearchGraph(boolean offHeap) {
+        this.offHeap = offHeap;
+        arena = new TitleArena(offHeap);
+    }
+
+    /**
+     * Insert new element into the graph. Takes a unique slot from an atomic
+     *     counter, no global synchronization point.
+     *
+     * @param item new data insert to graph
+     */
+    @Override
+    public void insert(String item) {
+        byte[] key = item.getBytes(StandardCharsets.UTF_8);
+        int h = hash(item);
+
+        // fill and index under segment lock, reform can't move an unindexed title
+        Segment seg = segment(h);
+        long stamp = seg.lock.writeLock();
+        try {
+            add(seg, h, store(key, h));
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * Look up and insert under the write-lock of the title's segment, no other
+     *     thread can insert the same title in between.
+     *
+     * @param item target
+     * @return {@code true} if item was already present, {@code false} if it
+     *     has been inserted by this call
+     */
+    @Override
+    public boolean containsOrInsert(String item) {
+        if (contains(item)) {
+            return true;
+        }
+
+        byte[] key = item.getBytes(StandardCharsets.UTF_8);
+        int h = hash(item);
+        Segment seg = segment(h);
+        long stamp = seg.lock.writeLock();
+        try {
+            if (find(seg, h, key) >= 0) {
+                return true;
+            }
+            add(seg, h, store(key, h));
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+        size.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Search target in graph, heat goes to the holder closest to root. See
+     *     {@link HeuristicSearchGraph#contains(String)}.
+     *
+     * @param item target
+     * @return {@code true} if target found, {@code false} otherwise
+     */
+    @Override
+    public boolean contains(String item) {
+        if (size.get() == 0) {
+            return false;
+        }
+
+        byte[] key = item.getBytes(StandardCharsets.UTF_8);
+        int h = hash(item);
+        Segment seg = segment(h);
+        long stamp = seg.lock.readLock();
+        try {
+            int slot = find(seg, h, key);
+            if (slot < 0) {
+                return false;
+            }
+            // sampled above GraphNode.EXACT, hot slots are seldom written
+            AtomicIntegerArray heat = pages[slot >>> PAGE_BITS].heat;
+            int add = GraphNode.step(heat.get(slot & PAGE_MASK));
+            if (add == 1 || add > 0 && (ThreadLocalRandom.current().nextInt() & (add - 1)) == 0) {
+                heat.getAndAdd(slot & PAGE_MASK, add);
+            }
+        } finally {
+            seg.lock.unlockRead(stamp);
+        }
+
+        reorganizer.hit(size.get());
+        return true;
+    }
+
+    /**
+     * Remove every slot holding {@code item}, under the write-lock of its
+     *     segment. Emptied slots are reused by later inserts. The arena is
+     *     append-only, title bytes stay until {@link #clear()}.
+     *
+     * @param item target
+     * @return {@code true} if item was present
+     */
+    @Override
+    public boolean pop(String item) {
+        byte[] key = item.getBytes(StandardCharsets.UTF_8);
+        int h = hash(item);
+        Segment seg = segment(h);
+        int removed = 0;
+        long stamp = seg.lock.writeLock();
+        try {
+            for (int slot = find(seg, h, key); slot >= 0; slot = find(seg, h, key)) {
+                Page page = pageOf(slot);
+                int i = slot & PAGE_MASK;
+                lockSlot(page, i);
+                page.title.set(i, 0);
+                page.heat.set(i, 0);
+                unlockSlot(page, i);
+                remove(seg, h, slot);
+                free.add(slot);
+                ++removed;
+            }
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+        size.addAndGet(-removed);
+        return removed > 0;
+    }
+
+    /**
+     * @return norminal size of the graph
+     */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Empting the graph. Drops columns, index and arena at once, nothing is
+     *     visited.
+     */
+    @Override
+    public synchronized void clear() {
+        reorganizer.reset();
+        size.set(0);
+        slots.set(0);
+        free = new ConcurrentLinkedQueue<Integer>();
+        pages = new Page[0];
+        segments = newSegments();
+        arena = new TitleArena(offHeap);
+    }
+
+    /**
+     * BFS order traversal, slot order is BFS order.
+     *
+     * @return array of contents in graph in BFS order
+     */
+    @Override
+    public String[] traversal() {
+        int n = Math.min(slots.get(), pages.length << PAGE_BITS);
+        String[] res = new String[n];
+        int count = 0;
+        for (int slot = 0; slot < n; ++slot) {
+            long ref = readTitle(slot);
+            if (ref != 0) {
+                res[count++] = arena.get(ref);
+            }
+        }
+        return count == n ? res : Arrays.copyOf(res, count);
+    }
+
+    /**
+     * Lazy traversal, slot order is BFS order, parallel streams split by slot range.
+     *
+     * @return titles of the graph
+     */
+    @Override
+    public Stream<String> stream() {
+        TitleArena titles = arena;
+        int n = Math.min(slots.get(), pages.length << PAGE_BITS);
+        return IntStream.range(0, n).mapToLong(this::readTitle).filter(ref -> ref != 0).mapToObj(titles::get);
+    }
+
+    /**
+     * @param schedule new reorder schedule, see {@link ReformSchedule}
+     */
+    public void setSchedule(ReformSchedule schedule) {
+        reorganizer.setSchedule(schedule, size.get());
+    }
+
+    /**
+     * @return current reorder schedule
+     */
+    public ReformSchedule getSchedule() {
+        return reorganizer.getSchedule();
+    }
+
+    /**
+     * @return bytes used by titles in the arena
+     */
+    public long arenaBytes() {
+        return arena.used();
+    }
+
+    /**
+     * @return {@code true} if titles are kept outside Java heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Compare the parent at {@code parent} slot with each child, swap if the child
+     *     is hotter. Segments of both titles are write-locked (lower index first),
+     *     then both slot words, index is relocated before anything is released.
+     *
+     * @param parent parent slot
+     */
+    private void reform(int parent) {
+        for (int c = 0; c < BUCKETSIZE; ++c) {
+            int child = parent * BUCKETSIZE + 1 + c;
+            if (child >= slots.get()) {
+                return;
+            }
+            Page pp = pageOf(parent);
+            Page cp = pageOf(child);
+            if (pp == null || cp == null) {
+                return;
+            }
+            int pi = parent & PAGE_MASK;
+            int ci = child & PAGE_MASK;
+            if (pp.title.get(pi) == 0 || cp.title.get(ci) == 0 || pp.heat.get(pi) >= cp.heat.get(ci)) {
+                // empty slot, owner is about to fill it, or already in order
+                continue;
+            }
+
+            Segment[] segs = segments;
+            int ph = pp.hash.get(pi);
+            int ch = cp.hash.get(ci);
+            Segment first = segs[Math.min(segmentIndex(ph), segmentIndex(ch))];
+            Segment second = segs[Math.max(segmentIndex(ph), segmentIndex(ch))];
+            long s1 = first.lock.writeLock();
+            long s2 = first == second ? 0L : second.lock.writeLock();
+            lockSlot(pp, pi);
+            lockSlot(cp, ci);
+            try {
+                long pt = pp.title.get(pi);
+                long ct = cp.title.get(ci);
+                if (pt == 0 || ct == 0 || pp.hash.get(pi) != ph || cp.hash.get(ci) != ch) {
+                    // popped or refilled before the locks were taken
+                    continue;
+                }
+                int heat = pp.heat.get(pi);
+                pp.title.set(pi, ct);
+                cp.title.set(ci, pt);
+                pp.heat.set(pi, cp.heat.get(ci));
+                cp.heat.set(ci, heat);
+                pp.hash.set(pi, ch);
+                cp.hash.set(ci, ph);
+
+                relocate(segment(ch), ch, child, parent);
+                relocate(segment(ph), ph, parent, child);
+            } finally {
+                unlockSlot(cp, ci);
+                unlockSlot(pp, pi);
+                if (first != second) {
+                    second.lock.unlockWrite(s2);
+                }
+                first.lock.unlockWrite(s1);
+            }
+        }
+    }
+
+    /**
+     * Append title to arena and fill a new slot with it, not indexed yet.
+     *     Caller holds write-lock of the title's segment.
+     *
+     * @param key UTF-8 title
+     * @param h   title hash
+     * @return slot
+     */
+    private int store(byte[] key, int h) {
+        long ref = arena.append(key);
+        Integer hole = free.poll();
+        int slot = hole == null ? slots.getAndIncrement() : hole;
+        Page page = page(slot >>> PAGE_BITS);
+        int i = slot & PAGE_MASK;
+        lockSlot(page, i);
+        page.hash.set(i, h);
+        page.title.set(i, ref);
+        unlockSlot(page, i);
+        return slot;
+    }
+
+    /**
+     * Read slot title reference consistently with its lock word
+     *
+     * @param slot slot
+     * @return title reference, {@code 0} if empty
+     */
+    private long readTitle(int slot) {
+        Page page = pageOf(slot);
+        if (page == null) {
+            return 0;
+        }
+        int i = slot & PAGE_MASK;
+        for (int spins = 0;; ++spins) {
+            int word = page.lock.get(i);
+            long ref = page.title.get(i);
+            if ((word & 1) == 0 && page.lock.get(i) == word) {
+                return ref;
+            }
+            backoff(spins);
+        }
+    }
+
+    /**
+     * Smallest slot holding {@code key}. Caller holds segment lock.
+     *
+     * @return slot, {@code -1} if not found
+     */
+    private int find(Segment seg, int h, byte[] key) {
+        int mask = seg.entries.length - 1;
+        int best = -1;
+        for (int i = h & mask; seg.entries[i] != 0; i = (i + 1) & mask) {
+            int slot = seg.entries[i] - 1;
+            if (seg.hashes[i] == h && (best < 0 || slot < best)) {
+                long ref = pages[slot >>> PAGE_BITS].title.get(slot & PAGE_MASK);
+                if (arena.equals(ref, key)) {
+                    best = slot;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Add index entry. Caller holds segment write-lock.
+     */
+    private void add(Segment seg, int h, int slot) {
+        if ((seg.count + 1) * 4 > seg.entries.length * 3) {
+            // grow, keep load factor under 0.75
+            int[] hashes = seg.hashes;
+            int[] entries = seg.entries;
+            seg.hashes = new int[entries.length * 2];
+            seg.entries = new int[entries.length * 2];
+            for (int i = 0; i < entries.length; ++i) {
+                if (entries[i] != 0) {
+                    put(seg, hashes[i], entries[i]);
+                }
+            }
+        }
+        put(seg, h, slot + 1);
+        ++seg.count;
+    }
+
+    private static void put(Segment seg, int h, int entry) {
+        int mask = seg.entries.length - 1;
+        int i = h & mask;
+        while (seg.entries[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        seg.hashes[i] = h;
+        seg.entries[i] = entry;
+    }
+
+    /**
+     * Delete index entry of {@code slot}, entries after it in the probe run are
+     *     shifted back so lookups never stop at the gap. Caller holds segment
+     *     write-lock.
+     */
+    private static void remove(Segment seg, int h, int slot) {
+        int mask = seg.entries.length - 1;
+        int i = h & mask;
+        while (seg.entries[i] != slot + 1) {
+            if (seg.entries[i] == 0) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        for (int j = (i + 1) & mask; seg.entries[j] != 0; j = (j + 1) & mask) {
+            int home = seg.hashes[j] & mask;
+            // move j into the gap unless its home lies cyclically in (i, j]
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                seg.hashes[i] = seg.hashes[j];
+                seg.entries[i] = seg.entries[j];
+                i = j;
+            }
+        }
+        seg.entries[i] = 0;
+        seg.hashes[i] = 0;
+        --seg.count;
+    }
+
+    /**
+     * Point index entry of {@code from} slot to {@code to} slot. Caller holds
+     *     segment write-lock.
+     */
+    private static void relocate(Segment seg, int h, int from, int to) {
+        int mask = seg.entries.length - 1;
+        for (int i = h & mask; seg.entries[i] != 0; i = (i + 1) & mask) {
+            if (seg.hashes[i] == h && seg.entries[i] == from + 1) {
+                seg.entries[i] = to + 1;
+                return;
+            }
+        }
+    }
+
+    private Segment segment(int h) {
+        return segments[segmentIndex(h)];
+    }
+
+    private static int segmentIndex(int h) {
+        return h >>> (32 - SEGMENT_BITS);
+    }
+
+    private static Segment[] newSegments() {
+        Segment[] res = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = new Segment();
+        }
+        return res;
+    }
+
+    /**
+     * Spread {@link String#hashCode()}, high bits pick the segment, low bits the bucket
+     */
+    private static int hash(String item) {
+        return item.hashCode() * 0x9E3779B9;
+    }
+
+    /**
+     * @param slot slot
+     * @return page holding the slot, {@code null} if not allocated yet
+     */
+    private Page pageOf(int slot) {
+        Page[] arr = pages;
+        return slot >>> PAGE_BITS < arr.length ? arr[slot >>> PAGE_BITS] : null;
+    }
+
+    private Page page(int i) {
+        Page[] arr = pages;
+        if (i < arr.length && arr[i] != null) {
+            return arr[i];
+        }
+        synchronized (this) {
+            arr = pages;
+            if (i >= arr.length) {
+                arr = Arrays.copyOf(arr, Math.max(i + 1, arr.length * 2));
+            }
+            if (arr[i] == null) {
+                arr[i] = new Page();
+            }
+            pages = arr;
+            return arr[i];
+        }
+    }
+
+    private static void lockSlot(Page page, int i) {
+        for (int spins = 0;; ++spins) {
+            int word = page.lock.get(i);
+            if ((word & 1) == 0 && page.lock.compareAndSet(i, word, word + 1)) {
+                return;
+            }
+            backoff(spins);
+        }
+    }
+
+    private static void unlockSlot(Page page, int i) {
+        page.lock.incrementAndGet(i);
+    }
+
+    /**
+     * Bounded spin, then yield the core
+     */
+    private static void backoff(int spins) {
+        if (spins < 64) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
@@ -1,16 +1,70 @@
 package graph;
 
+import java.util.Arrays;
+import java.util.stream.Stream;
+
 public interface Graph {
     void insert(String item);
 
-    // TODO, wait for future update
-    // void pop(String item);
+    /**
+     * Remove every occurrence of {@code item}
+     * 
+     * @param item target
+     * @return {@code true} if item was present
+     */
+    boolean pop(String item);
 
     boolean contains(String item);
 
+    /**
+     * Atomic {@link #contains(String)} then {@link #insert(String)}, one lookup. 
+     *     Of concurrent callers with the same item, exactly one inserts it.
+     * 
+     * @param item target
+     * @return {@code true} if item was already present, {@code false} if it 
+     *     has been inserted by this call
+     */
+    boolean containsOrInsert(String item);
+
+    /**
+     * Insert a batch of items, implementations may share locking and path 
+     *     work across the batch.
+     * 
+     * @param items new data insert to graph
+     */
+    default void insertAll(String[] items) {
+        for (String item : items) {
+            insert(item);
+        }
+    }
+
+    /**
+     * Look up a batch of items
+     * 
+     * @param items targets
+     * @return {@code res[i]} is {@link #contains(String)} of {@code items[i]}
+     */
+    default boolean[] containsAll(String[] items) {
+        boolean[] res = new boolean[items.length];
+        for (int i = 0; i < items.length; ++i) {
+            res[i] = contains(items[i]);
+        }
+        return res;
+    }
+
     int size();
 
     void clear();
 
     String[] traversal();
+
+    /**
+     * Titles of the graph, in {@link #traversal()} order when sequential.
+     *     Implementations should stream lazily instead of copying.
+     * 
+     * @return titles of the graph
+     */
+    default Stream<String> stream() {
+        return Arrays.stream(traversal());
+    }
 }
@@ -1,110 +1,239 @@
 package graph;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Node uses by Graph class
  * 
  * This class provides locked multi-producer multi-consumer graph node 
  *     for {@link HeuristicSearchGraph}. Both lock are implemented using 
- *     {@link AtomicInteger}.
+ *     one {@link StampedLock} per node.
  * 
  * There is only one copy of static method exist in memory within one program.
  *     Which will reduces memory consumption, but also able to access private 
  *     variable. Reinfore encapsulation.
  * 
  * 
- * {@code consumer} read-lock
- * {@code producer} write-lock
+ * read-lock, shared by multiple readers
+ * write-lock, exclusive, taken by insert on the parent node and by reform on
+ *     both swapped nodes
+ * optimistic read, lock-free, validated afterward. Falls back to read-lock 
+ *     if a writer interleaved
  * 
- * ! Warnning, beware of starvation. For example, muliple greedy write-locks
- * !    collide with muliple greedy read-locks
+ * Waiting threads spin for a short bounded time and then park, no core is 
+ *     burnt while waiting. Once a writer is queued, newly arriving readers
+ *     queue behind it, so neither side starves the other.
+ * 
+ * Heat is counted without locking, see {@link #hit(GraphNode, int)}. Exact and
+ *     atomic for cold nodes, sampled for hot ones so the hottest titles are 
+ *     mostly read, not written, by concurrent lookups. With decay on, heat is
+ *     kept together with the decay epoch it was last brought to, and fades
+ *     by half every 8 epochs, applied lazily when the node is touched.
  * 
  */
 class GraphNode {
-    // thread-safe, also reduce total overhead
-    private AtomicInteger consumer = new AtomicInteger(0); // read-lock
-    private AtomicInteger producer = new AtomicInteger(0); // write-lock
+    private static final VarHandle HEAT;
+    static {
+        try {
+            HEAT = MethodHandles.lookup().findVarHandle(GraphNode.class, "heat", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    // heat counted one by one below this, sampled above
+    static final int EXACT = 1 << 10;
+    // 2^(-i/8), decay of i epochs within a half-life
+    private static final double[] FADE = new double[8];
+    static {
+        for (int i = 0; i < FADE.length; ++i) {
+            FADE[i] = Math.pow(0.5, i / 8.0);
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
 
     protected String data;
     protected GraphNode prev;
     protected GraphNode next[];
     protected int heat;
+    protected int slot; // BFS position of this node, fixed for its lifetime
+    protected int touched; // last use, coarse time stamp, only kept by bounded graphs
+    protected int epoch; // decay epoch of heat, 0 if decay is off
 
     /**
-     * read-lock (consumer lock)
+     * read-lock
      * Allowing mutiple read concurrenly. Will place lock if write-lock is off.
      * 
      * @param node target
-     * @param wait indicator for wait indefinitely
+     * @param wait indicator for wait (park) until write-lock is released
      * @return {@code true} if placing lock successful, {@code false} otherwise
      */
     public static boolean re_lock(GraphNode node, boolean wait) {
-        node.consumer.incrementAndGet();
-
         if (wait) {
-            while (node.producer.get() > 0) {
-                // wait indefinitely
-            }
+            node.lock.readLock();
             return true;
         }
-
-        if (node.producer.get() > 0) {
-            // give up
-            node.consumer.decrementAndGet();
-            return false;
-        }
-        return true;
+        return node.lock.tryReadLock() != 0L;
     }
 
     /**
-    * write-lock (producer lock)
-    * Allowing mutiple write concurrenly. Will place lock if read-lock is off.
+    * write-lock
+    * Exclusive. Will place lock if no read-lock or write-lock is on.
     * 
     * @param node target
-    * @param wait indicator for wait indefinitely
+    * @param wait indicator for wait (park) until node is free
     * @return {@code true} if placing lock successful, {@code false} otherwise
     */
     protected static boolean wr_lock(GraphNode node, boolean wait) {
-        node.producer.incrementAndGet();
-
         if (wait) {
-            while (node.consumer.get() > 0) {
-                // wait until all clear
-            }
+            node.lock.writeLock();
             return true;
         }
-
-        if (node.consumer.get() > 0) {
-            // give up
-            node.producer.decrementAndGet();
-            return false;
-        }
-        return true;
-
+        return node.lock.tryWriteLock() != 0L;
     }
 
     /**
-     * Reduce read-lock by 1 (reduce consumer lock by 1)
+     * Release one read-lock
      * 
      * @param node target
      */
     protected static void re_free(GraphNode node) {
-        node.consumer.decrementAndGet();
+        node.lock.tryUnlockRead();
     }
 
     /**
-     * Reduce write-lock by 1 (reduce producer lock by 1)
+     * Release write-lock
      * 
      * @param node target
      */
     protected static void wr_free(GraphNode node) {
-        node.producer.decrementAndGet();
+        node.lock.tryUnlockWrite();
+    }
+
+    /**
+     * Start an optimistic read. Nothing is locked, values read afterward must 
+     *     be confirmed by {@link #re_validate(GraphNode, long)} before use.
+     * 
+     * @param node target
+     * @return stamp, {@code 0} if node is write-locked
+     */
+    protected static long re_optimistic(GraphNode node) {
+        return node.lock.tryOptimisticRead();
     }
 
     /**
-    * Content swap. 
+     * @param node  target
+     * @param stamp stamp from {@link #re_optimistic(GraphNode)}
+     * @return {@code true} if no write happened since stamp was issued
+     */
+    protected static boolean re_validate(GraphNode node, long stamp) {
+        return node.lock.validate(stamp);
+    }
+
+    /**
+     * Read {@code node.next[i]} lock-free, fall back to read-lock if a writer
+     *     interleaved.
+     * 
+     * @param node parent
+     * @param i    child index
+     * @return child, or {@code null} if not attached yet
+     */
+    protected static GraphNode child(GraphNode node, int i) {
+        long stamp = re_optimistic(node);
+        GraphNode res = node.next[i];
+        if (!re_validate(node, stamp)) {
+            re_lock(node, true);
+            res = node.next[i];
+            re_free(node);
+        }
+        return res;
+    }
+
+    /**
+     * Count one hit. Up to {@link #EXACT} hits are added one by one, atomically.
+     *     Above it 1 hit in 2^k adds 2^k, k grows with heat, the expected heat
+     *     stays the hit count and a hot node is written once every 2^k hits.
+     * 
+     * @param node  target
+     * @param epoch current decay epoch
+     */
+    protected static void hit(GraphNode node, int epoch) {
+        if (node.epoch != epoch) {
+            fade(node, epoch);
+        }
+        int h = node.heat;
+        if (h < EXACT) {
+            HEAT.getAndAdd(node, 1);
+            return;
+        }
+        int add = step(h);
+        if (add > 0 && (ThreadLocalRandom.current().nextInt() & (add - 1)) == 0) {
+            HEAT.getAndAdd(node, add);
+        }
+    }
+
+    /**
+     * @param heat current heat
+     * @return heat added by a sampled hit, 1 below {@link #EXACT}, {@code 0}
+     *     once heat is near overflow
+     */
+    static int step(int heat) {
+        if (heat < EXACT) {
+            return 1;
+        }
+        if (heat >= 1 << 30) {
+            return 0;
+        }
+        // [EXACT, 2 * EXACT) -> 2, [2 * EXACT, 4 * EXACT) -> 4 ...
+        return Integer.highestOneBit(heat) / (EXACT >>> 1);
+    }
+
+    /**
+     * Heat decayed to {@code epoch}, node is not changed
+     * 
+     * @param node  target
+     * @param epoch current decay epoch
+     * @return heat, as if every hit had decayed since it was counted
+     */
+    protected static int heat(GraphNode node, int epoch) {
+        return fade(node.heat, epoch - node.epoch);
+    }
+
+    /**
+     * @param heat   heat
+     * @param epochs epochs passed, 8 per half-life
+     * @return decayed heat
+     */
+    static int fade(int heat, int epochs) {
+        if (epochs <= 0) {
+            // same epoch, or a racing thread already moved the node ahead
+            return heat;
+        }
+        if (epochs >= 8 * 31) {
+            return 0;
+        }
+        return (int) ((heat >>> (epochs >>> 3)) * FADE[epochs & 7]);
+    }
+
+    /**
+     * Bring heat to {@code epoch}. A concurrent hit may be lost at the
+     *     epoch change, the decayed value is only published if heat didn't move.
+     */
+    private static void fade(GraphNode node, int epoch) {
+        int from = node.epoch;
+        int h = node.heat;
+        if (epoch - from > 0 && HEAT.compareAndSet(node, h, fade(h, epoch - from))) {
+            node.epoch = epoch;
+        }
+    }
+
+    /**
+    * Content swap. Caller holds write-lock on both nodes, locks stay with 
+    *     the node position.
     * 
     * @param a first {@code GraphNode}
     * @param b second {@code GraphNode}
@@ -117,9 +246,24 @@ class GraphNode {
         int tmp = a.heat;
         a.heat = b.heat;
         b.heat = tmp;
+        tmp = a.touched;
+        a.touched = b.touched;
+        b.touched = tmp;
+        tmp = a.epoch;
+        a.epoch = b.epoch;
+        b.epoch = tmp;
+    }
 
-        a.producer.set(b.producer.getAndSet(a.producer.get()));
-        a.consumer.set(b.consumer.getAndSet(a.consumer.get()));
+    /**
+     * Turn node into a hole, tree links stay. Caller holds write-lock.
+     * 
+     * @param node target
+     */
+    protected static void vacate(GraphNode node) {
+        node.data = null;
+        node.heat = 0;
+        node.touched = 0;
+        node.epoch = 0;
     }
 
     /**
@@ -147,6 +291,6 @@ class GraphNode {
                 nt += "null ";
             }
         }
-        return String.format("%s %s] %d %d %d", data, nt, heat, consumer.get(), producer.get());
+        return String.format("%s %s] %d %d %b", data, nt, heat, lock.getReadLockCount(), lock.isWriteLocked());
     }
 }
\ No newline at end of file
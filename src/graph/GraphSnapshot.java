@@ -0,0 +1,163 @@
+package graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk snapshot of a heat ordered graph
+ *
+ * Layout, big-endian:
+ *     header   magic "HSG1", version, count, reserved (4 ints)
+ *     heat     int[count], heat of slot i
+ *     end      int[count], end offset of title i in the blob
+ *     blob     UTF-8 titles back to back, title i is [end[i - 1], end[i])
+ *
+ * Slot i is the BFS position, so the tree shape is implied by the order, the
+ *     children of slot s are at s * BUCKETSIZE + 1 + j.
+ *
+ * Reading maps the file read-only, nothing is copied until a title is decoded,
+ *     {@link HeuristicSearchGraph#load(java.nio.file.Path)} still decodes
+ *     every title up front.
+ *     Writing goes to a temporary file renamed over the target, a crash never
+ *     leaves a half written snapshot behind.
+ */
+class GraphSnapshot {
+    private static final int MAGIC = 0x48534731; // HSG1
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+
+    private final IntBuffer heat;
+    private final IntBuffer end;
+    private final MappedByteBuffer blob;
+    private final int count;
+
+    private GraphSnapshot(IntBuffer heat, IntBuffer end, MappedByteBuffer blob, int count) {
+        this.heat = heat;
+        this.end = end;
+        this.blob = blob;
+        this.count = count;
+    }
+
+    /**
+     * Map snapshot file
+     *
+     * @param file snapshot file
+     * @return mapped snapshot
+     * @exception IOException file can't be read or is not a snapshot
+     */
+    static GraphSnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER) {
+                throw new IOException("not a graph snapshot: " + file);
+            }
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a graph snapshot, or unsupported version: " + file);
+            }
+            int count = header.getInt();
+            long arrays = (long) count * 8;
+            if (count < 0 || HEADER + arrays > length) {
+                throw new IOException("truncated graph snapshot: " + file);
+            }
+
+            // mappings stay valid after the channel is closed
+            IntBuffer heat = ch.map(FileChannel.MapMode.READ_ONLY, HEADER, (long) count * 4).asIntBuffer();
+            IntBuffer end = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + (long) count * 4, (long) count * 4)
+                    .asIntBuffer();
+            long blobSize = length - HEADER - arrays;
+            if (count > 0 && (end.get(count - 1) & 0xFFFFFFFFL) != blobSize) {
+                throw new IOException("truncated graph snapshot: " + file);
+            }
+            MappedByteBuffer blob = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + arrays, blobSize);
+            return new GraphSnapshot(heat, end, blob, count);
+        }
+    }
+
+    /**
+     * Write snapshot, titles and heat in BFS order
+     *
+     * @param file   target file, replaced atomically
+     * @param titles titles by slot
+     * @param heats  heat by slot
+     * @param count  number of slots to write
+     * @exception IOException file can't be written
+     */
+    static void write(Path file, String[] titles, int[] heats, int count) throws IOException {
+        byte[][] bytes = new byte[count][];
+        long total = 0;
+        for (int i = 0; i < count; ++i) {
+            bytes[i] = titles[i].getBytes(StandardCharsets.UTF_8);
+            total += bytes[i].length;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("graph too large for snapshot format: " + total + " title bytes");
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(0);
+                for (int i = 0; i < count; ++i) {
+                    out.writeInt(heats[i]);
+                }
+                int offset = 0;
+                for (int i = 0; i < count; ++i) {
+                    offset += bytes[i].length;
+                    out.writeInt(offset);
+                }
+                for (int i = 0; i < count; ++i) {
+                    out.write(bytes[i]);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return number of slots
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param slot slot
+     * @return heat of slot
+     */
+    int heat(int slot) {
+        return heat.get(slot);
+    }
+
+    /**
+     * @param slot slot
+     * @return decoded title of slot
+     */
+    String title(int slot) {
+        int from = slot == 0 ? 0 : end.get(slot - 1);
+        int to = end.get(slot);
+        byte[] res = new byte[to - from];
+        ByteBuffer view = blob.duplicate();
+        view.position(from);
+        view.get(res);
+        return new String(res, StandardCharsets.UTF_8);
+    }
+}
@@ -1,176 +1,918 @@
 package graph;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Thread-safed data structure
  * 
  * This an undirectional star graph implementation using {@link GraphNode}. The graph
  *     is sorted by search history. Reorder is control via. a counter, reorder if it 
- *     reaches 0.
+ *     reaches 0. When and where the reorder runs is set by {@link ReformSchedule},
+ *     either inline or on a background reorganizer in bounded steps.
  * The node with more visits should closer to root compare to current subgraph nodes. Means
  *     no lateral node replacement. // TODO, wait for future update
  * 
- * This graph supports multi-thread multi-read multi-write operation. For single node, 
- *     support multi-thread multi-read or multi-thread multi-write, but not both.
+ * This graph supports multi-thread multi-read multi-write operation. Node level 
+ *     locking is described in {@link GraphNode}, readers walk the tree with optimistic
+ *     reads and only writers take exclusive locks.
  * 
- * Singleton pattern design allow all reference refer to the same graph, one grpah accross
- *     entire program.
+ * Membership is answered by a title index kept next to the tree, it maps each title
+ *     to the nodes holding it, ordered by {@code slot} (BFS position). Lookup is O(1)
+ *     instead of a BFS over the whole graph. A {@link BloomFilter} in front of the index
+ *     answers most misses (titles never seen) without touching the index at all.
  * 
+ * Titles are split by hash into shards, each shard is an independent tree with its
+ *     own index, filter and reorder countdown. Writers to different shards never
+ *     touch the same nodes, and a reform pass only reorders one shard. Traversal
+ *     lists shards one after another, each in BFS order.
  * 
- * ! Warnning, muliple greedy write-locks collide with muliple greedy read-locks on one node
- * !     would cause starvation. // TODO, wait for future update
+ * With a capacity ({@link #setCapacity(int)}) the graph never holds more titles, each
+ *     insert over capacity evicts a cold title. Heat is the frequency signal, aged
+ *     by the half-life below, ties go to the least recently used. Victims are
+ *     sampled from the leaves, where reform leaves the cold titles, a scan of the
+ *     tree finds them when sampling keeps missing. Removed nodes become holes,
+ *     reused by the next inserts, the tree is never rebuilt.
+ * 
+ * Heat counts lookups without locks, sampled on hot titles (see {@link GraphNode}).
+ *     With a half-life ({@link #setHalfLife(long)}) heat fades exponentially
+ *     over time, reform orders titles by recent popularity, titles hot early
+ *     in a run sink back once they cool down.
+ * 
+ * With the prefix index on ({@link #setPrefixIndex(boolean)}) every shard also keeps its
+ *     titles in a {@link TitleTrie}, {@link #startsWith(String)} lists titles by prefix
+ *     without a traversal.
+ * 
+ * Traversal is lazy, {@link #stream()} walks the tree level by level in slot order with
+ *     a cursor on the current path, nothing is allocated per node. Parallel streams
+ *     split by shard, then by subtree.
+ * 
+ * Graph can be saved with {@link #snapshot(Path)} while in use, and restored with 
+ *     {@link #load(Path)} at startup, see {@link GraphSnapshot} for the file format.
+ * 
+ * {@link #getInstance()} is the shared single shard graph, {@link #getInstance(String)}
+ *     gives one graph per wiki language, titles from different wikis never mix.
  */
 public class HeuristicSearchGraph implements Graph {
     private static HeuristicSearchGraph HSG;
+    private static final ConcurrentHashMap<String, HeuristicSearchGraph> LANGUAGES = new ConcurrentHashMap<String, HeuristicSearchGraph>();
+    private static final AtomicReferenceFieldUpdater<Tree, GraphNode> ROOT = AtomicReferenceFieldUpdater
+            .newUpdater(Tree.class, GraphNode.class, "root");
+    // index value of a title claimed by containsOrInsert, node not linked yet
+    private static final GraphNode[] CLAIMED = new GraphNode[0];
 
     private final int BUCKETSIZE = 5;
-    private final int MIN = 4;
-    private final double FACTOR = 0.25;
+    private static final int SAMPLES = 8; // eviction candidates compared per victim
+
+    private final Shard[] shards;
+    private final int shift; // shard of a title is the top bits of its hash
+
+    // negative lookup fast path, sized by setExpectedSize(int, double), split across shards
+    private volatile int expected = 1 << 16;
+    private volatile double fpp = 0.01;
+    private LongAdder filterRejects = new LongAdder(); // misses answered by filter
+    private LongAdder filterFalse = new LongAdder(); // misses filter let through
+
+    private volatile int capacity; // titles per shard, 0 if unbounded
+    private volatile int bound; // capacity as set, whole graph
+    private volatile boolean prefixed; // trees keep a prefix index
+    private volatile Epochs epochs = new Epochs(0, 0, 0); // heat decay clock
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
+    private LongAdder evictions = new LongAdder();
+
+    /**
+     * Content of one shard. Replaced as a whole by {@link HeuristicSearchGraph#clear()},
+     *     operations hold on to the tree they started with.
+     */
+    private static final class Tree {
+        volatile GraphNode root;
+        // Norminal size of the tree, indicate number of nodes attach to the tree
+        final AtomicInteger size = new AtomicInteger(0);
+        // next free slot (BFS position), handed out to inserters
+        final AtomicInteger slots = new AtomicInteger(0);
+        // title -> nodes holding the title, sorted by slot, closest to root first
+        final ConcurrentHashMap<String, GraphNode[]> index = new ConcurrentHashMap<String, GraphNode[]>();
+        volatile BloomFilter filter;
+        // holes left by removed titles, filled before new slots are taken
+        final ConcurrentLinkedQueue<GraphNode> free = new ConcurrentLinkedQueue<GraphNode>();
+        final AtomicInteger removed = new AtomicInteger(0); // removals since filter was built
+        // titles of the index by prefix, null if the prefix index is off
+        volatile TitleTrie prefixes;
+
+
+        Tree(BloomFilter filter) {
+            this.filter = filter;
+        }
+    }
 
-    // Norminal size of the graph, indicate number of nodes attach to the graph
-    private AtomicInteger size = new AtomicInteger(0);
-    private AtomicInteger countdown = new AtomicInteger(MIN);
+    /**
+     * Decay epochs of one half-life setting, 8 epochs per half-life. A new 
+     *     setting starts counting where the previous one stopped, heat never
+     *     jumps when the half-life changes.
+     */
+    private static final class Epochs {
+        final long origin; // System.nanoTime() when the setting started
+        final long length; // nanoseconds per epoch, 0 if decay is off
+        final int base; // epoch at origin
 
-    private GraphNode graphRoot;
+        Epochs(long origin, long length, int base) {
+            this.origin = origin;
+            this.length = length;
+            this.base = base;
+        }
 
-    // path to insert next node
-    private int[] path = new int[0];
+        int now() {
+            return length == 0 ? base : base + (int) ((System.nanoTime() - origin) / length);
+        }
+    }
 
     /**
+     * BFS walk over the nodes of some trees, placeholders and holes included
+     * 
+     * A tree is walked level by level. The level being walked is a slot range, 
+     *     the next level is the children of a (possibly smaller) range, children
+     *     of slots [a, b) are slots [a * BUCKETSIZE + 1, b * BUCKETSIZE + 1). 
+     *     Node at the cursor is reached through the cached path from root, 
+     *     moving to the next slot only re-reads the path below the digit that
+     *     changed, amortized O(1) per node.
+     * 
+     * Splits hand over whole trees first, then the upper half of the current
+     *     level with its subtrees, then the children of the last slot of a level.
+     *     Split parts are subtrees, not BFS order prefixes, so the spliterator is
+     *     not {@code ORDERED}. Walked alone it is BFS order, tree by tree.
+     */
+    private final class Nodes implements Spliterator<GraphNode> {
+        private static final int MAX_DEPTH = 16; // 5^14 > 2^31 slots
+
+        private final Tree[] trees;
+        private int tree; // current tree, walked trees are before it
+        private int end; // trees after the current one, up to end
+
+        private long lo; // first slot of current level whose subtree is ours
+        private long slot; // cursor
+        private long hi; // end of current level, exclusive
+        private long split; // end of the subtree range, may be < hi after a split
+        private int depth; // depth of current level
+        private long count; // slots of current tree, read at each level
+
+        private final int[] digits = new int[MAX_DEPTH];
+        private final GraphNode[] path = new GraphNode[MAX_DEPTH];
+        private boolean valid; // path points to slot - 1
+
+        Nodes(Tree[] trees, int from, int to) {
+            this.trees = trees;
+            this.tree = from;
+            this.end = to;
+            start(0, 1, 0);
+        }
+
+        private Nodes(Tree tree, long from, long to, int depth) {
+            this.trees = new Tree[] { tree };
+            this.tree = 0;
+            this.end = 1;
+            start(from, to, depth);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super GraphNode> action) {
+            while (tree < end) {
+                if (slot < hi && slot < count) {
+                    GraphNode node = seek();
+                    ++slot;
+                    if (node != null) {
+                        action.accept(node);
+                        return true;
+                    }
+                    continue;
+                }
+                if (!descend()) {
+                    ++tree;
+                    if (tree < end) {
+                        start(0, 1, 0);
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<GraphNode> trySplit() {
+            if (end - tree > 1) {
+                // hand over the trees after the current one
+                int mid = (tree + 1 + end) >>> 1;
+                Nodes res = new Nodes(trees, mid, end);
+                end = mid;
+                return res;
+            }
+            if (tree >= end) {
+                return null;
+            }
+            long last = Math.min(hi, count);
+            if (last - slot >= 2 && split == hi) {
+                // upper half of the level, with its subtrees
+                long mid = (slot + last) >>> 1;
+                Nodes res = new Nodes(trees[tree], mid, hi, depth);
+                hi = mid;
+                split = mid;
+                return res;
+            }
+            if (last - slot == 1 && split == hi && slot * BUCKETSIZE + 1 < count) {
+                // last slot of the level, hand over its children
+                Nodes res = new Nodes(trees[tree], slot * BUCKETSIZE + 1, slot * BUCKETSIZE + 1 + BUCKETSIZE,
+                        depth + 1);
+                split = slot;
+                return res;
+            }
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            long res = 0;
+            for (int i = tree + 1; i < end; ++i) {
+                res += trees[i].slots.get();
+            }
+            if (tree < end) {
+                res += Math.max(0, Math.min(hi, count) - slot);
+                for (long a = lo * BUCKETSIZE + 1, b = split * BUCKETSIZE + 1; a < count && a < b; a = a
+                        * BUCKETSIZE + 1, b = b * BUCKETSIZE + 1) {
+                    res += Math.min(b, count) - a;
+                }
+            }
+            return res;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL;
+        }
+
+        /**
+         * Position cursor at the start of a level range of the current tree
+         */
+        private void start(long from, long to, int level) {
+            if (tree >= end) {
+                return;
+            }
+            lo = from;
+            slot = from;
+            hi = to;
+            split = to;
+            depth = level;
+            count = trees[tree].slots.get();
+            valid = false;
+        }
+
+        /**
+         * Move to the children of the current subtree range
+         * 
+         * @return {@code false} if there is no next level
+         */
+        private boolean descend() {
+            long from = lo * BUCKETSIZE + 1;
+            long to = split * BUCKETSIZE + 1;
+            if (from >= to || from >= trees[tree].slots.get() || depth + 1 >= MAX_DEPTH) {
+                return false;
+            }
+            start(from, to, depth + 1);
+            return true;
+        }
+
+        /**
+         * @return node at the cursor, {@code null} if not attached
+         */
+        private GraphNode seek() {
+            int changed;
+            if (valid) {
+                // next slot of the same level, increment base BUCKETSIZE digits
+                changed = depth;
+                while (digits[changed] == BUCKETSIZE - 1) {
+                    digits[changed] = 0;
+                    --changed;
+                }
+                ++digits[changed];
+            } else {
+                int[] arr = pathOf((int) slot);
+                System.arraycopy(arr, 0, digits, 1, arr.length);
+                path[0] = trees[tree].root;
+                changed = 1;
+                valid = true;
+            }
+            for (int i = changed; i <= depth; ++i) {
+                path[i] = path[i - 1] == null ? null : GraphNode.child(path[i - 1], digits[i]);
+            }
+            return path[depth];
+        }
+    }
+
+    /**
+     * One hash shard, current tree and its reorganizer
+     */
+    private final class Shard {
+        volatile Tree tree = newTree();
+
+        final Reorganizer reorganizer = new Reorganizer(new Reorganizer.Target() {
+            @Override
+            public int slotCount() {
+                return tree.slots.get();
+            }
+
+            @Override
+            public void reform(int slot) {
+                Tree t = tree;
+                GraphNode parent = locate(t, slot);
+                if (parent != null) {
+                    HeuristicSearchGraph.this.reform(t, parent);
+                }
+            }
+        }, BUCKETSIZE);
+    }
+
+    /**
+     * Single shard graph, BFS order of {@link #traversal()} is the order of the
+     *     whole graph
+     */
+    public HeuristicSearchGraph() {
+        this(1);
+    }
+
+    /**
+     * @param shards number of hash shards, rounded up to a power of 2
+     * @exception IllegalArgumentException {@code shards} is not positive
+     */
+    public HeuristicSearchGraph(int shards) {
+        if (shards < 1 || shards > 1 << 16) {
+            throw new IllegalArgumentException("shards must be in [1, 65536]");
+        }
+        int n = shards == 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+        this.shift = 32 - Integer.numberOfTrailingZeros(n);
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; ++i) {
+            this.shards[i] = new Shard();
+        }
+    }
+
+    /** 
      * Insert new element into the graph
      * 
-     * All threads are synchronized at {@link #genPath()} method. This is the only 
-     *     golbal synchronization point in this method. It allows each element has 
-     *     a unique path to insertion point.  If path node havn't completed yet,
-     *     wait indefinitely until path node completes.
+     * Each element takes a unique slot from an atomic counter, no global 
+     *     synchronization point. Path to the slot is computed from slot number.
+     *     If a node on the path havn't been built yet by its owner, an empty 
+     *     placeholder is attached instead of waiting, owner fills it later.
+     *     Only the parent of a missing node is write-locked, briefly.
      * 
      * @param item new data insert to graph
      * 
      */
     @Override
     public void insert(String item) {
-        int[] targetPath = genPath();
-        if (targetPath.length == 0) {
-            // graph root node, very first node
-            graphRoot = genNode(item, null);
-            size.incrementAndGet();
-            return;
-        }
+        insert(shardOf(item).tree, item);
+    }
 
-        while (graphRoot == null) {
-            // wait until root is builded
+    /** 
+     * Claim the title in index first, only the claiming thread inserts. Others 
+     *     see the claim and report the title as present.
+     * 
+     * @param item target
+     * @return {@code true} if item was already present, {@code false} if it 
+     *     has been inserted by this call
+     */
+    @Override
+    public boolean containsOrInsert(String item) {
+        Shard shard = shardOf(item);
+        Tree t = shard.tree;
+        if (lookup(t, item)) {
+            shard.reorganizer.hit(t.size.get());
+            return true;
         }
-        GraphNode node = graphRoot;
-        for (int i = 0; i < targetPath.length - 1; ++i) {
+        if (t.index.putIfAbsent(item, CLAIMED) != null) {
+            // present, or claimed by another thread
+            return true;
+        }
+        insert(t, item);
+        return false;
+    }
 
-            // multi-write write lock
-            GraphNode.wr_lock(node, true);
-            while (node.next[targetPath[i]] == null) {
-                // path node havn't build yet
+    /** 
+     * Insert a batch. Items are grouped by shard, slots of a group are taken
+     *     with one atomic add, consecutive slots share a parent, so the path is
+     *     walked once per parent instead of once per item.
+     * 
+     * @param items new data insert to graph
+     */
+    @Override
+    public void insertAll(String[] items) {
+        if (capacity > 0) {
+            // one by one, holes are reused and each insert may evict
+            for (String item : items) {
+                insert(item);
             }
-
-            node = node.next[targetPath[i]];
-            GraphNode.wr_free(node.prev);
+            return;
+        }
+        if (shards.length == 1) {
+            insertAll(shards[0].tree, items);
+            return;
+        }
+        int[] of = new int[items.length];
+        int[] count = new int[shards.length];
+        for (int i = 0; i < items.length; ++i) {
+            of[i] = shardIndex(items[i]);
+            ++count[of[i]];
+        }
+        String[][] groups = new String[shards.length][];
+        for (int i = 0; i < shards.length; ++i) {
+            groups[i] = new String[count[i]];
+            count[i] = 0;
         }
+        for (int i = 0; i < items.length; ++i) {
+            groups[of[i]][count[of[i]]++] = items[i];
+        }
+        for (int i = 0; i < shards.length; ++i) {
+            insertAll(shards[i].tree, groups[i]);
+        }
+    }
 
-        GraphNode.wr_lock(node, true);
-        node.next[targetPath[targetPath.length - 1]] = genNode(item, node);
-        size.incrementAndGet();
-        GraphNode.wr_free(node);
+    /** 
+     * Look up a batch, reorder countdown of each shard is updated once for
+     *     the batch.
+     * 
+     * @param items targets
+     * @return {@code res[i]} is {@link #contains(String)} of {@code items[i]}
+     */
+    @Override
+    public boolean[] containsAll(String[] items) {
+        boolean[] res = new boolean[items.length];
+        int[] hits = new int[shards.length];
+        for (int i = 0; i < items.length; ++i) {
+            int at = shardIndex(items[i]);
+            if (lookup(shards[at].tree, items[i])) {
+                res[i] = true;
+                ++hits[at];
+            }
+        }
+        for (int i = 0; i < shards.length; ++i) {
+            if (hits[i] > 0) {
+                shards[i].reorganizer.hit(shards[i].tree.size.get(), hits[i]);
+            }
+        }
+        return res;
     }
 
-    /**
+    /** 
      * Search target in graph. If {@code countdown} is 0, reform the graph 
      *     accodring to node's heat (search history), higher the heat value,
-     *     closer to the root.
+     *     closer to the root. With a background schedule the reform is only
+     *     requested here, lookup returns immediately.
      * 
-     * No global synchronized needed because lookup doesn't modify nodes.
+     * Titles rejected by the Bloom filter return immediately. Others go 
+     *     through the title index, constant time regardless of graph size.
+     *     Heat is added to the holder closest to root, same node a BFS search
+     *     would find.
      * 
      * @param item target
      * @return {@code true} if target found, {@code false} otherwise
      */
     @Override
     public boolean contains(String item) {
-        if (size.get() == 0) {
+        Shard shard = shardOf(item);
+        Tree t = shard.tree;
+        if (!lookup(t, item)) {
             return false;
         }
+        shard.reorganizer.hit(t.size.get());
+        return true;
+    }
 
-        GraphNode node = retrieveNodes(item, graphRoot);
-        if (node == null) {
-            // item not found
-            return false;
+    /**
+     * Remove title. Each holder is write-locked and checked to still hold the 
+     *     title (reform may have moved it meanwhile), then unlinked from index
+     *     and left as a hole for the next insert of its shard.
+     * 
+     * The filter can't forget titles, it is rebuilt once removals of a shard
+     *     reach its expected size.
+     * 
+     * @param item target
+     * @return {@code true} if item was present
+     */
+    @Override
+    public boolean pop(String item) {
+        Tree t = shardOf(item).tree;
+        boolean res = false;
+        while (true) {
+            GraphNode[] holders = t.index.get(item);
+            if (holders == null) {
+                return res;
+            }
+            if (holders.length == 0) {
+                // claimed by containsOrInsert, about to be linked
+                Thread.onSpinWait();
+                continue;
+            }
+            res |= remove(t, holders[0], item);
+        }
+    }
+
+    /** 
+     * @return norminal size of the graph
+     */
+    @Override
+    public int size() {
+        int res = 0;
+        for (Shard shard : shards) {
+            res += shard.tree.size.get();
         }
-        ++node.heat;
+        return res;
+    }
 
-        if (countdown.decrementAndGet() == 0) {
-            reform(graphRoot);
-            countdown.set(Math.max(MIN, (int) (size.get() * FACTOR)));
+    /** 
+     * Empting the graph. Each shard gets a fresh empty tree, old trees are left
+     *     to the garbage collector, O(number of shards) whatever the graph size.
+     * 
+     * Operations running concurrently finish on the tree they started with,
+     *     they take effect before the clear.
+     */
+    @Override
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.tree = newTree();
+            shard.reorganizer.reset();
         }
+    }
 
-        return true;
+    /** 
+     * BFS order traversal, shard by shard.
+     * 
+     * No global synchronized needed because lookup doesn't modify nodes.
+     * 
+     * @return array of contents in graph in BFS order
+     */
+    @Override
+    public String[] traversal() {
+        return stream().toArray(String[]::new);
     }
 
     /**
-     * @return norminal size of the graph
+     * Lazy traversal, BFS order shard by shard when sequential. Weakly 
+     *     consistent, titles inserted or moved by reform while streaming may be
+     *     seen in either position or not at all.
+     * 
+     * @return titles of the graph
      */
     @Override
-    public int size() {
-        return size.get();
+    public Stream<String> stream() {
+        // skip placeholders and holes
+        return StreamSupport.stream(nodes(), false).map(node -> node.data).filter(Objects::nonNull);
     }
 
     /**
-     * Empting the graph.
+     * Let heat fade exponentially, halved every {@code halfLife} milliseconds,
+     *     in 8 steps per half-life. Decay is applied lazily when a node is hit
+     *     or compared, no pass over the graph.
      * 
-     * ! Warnning, using {@link #clear()} concurrently with other methods such as {@link #insert(String)} 
-     * !    or {@link #contains(String)} might cause error. 
+     * @param halfLife half-life in milliseconds, {@code 0} to keep heat forever
+     * @exception IllegalArgumentException {@code halfLife} is negative
+     */
+    public synchronized void setHalfLife(long halfLife) {
+        if (halfLife < 0) {
+            throw new IllegalArgumentException("half-life must not be negative");
+        }
+        long length = halfLife == 0 ? 0 : Math.max(1, TimeUnit.MILLISECONDS.toNanos(halfLife) / 8);
+        epochs = new Epochs(System.nanoTime(), length, epochs.now());
+    }
+
+    /**
+     * @return heat half-life in milliseconds, {@code 0} if heat doesn't decay
+     */
+    public long getHalfLife() {
+        return TimeUnit.NANOSECONDS.toMillis(epochs.length * 8);
+    }
+
+    /**
+     * Titles starting with {@code prefix}, from the prefix index. Cost grows
+     *     with the number of matches, not with graph size. Titles are matched
+     *     as stored, callers storing {@link TitleKey} keys fold the prefix too.
      * 
+     * @param prefix prefix, empty for all titles
+     * @return matching titles, in character order
+     * @exception IllegalStateException prefix index is off
+     * @exception NullPointerException parameter is {@code null}
      */
-    @Override
-    public synchronized void clear() {
-        if (size.get() == 0) {
-            return;
+    public String[] startsWith(String prefix) {
+        ArrayList<String> res = new ArrayList<String>();
+        for (Shard shard : shards) {
+            TitleTrie trie = shard.tree.prefixes;
+            if (trie == null) {
+                throw new IllegalStateException("prefix index is off");
+            }
+            trie.forEach(prefix, res::add);
+        }
+        String[] arr = res.toArray(new String[res.size()]);
+        if (shards.length > 1) {
+            // sorted runs, one per shard
+            Arrays.sort(arr);
         }
+        return arr;
+    }
 
-        for (Object obj : traversal(graphRoot)) {
-            GraphNode node = (GraphNode) obj;
-            GraphNode.clear(node);
+    /**
+     * Keep a prefix index of titles for {@link #startsWith(String)}. Each
+     *     new title then costs a trie insert as well, off by default.
+     * 
+     * Turned on in use, titles already in the graph are indexed now. Titles
+     *     inserted while the index is being built are indexed by their inserter,
+     *     which checks for a new index once its title is in the title index.
+     * 
+     * @param enabled {@code true} to build and keep the index, {@code false}
+     *     to drop it
+     */
+    public synchronized void setPrefixIndex(boolean enabled) {
+        prefixed = enabled;
+        for (Shard shard : shards) {
+            Tree t = shard.tree;
+            if (!enabled) {
+                t.prefixes = null;
+            } else if (t.prefixes == null) {
+                TitleTrie trie = new TitleTrie();
+                t.prefixes = trie;
+                for (String item : t.index.keySet()) {
+                    // under the key's lock, a title removed meanwhile stays out
+                    t.index.computeIfPresent(item, (k, holders) -> {
+                        trie.add(k);
+                        return holders;
+                    });
+                }
+            }
         }
+    }
 
-        size.set(0);
-        countdown.set(MIN);
-        graphRoot = null;
-        path = new int[0];
+    /**
+     * Bound the number of titles. Inserts over capacity evict a cold title, 
+     *     titles over a lowered capacity are evicted now.
+     * 
+     * The bound is kept per shard, each shard holds at most
+     *     {@code capacity / shards} titles, at least one, so the graph never
+     *     holds more than {@code capacity} titles, or one per shard if
+     *     {@code capacity} is below the number of shards.
+     * 
+     * @param capacity maximum number of titles, {@code 0} for unbounded
+     * @exception IllegalArgumentException {@code capacity} is negative
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.bound = capacity;
+        this.capacity = capacity == 0 ? 0 : Math.max(1, capacity / shards.length);
+        if (capacity > 0) {
+            for (Shard shard : shards) {
+                evict(shard.tree);
+            }
+        }
+    }
 
-        System.gc();
+    /**
+     * @return maximum number of titles, {@code 0} if unbounded
+     */
+    public int getCapacity() {
+        return bound;
     }
 
     /**
-     * BFS order traversal.
+     * @return fraction of lookups that found their title, {@code 0} before any lookup
+     */
+    public double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return number of titles evicted to stay under capacity
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Change reorder schedule of every shard. Switching to a background schedule 
+     *     runs the shards on the shared daemon reorganizer thread, switching back
+     *     to inline stops them.
      * 
-     * No global synchronized needed because lookup doesn't modify nodes.
+     * @param schedule new schedule
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public void setSchedule(ReformSchedule schedule) {
+        for (Shard shard : shards) {
+            shard.reorganizer.setSchedule(schedule, shard.tree.size.get());
+        }
+    }
+
+    /** 
+     * @return current reorder schedule
+     */
+    public ReformSchedule getSchedule() {
+        return shards[0].reorganizer.getSchedule();
+    }
+
+    /** 
+     * Size the negative lookup filter for the expected crawl. Titles already in 
+     *     the graph are put into the new filter, the filter still grows if 
+     *     {@code expected} is exceeded.
      * 
-     * @return array of contents in graph in BFS order
+     * @param expected expected number of titles
+     * @param fpp      target false positive rate, in (0, 1)
+     * @exception IllegalArgumentException parameters out of range
      */
-    @Override
-    public String[] traversal() {
-        if (size.get() == 0) {
-            return new String[0];
+    public synchronized void setExpectedSize(int expected, double fpp) {
+        new BloomFilter(expected, fpp); // validate before anything changes
+        this.expected = expected;
+        this.fpp = fpp;
+        for (Shard shard : shards) {
+            refilter(shard.tree);
+        }
+    }
+
+    /** 
+     * Observed false positive rate of the negative lookup filter, fraction of 
+     *     absent titles the filter failed to reject.
+     * 
+     * @return rate in [0, 1], {@code 0} before any miss
+     */
+    public double falsePositiveRate() {
+        long fp = filterFalse.sum();
+        long total = fp + filterRejects.sum();
+        return total == 0 ? 0 : (double) fp / total;
+    }
+
+    /** 
+     * A miss goes to one shard, chosen uniformly by hash, so the graph rate
+     *     is the mean of shard rates.
+     * 
+     * @return false positive rate expected from current filter fill
+     */
+    public double expectedFalsePositiveRate() {
+        double res = 0;
+        for (Shard shard : shards) {
+            res += shard.tree.filter.expectedFpp();
         }
+        return res / shards.length;
+    }
 
-        Object[] ret = traversal(graphRoot);
-        String[] res = new String[ret.length];
-        for (int i = 0; i < res.length; ++i) {
-            res[i] = ((GraphNode) ret[i]).data;
+    /** 
+     * Save titles, tree shape and heat to {@code file}. Nodes are read one at
+     *     a time with optimistic reads, inserts and lookups keep running. The 
+     *     snapshot is not a point in time copy, nodes swapped or inserted while
+     *     saving may appear in either position or not at all.
+     * 
+     * Shards are written one after another, {@link #load(Path)} sends each
+     *     title back to its shard in order, so the shape of every shard is kept.
+     * 
+     * @param file target file, replaced atomically
+     * @exception IOException file can't be written
+     */
+    public void snapshot(Path file) throws IOException {
+        ArrayList<String> titles = new ArrayList<String>();
+        int[] heats = new int[16];
+        int epoch = epochs.now();
+        Iterator<GraphNode> it = Spliterators.iterator(nodes());
+        while (it.hasNext()) {
+            GraphNode node = it.next();
+            long stamp = GraphNode.re_optimistic(node);
+            String data = node.data;
+            int heat = GraphNode.heat(node, epoch);
+            if (!GraphNode.re_validate(node, stamp)) {
+                GraphNode.re_lock(node, true);
+                data = node.data;
+                heat = GraphNode.heat(node, epoch);
+                GraphNode.re_free(node);
+            }
+            if (data != null) {
+                // placeholders are left out, slots behind them move up
+                if (titles.size() == heats.length) {
+                    heats = Arrays.copyOf(heats, heats.length * 2);
+                }
+                heats[titles.size()] = heat;
+                titles.add(data);
+            }
         }
+        GraphSnapshot.write(file, titles.toArray(new String[titles.size()]), heats, titles.size());
+    }
 
-        return res;
+    /** 
+     * {@link #snapshot(Path)} on a background thread
+     * 
+     * @param file target file, replaced atomically
+     * @return completes when the file is written, exceptionally with 
+     *     {@link UncheckedIOException} if it can't be
+     */
+    public CompletableFuture<Void> snapshotAsync(Path file) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                snapshot(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
-    /**
+    /** 
+     * Replace graph content with a snapshot. Each tree is rebuilt in one pass
+     *     in slot order, children are linked by slot arithmetic, no path walk,
+     *     no locking, no reorder. A snapshot taken with a different number of
+     *     shards is redistributed, order within each shard is kept.
+     * 
+     * The rebuild is eager, O(n): every title is decoded and gets its node,
+     *     index entry and filter bit before this returns, about 3.4 s for 2M
+     *     titles on one core. Mapping the file only spares a heap copy of it,
+     *     lookups are served from the rebuilt tree, not from the mapping.
+     * 
+     * ! Warnning, like {@link #clear()}, don't use concurrently with other methods,
+     * !    call it at startup.
+     * 
+     * @param file snapshot written by {@link #snapshot(Path)}
+     * @exception IOException file can't be read or is not a snapshot
+     */
+    public synchronized void load(Path file) throws IOException {
+        GraphSnapshot snap = GraphSnapshot.open(file);
+        int n = snap.size();
+        int epoch = epochs.now();
+
+        Tree[] trees = new Tree[shards.length];
+        ArrayList<ArrayList<GraphNode>> nodes = new ArrayList<ArrayList<GraphNode>>();
+        ArrayList<HashMap<String, GraphNode[]>> holders = new ArrayList<HashMap<String, GraphNode[]>>();
+        for (int i = 0; i < shards.length; ++i) {
+            int share = n / shards.length + 1;
+            trees[i] = new Tree(new BloomFilter(Math.max(share * 2, expected / shards.length + 1), fpp));
+            nodes.add(new ArrayList<GraphNode>(share));
+            holders.add(new HashMap<String, GraphNode[]>(share * 4 / 3 + 1));
+        }
+
+        for (int i = 0; i < n; ++i) {
+            String item = snap.title(i);
+            int at = shardIndex(item);
+            ArrayList<GraphNode> list = nodes.get(at);
+            int slot = list.size();
+            GraphNode parent = slot == 0 ? null : list.get((slot - 1) / BUCKETSIZE);
+            GraphNode node = genNode(item, parent, slot);
+            node.heat = snap.heat(i);
+            node.epoch = epoch;
+            if (parent != null) {
+                parent.next[(slot - 1) % BUCKETSIZE] = node;
+            }
+            list.add(node);
+
+            // slots increase, duplicates are appended already sorted
+            HashMap<String, GraphNode[]> map = holders.get(at);
+            GraphNode[] prev = map.get(item);
+            if (prev == null) {
+                map.put(item, new GraphNode[] { node });
+            } else {
+                GraphNode[] res = Arrays.copyOf(prev, prev.length + 1);
+                res[prev.length] = node;
+                map.put(item, res);
+            }
+            trees[at].filter.put(item);
+        }
+
+        for (int i = 0; i < shards.length; ++i) {
+            Tree t = trees[i];
+            ArrayList<GraphNode> list = nodes.get(i);
+            t.index.putAll(holders.get(i));
+            if (prefixed) {
+                t.prefixes = new TitleTrie();
+                for (String item : holders.get(i).keySet()) {
+                    t.prefixes.add(item);
+                }
+            }
+            t.slots.set(list.size());
+            t.size.set(list.size());
+            t.root = list.isEmpty() ? null : list.get(0);
+            shards[i].tree = t;
+            shards[i].reorganizer.reset();
+        }
+    }
+
+    /** 
      * singleton desgin
      * 
      * This method is synchronized, one thread access at a time
@@ -184,165 +926,613 @@ public class HeuristicSearchGraph implements Graph {
         return HSG;
     }
 
+    /** 
+     * Graph of one wiki language, created on first use with a shard per
+     *     available core times 4
+     * 
+     * @param language wiki language code, e.g. "en"
+     * @return graph of {@code language}, same object on every call
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public static HeuristicSearchGraph getInstance(String language) {
+        return LANGUAGES.computeIfAbsent(language,
+                k -> new HeuristicSearchGraph(Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /** 
+     * BFS walk over all nodes, including placeholders and holes, shard by shard.
+     *     Children are read optimistically, read-lock is only placed if a writer
+     *     interleaved with the read.
+     * 
+     * @return nodes of the current tree of every shard
+     */
+    private Nodes nodes() {
+        Tree[] trees = new Tree[shards.length];
+        for (int i = 0; i < shards.length; ++i) {
+            trees[i] = shards[i].tree;
+        }
+        return new Nodes(trees, 0, trees.length);
+    }
+
+    /** 
+     * @return number of finished reform passes, all shards
+     */
+    int reformEpoch() {
+        int res = 0;
+        for (Shard shard : shards) {
+            res += shard.reorganizer.epoch();
+        }
+        return res;
+    }
+
     /**
-     * private constructor
+     * @return number of slots handed out, all shards, holes included
      */
-    private HeuristicSearchGraph() {
+    int slotCount() {
+        int res = 0;
+        for (Shard shard : shards) {
+            res += shard.tree.slots.get();
+        }
+        return res;
     }
 
     /**
-     * BFS traversal, read {@code root} and all subgraph nodes under it. Stop if an 
-     *     empty child encounted. 
+     * @return number of shards
+     */
+    int shardCount() {
+        return shards.length;
+    }
+
+    /** 
+     * Shard of a title, top bits of a Fibonacci hash. Low bits are left to
+     *     the title index, titles of one shard still spread over its buckets.
      * 
-     * Local synchronization (read-lock) needed because lookup does accessing 
-     *     content.
+     * @param item title
+     * @return shard index
+     */
+    private int shardIndex(String item) {
+        return shards.length == 1 ? 0 : (item.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    private Shard shardOf(String item) {
+        return shards[shardIndex(item)];
+    }
+
+    private Tree newTree() {
+        Tree t = new Tree(newFilter());
+        if (prefixed) {
+            t.prefixes = new TitleTrie();
+        }
+        return t;
+    }
+
+    private BloomFilter newFilter() {
+        return new BloomFilter(Math.max(1, expected / shards.length), fpp);
+    }
+
+    /** 
+     * Insert into one tree, see {@link #insert(String)}
      * 
-     * @param root top node
-     * @exception NullPointerException parameter is {@code null}
+     * @param t    tree of the title's shard
+     * @param item new data insert to graph
      */
-    private Object[] traversal(GraphNode root) {
-        ArrayList<GraphNode> list = new ArrayList<GraphNode>();
-        int index = 0;
-        list.add(root);
+    private void insert(Tree t, String item) {
+        GraphNode node = t.free.poll();
+        if (node == null) {
+            node = reserve(t, t.slots.getAndIncrement());
+        }
+        fill(t, node, item);
+        t.size.incrementAndGet();
+        if (capacity > 0) {
+            evict(t);
+        }
+    }
 
-        // traversal until no more node
-        while (true) {
-            root = list.get(index);
-
-            // read-lock
-            GraphNode.re_lock(root, true);
-
-            for (GraphNode node : root.next) {
-                if (node != null) {
-                    list.add(node);
-                } else {
-                    // free read-lock
-                    GraphNode.re_free(root);
-                    return list.toArray();
+    /**
+     * Remove {@code item} from {@code node} if it still holds it. Node is 
+     *     write-locked while index is updated, reform can't move the title away
+     *     and readers that saw the node retry against the updated index.
+     * 
+     * @param t    tree holding {@code node}
+     * @param node holder of {@code item} according to index
+     * @param item title
+     * @return {@code true} if removed, {@code false} if node holds another title now
+     */
+    private boolean remove(Tree t, GraphNode node, String item) {
+        GraphNode.wr_lock(node, true);
+        try {
+            if (!item.equals(node.data)) {
+                // moved by reform, index already points to the new holder
+                return false;
+            }
+            t.index.computeIfPresent(item, (k, holders) -> {
+                GraphNode[] res = new GraphNode[holders.length - 1];
+                int n = 0;
+                for (GraphNode holder : holders) {
+                    if (holder != node) {
+                        if (n == res.length) {
+                            // not a holder, nothing to unlink
+                            return holders;
+                        }
+                        res[n++] = holder;
+                    }
+                }
+                if (n == 0) {
+                    // last holder, index and trie change together under the key's lock
+                    TitleTrie trie = t.prefixes;
+                    if (trie != null) {
+                        trie.remove(k);
+                    }
+                    return null;
                 }
+                return res;
+            });
+            GraphNode.vacate(node);
+        } finally {
+            GraphNode.wr_free(node);
+        }
+        t.size.decrementAndGet();
+        t.free.add(node);
+        if (t.removed.incrementAndGet() > Math.max(capacity, expected / shards.length)) {
+            refilter(t);
+        }
+        return true;
+    }
+
+    /**
+     * Evict cold titles until the tree is within capacity
+     * 
+     * @param t tree to shrink
+     */
+    private void evict(Tree t) {
+        for (int attempt = 0; t.size.get() > capacity && capacity > 0; ++attempt) {
+            // lower levels first, whole tree if they turn out to be holes, then scan
+            GraphNode node = attempt < SAMPLES ? victim(t, attempt < SAMPLES / 2) : coldest(t);
+            if (node == null) {
+                if (attempt < SAMPLES) {
+                    continue;
+                }
+                // nothing but holes and placeholders, titles counted are being removed
+                return;
+            }
+            String item = node.data;
+            if (item != null && remove(t, node, item)) {
+                evictions.increment();
+                attempt = -1;
+            }
+        }
+    }
+
+    /**
+     * Coldest of {@link #SAMPLES} random nodes, lowest heat first, then least
+     *     recently used. After capacity is lowered the titles left may all sit
+     *     above the lower levels, sampling the whole tree still finds them.
+     * 
+     * @param t      tree to sample
+     * @param leaves sample the lower levels only, where reform leaves cold titles
+     * @return victim, {@code null} if no sampled node holds a title
+     */
+    private GraphNode victim(Tree t, boolean leaves) {
+        int n = t.slots.get();
+        if (n == 0) {
+            return null;
+        }
+        int from = leaves ? n / BUCKETSIZE : 0;
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int epoch = epochs.now();
+        GraphNode best = null;
+        int bestHeat = 0;
+        int bestTouched = 0;
+        for (int i = 0; i < SAMPLES; ++i) {
+            GraphNode node = locate(t, from + r.nextInt(n - from));
+            if (node == null) {
+                continue;
+            }
+            long stamp = GraphNode.re_optimistic(node);
+            String data = node.data;
+            int heat = GraphNode.heat(node, epoch);
+            int touched = node.touched;
+            if (data == null || !GraphNode.re_validate(node, stamp)) {
+                // hole, placeholder, or being written
+                continue;
+            }
+            if (best == null || heat < bestHeat || heat == bestHeat && touched - bestTouched < 0) {
+                best = node;
+                bestHeat = heat;
+                bestTouched = touched;
             }
-            ++index;
+        }
+        return best;
+    }
 
-            // free read lock
-            GraphNode.re_free(root);
+    /**
+     * Coldest title of the whole tree, same order as {@link #victim(Tree, boolean)}.
+     *     Visits every slot, only used once sampling kept hitting holes.
+     * 
+     * @param t tree to scan
+     * @return victim, {@code null} if no node holds a title
+     */
+    private GraphNode coldest(Tree t) {
+        int epoch = epochs.now();
+        GraphNode best = null;
+        int bestHeat = 0;
+        int bestTouched = 0;
+        Iterator<GraphNode> it = Spliterators.iterator(new Nodes(new Tree[] { t }, 0, 1));
+        while (it.hasNext()) {
+            GraphNode node = it.next();
+            long stamp = GraphNode.re_optimistic(node);
+            String data = node.data;
+            int heat = GraphNode.heat(node, epoch);
+            int touched = node.touched;
+            if (data == null || !GraphNode.re_validate(node, stamp)) {
+                continue;
+            }
+            if (best == null || heat < bestHeat || heat == bestHeat && touched - bestTouched < 0) {
+                best = node;
+                bestHeat = heat;
+                bestTouched = touched;
+            }
         }
+        return best;
+    }
+
+    /**
+     * Recency stamp of bounded graphs, about a millisecond per tick, wraps
+     *     around after about 50 days, compared by difference
+     */
+    private static int stamp() {
+        return (int) (System.nanoTime() >>> 20);
     }
 
     /**
-     * From the subgraph, retrieve node with given data
+     * Rebuild the filter of a tree from its index, forgets removed titles
      * 
-     * @param item target
-     * @param root top node
-     * @return a {@code GraphNode} contains item, or {@code null} 
-     *     if taget not found
-     * @exception NullPointerException parameters are {@code null}
-     */
-    private GraphNode retrieveNodes(String item, GraphNode root) {
-        LinkedList<GraphNode> queue = new LinkedList<GraphNode>();
-        queue.addLast(root);
-
-        while (queue.size() > 0) {
-            GraphNode node = queue.pollFirst();
-
-            if (GraphNode.re_lock(node, false)) {
-                if (node.data.equals(item)) {
-                    GraphNode.re_free(node);
-                    return node; // found
+     * @param t tree to refilter
+     */
+    private void refilter(Tree t) {
+        synchronized (t) {
+            t.removed.set(0);
+            BloomFilter next = newFilter();
+            for (String item : t.index.keySet()) {
+                next.put(item);
+            }
+            t.filter = next;
+            // titles inserted while rebuilding
+            for (String item : t.index.keySet()) {
+                next.put(item);
+            }
+        }
+    }
+
+    /** 
+     * Insert a batch into one tree, see {@link #insertAll(String[])}
+     * 
+     * @param t     tree of the titles' shard
+     * @param items new data insert to graph
+     */
+    private void insertAll(Tree t, String[] items) {
+        if (items.length == 0) {
+            return;
+        }
+        int first = t.slots.getAndAdd(items.length);
+        GraphNode parent = null;
+        int parentSlot = -1;
+        for (int i = 0; i < items.length; ++i) {
+            int slot = first + i;
+            GraphNode node;
+            if (slot == 0) {
+                node = reserve(t, 0);
+            } else {
+                if ((slot - 1) / BUCKETSIZE != parentSlot) {
+                    parentSlot = (slot - 1) / BUCKETSIZE;
+                    parent = reserve(t, parentSlot);
                 }
+                node = attach(parent, (slot - 1) % BUCKETSIZE, slot);
+            }
+            fill(t, node, items[i]);
+        }
+        t.size.addAndGet(items.length);
+    }
 
-                // insert child to the queue
-                for (GraphNode child : node.next) {
-                    if (child == null) {
-                        break;
-                    }
-                    queue.addLast(child);
+    /** 
+     * Compare {@code root} with each child, swap if the child is hotter. 
+     *     {@code GraphNode} with higher {@code heat} value, decayed to now, 
+     *     should closer to root than others.
+     * 
+     * Each swap write-locks parent then child, always top-down, so it can't 
+     *     deadlock with inserts. Title index is updated before the locks are
+     *     released, readers that saw the old holder wait on the lock and 
+     *     retry against the updated index.
+     * 
+     * @param t    tree holding {@code root}
+     * @param root parent node
+     */
+    private void reform(Tree t, GraphNode root) {
+        int epoch = epochs.now();
+        for (int i = 0; i < BUCKETSIZE; ++i) {
+            GraphNode child = GraphNode.child(root, i);
+            if (child == null) {
+                continue;
+            }
+            GraphNode.wr_lock(root, true);
+            GraphNode.wr_lock(child, true);
+            // placeholders are never swapped, their owner is about to fill them
+            if (root.data != null && child.data != null
+                    && GraphNode.heat(root, epoch) < GraphNode.heat(child, epoch)) {
+                GraphNode.swap(root, child);
+                if (!root.data.equals(child.data)) {
+                    relocate(t, root.data, child, root);
+                    relocate(t, child.data, root, child);
                 }
+            }
+            GraphNode.wr_free(child);
+            GraphNode.wr_free(root);
+        }
+    }
 
-                GraphNode.re_free(node);
+    /** 
+     * Look up title and add heat, without counting towards reorder. If the 
+     *     holder is being swapped, wait for the swap to be published and look 
+     *     again.
+     * 
+     * @param t    tree of the title's shard
+     * @param item target
+     * @return {@code true} if target found, {@code false} otherwise
+     */
+    private boolean lookup(Tree t, String item) {
+        if (t.size.get() == 0) {
+            misses.increment();
+            return false;
+        }
+        if (!t.filter.mightContain(item)) {
+            filterRejects.increment();
+            misses.increment();
+            return false;
+        }
 
-            } else {
-                // Fail to acquire read lock, put back to queue
-                queue.push(node);
+        while (true) {
+            GraphNode[] holders = t.index.get(item);
+            if (holders == null) {
+                // item not found
+                filterFalse.increment();
+                misses.increment();
+                return false;
+            }
+            if (holders.length == 0) {
+                // claimed by containsOrInsert, being inserted
+                hits.increment();
+                return true;
+            }
+            GraphNode node = holders[0];
+            long stamp = GraphNode.re_optimistic(node);
+            if (item.equals(node.data) && GraphNode.re_validate(node, stamp)) {
+                GraphNode.hit(node, epochs.now());
+                hits.increment();
+                if (capacity > 0) {
+                    // no shared counter on the read path, skip the store if unchanged
+                    int now = stamp();
+                    if (node.touched != now) {
+                        node.touched = now;
+                    }
+                }
+                return true;
             }
+            // swap in progress, index is updated before the swap releases its locks
+            GraphNode.re_lock(node, true);
+            GraphNode.re_free(node);
         }
+    }
 
-        // no match found
-        return null;
+    /** 
+     * Fill a reserved node and publish it, filter first then title index, a 
+     *     title in index must never be filtered out. Node stays write-locked 
+     *     until the title is indexed, reform can't move a title index doesn't 
+     *     know about yet.
+     * 
+     * @param t    tree holding {@code node}
+     * @param node reserved node, placeholder
+     * @param item title
+     */
+    private void fill(Tree t, GraphNode node, String item) {
+        GraphNode.wr_lock(node, true);
+        try {
+            node.data = item;
+            if (capacity > 0) {
+                node.touched = stamp();
+            }
+            BloomFilter current = t.filter;
+            current.put(item);
+            link(t, item, node);
+            if (t.filter != current) {
+                // filter replaced meanwhile by setExpectedSize
+                t.filter.put(item);
+            }
+        } finally {
+            GraphNode.wr_free(node);
+        }
     }
 
-    /**
-     * Reform subgraph in DFS order. {@code GraphNode} with higher {@code head}
-     *     value should closer to root than others
-     * 
-     * @param root subgraph root
-     * @return root of sorted subgraph
-     */
-    private GraphNode reform(GraphNode root) {
-        for (GraphNode child : root.next) {
-            if (child != null) {
-                reform(child);
-                if (root.heat < child.heat) {
-                    GraphNode.swap(root, child);
+    /** 
+     * Add {@code node} to the holders of {@code item} in title index. Holders 
+     *     stay sorted by slot, so the first one is always closest to root.
+     * 
+     * @param t    tree holding {@code node}
+     * @param item title stored in node
+     * @param node newly attached node
+     */
+    private void link(Tree t, String item, GraphNode node) {
+        TitleTrie[] seen = { null };
+        t.index.compute(item, (k, holders) -> {
+            if (holders == null || holders.length == 0) {
+                // new title, or the claim of containsOrInsert
+                TitleTrie trie = t.prefixes;
+                if (trie != null) {
+                    trie.add(k);
+                }
+                seen[0] = trie;
+                return new GraphNode[] { node };
+            }
+            GraphNode[] res = Arrays.copyOf(holders, holders.length + 1);
+            res[holders.length] = node;
+            sortBySlot(res);
+            return res;
+        });
+        TitleTrie current = t.prefixes;
+        if (current != null && current != seen[0]) {
+            // index built meanwhile, its passes may have missed this title;
+            // under the key's lock, a removal can't slip in between
+            t.index.computeIfPresent(item, (k, holders) -> {
+                current.add(k);
+                return holders;
+            });
+        }
+    }
+
+    /** 
+     * Content of {@code from} has moved to {@code to}, update title index 
+     *     accordingly. Called after every {@link GraphNode#swap(GraphNode, GraphNode)}.
+     * 
+     * @param t    tree holding both nodes
+     * @param item title that moved
+     * @param from node previously holding the title
+     * @param to   node holding the title now
+     */
+    private void relocate(Tree t, String item, GraphNode from, GraphNode to) {
+        t.index.computeIfPresent(item, (k, holders) -> {
+            GraphNode[] res = Arrays.copyOf(holders, holders.length);
+            for (int i = 0; i < res.length; ++i) {
+                if (res[i] == from) {
+                    res[i] = to;
+                    break;
                 }
-                continue;
             }
-            break;
+            sortBySlot(res);
+            return res;
+        });
+    }
+
+    /** 
+     * Insertion sort holders by slot, holders list is short (duplicates only)
+     * 
+     * @param holders nodes holding the same title
+     */
+    private static void sortBySlot(GraphNode[] holders) {
+        for (int i = 1; i < holders.length; ++i) {
+            GraphNode node = holders[i];
+            int j = i - 1;
+            while (j >= 0 && holders[j].slot > node.slot) {
+                holders[j + 1] = holders[j];
+                --j;
+            }
+            holders[j + 1] = node;
         }
-        return root;
     }
 
     /** 
      * Generate a {@code GraphNode}
      * 
      * @param item data stores in node
-     * @param  parent node
+     * @param prev parent node
+     * @param slot BFS position of the node
      * @return newly generate graph node
      * @exception OutOfMemoryError insufficient memory
      * */
-    private GraphNode genNode(String item, GraphNode prev) {
+    private GraphNode genNode(String item, GraphNode prev, int slot) {
         GraphNode node = new GraphNode();
         node.data = item;
         node.prev = prev;
         node.next = new GraphNode[BUCKETSIZE];
+        node.slot = slot;
         return node;
     }
 
-    /**
-     * Generate path to next new node
+    /** 
+     * Walk to the node at {@code slot}, attach placeholders for missing nodes 
+     *     on the way. Children of slot s are at s * BUCKETSIZE + 1 + i.
      * 
-     * @return path to next new node
+     * @param t    tree to walk
+     * @param slot BFS position
+     * @return node at {@code slot}, may be a placeholder
      */
-    private synchronized int[] genPath() {
-        int[] res = Arrays.copyOf(path, path.length);
-        boolean carry = false;
+    private GraphNode reserve(Tree t, int slot) {
+        GraphNode node = t.root;
+        if (node == null) {
+            ROOT.compareAndSet(t, null, genNode(null, null, 0));
+            node = t.root;
+        }
 
-        for (int i = path.length - 1; i > -1; --i) {
-            path[i] += 1;
-            if (path[i] >= BUCKETSIZE) {
-                // node is full, not empty space
-                path[i] = 0;
-                carry = true;
-            } else {
-                carry = false;
+        int pos = 0;
+        for (int digit : pathOf(slot)) {
+            pos = pos * BUCKETSIZE + 1 + digit;
+            node = attach(node, digit, pos);
+        }
+        return node;
+    }
+
+    /** 
+     * Child of {@code parent} at {@code digit}, attach a placeholder if missing
+     * 
+     * @param parent parent node
+     * @param digit  child index
+     * @param pos    slot of the child
+     * @return child node, may be a placeholder
+     */
+    private GraphNode attach(GraphNode parent, int digit, int pos) {
+        GraphNode child = GraphNode.child(parent, digit);
+        if (child == null) {
+            GraphNode.wr_lock(parent, true);
+            child = parent.next[digit];
+            if (child == null) {
+                child = genNode(null, parent, pos);
+                parent.next[digit] = child;
+            }
+            GraphNode.wr_free(parent);
+        }
+        return child;
+    }
+
+    /** 
+     * Walk to the node at {@code slot} without building anything
+     * 
+     * @param t    tree to walk
+     * @param slot BFS position
+     * @return node at {@code slot}, {@code null} if not attached yet
+     */
+    private GraphNode locate(Tree t, int slot) {
+        GraphNode node = t.root;
+        for (int digit : pathOf(slot)) {
+            if (node == null) {
                 break;
             }
+            node = GraphNode.child(node, digit);
         }
+        return node;
+    }
 
-        if (carry || res.length == 0) {
-            path = new int[path.length + 1];
+    /** 
+     * Path from root to {@code slot}, child index at each level
+     * 
+     * @param slot BFS position
+     * @return path to the slot, empty for root
+     */
+    private int[] pathOf(int slot) {
+        int depth = 0;
+        for (int s = slot; s > 0; s = (s - 1) / BUCKETSIZE) {
+            ++depth;
         }
 
+        int[] res = new int[depth];
+        for (int i = depth - 1, s = slot; i > -1; --i) {
+            res[i] = (s - 1) % BUCKETSIZE;
+            s = (s - 1) / BUCKETSIZE;
+        }
         return res;
     }
 
-    /**
-     * Print nodes infomation in BFS order
+    /** 
+     * Print nodes infomation in BFS order, shard by shard
      */
     protected void DEBUG() {
-        Object[] ret = traversal(graphRoot);
-        for (Object obj : ret) {
-            GraphNode node = (GraphNode) obj;
-            System.out.println(node.toString());
-        }
+        nodes().forEachRemaining(node -> System.out.println(node.toString()));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safed data structure
+ *
+ * Directed "title -> next title" graph found by crawling, every title has at most
+ *     one outgoing link (the followed one). Following links from any title either
+ *     ends at a terminal (title with no link yet) or enters a cycle.
+ *
+ * Titles are interned to int ids, UTF-8 bytes live in a {@link TitleArena}, the
+ *     title -> id index is an open-addressing int table. Per id columns are
+ *     primitive arrays, no object per title or per edge.
+ *
+ * Queries use a weighted union-find over the links, with path compression:
+ *     parent    id closer to the end of the chain, root is the terminal, or
+ *               the title whose link closed a cycle
+ *     dist      hops to parent, at a root the cycle length (0 for terminal)
+ * A link always leaves a root (titles with a link are never roots again), so
+ *     linking x -> y is a union of x's set under y's root, no re-rooting.
+ *     {@link #end(String)} and {@link #hops(String)} are near-constant.
+ *
+ * Once a chain enters a cycle it never changes again. Where it enters is found
+ *     by following links once and memoized per title ({@code entry}, {@code tail}),
+ *     cycle titles are their own entry.
+ *
+ * All methods synchronize on the graph, each one is a few array reads.
+ */
+public class LinkGraph {
+    private static final ConcurrentHashMap<String, LinkGraph> LANGUAGES = new ConcurrentHashMap<String, LinkGraph>();
+
+    private TitleArena arena = new TitleArena(false);
+    private int[] hashes = new int[16]; // title index, entries are id + 1, 0 if empty
+    private int[] entries = new int[16];
+
+    private int size; // number of ids
+    private int edges;
+    private long[] title = new long[16]; // arena reference
+    private int[] next = new int[16]; // followed link, -1 if none
+    private int[] parent = new int[16];
+    private int[] dist = new int[16];
+    private int[] entry = new int[16]; // cycle title the chain enters, -1 if not known
+    private int[] tail = new int[16]; // hops to entry
+
+    /**
+     * Record link {@code from -> to}. A title keeps its first link, chains are
+     *     followed through a fixed (nth) link.
+     *
+     * @param from linking title
+     * @param to   linked title
+     * @return {@code true} if recorded, {@code false} if {@code from} already
+     *     has a link
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public synchronized boolean link(String from, String to) {
+        int x = intern(from);
+        int y = intern(to);
+        if (next[x] != -1) {
+            return false;
+        }
+        next[x] = y;
+        ++edges;
+
+        int r = find(y);
+        if (r != x) {
+            // x's chains now end where y's does
+            parent[x] = y;
+            dist[x] = 1;
+            return true;
+        }
+
+        // y leads back to x, x stays root of the cycle
+        int length = (y == x ? 0 : dist[y]) + 1;
+        dist[x] = length;
+        for (int i = 0, c = x; i < length; ++i, c = next[c]) {
+            entry[c] = c;
+            tail[c] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * @param title title
+     * @return linked title, {@code null} if none or title unknown
+     */
+    public synchronized String next(String title) {
+        int id = find(title);
+        return id < 0 || next[id] < 0 ? null : get(next[id]);
+    }
+
+    /**
+     * Where the chain from {@code title} ends
+     *
+     * @param title title
+     * @return terminal title, {@code title} itself if it has no link,
+     *     {@code null} if the chain enters a cycle or title is unknown
+     */
+    public synchronized String end(String title) {
+        int id = find(title);
+        if (id < 0) {
+            return null;
+        }
+        int r = find(id);
+        return dist[r] > 0 ? null : get(r);
+    }
+
+    /**
+     * Number of links followed from {@code title} until the terminal, or until
+     *     the chain enters its cycle
+     *
+     * @param title title
+     * @return hops, {@code -1} if title is unknown
+     */
+    public synchronized int hops(String title) {
+        int id = find(title);
+        if (id < 0) {
+            return -1;
+        }
+        int r = find(id);
+        if (dist[r] == 0) {
+            return id == r ? 0 : dist[id];
+        }
+        resolve(id);
+        return tail[id];
+    }
+
+    /**
+     * Cycle the chain from {@code title} enters
+     *
+     * @param title title
+     * @return titles of the cycle, starting where the chain enters it, empty if
+     *     the chain ends at a terminal, {@code null} if title is unknown
+     */
+    public synchronized String[] cycle(String title) {
+        int id = find(title);
+        if (id < 0) {
+            return null;
+        }
+        int r = find(id);
+        String[] res = new String[dist[r]];
+        if (res.length > 0) {
+            resolve(id);
+            for (int i = 0, c = entry[id]; i < res.length; ++i, c = next[c]) {
+                res[i] = get(c);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Whole chain from {@code title}, up to the terminal, or up to the last
+     *     title before the cycle repeats
+     *
+     * @param title title
+     * @return titles of the chain, starting with {@code title}, {@code null} if
+     *     title is unknown
+     */
+    public synchronized String[] chain(String title) {
+        int id = find(title);
+        if (id < 0) {
+            return null;
+        }
+        int r = find(id);
+        int length;
+        if (dist[r] == 0) {
+            length = (id == r ? 0 : dist[id]) + 1;
+        } else {
+            resolve(id);
+            length = tail[id] + dist[r];
+        }
+        String[] res = new String[length];
+        for (int i = 0, c = id; i < length; ++i, c = next[c]) {
+            res[i] = get(c);
+        }
+        return res;
+    }
+
+    /**
+     * @param title title
+     * @return {@code true} if title was linked from or to
+     */
+    public synchronized boolean contains(String title) {
+        return find(title) >= 0;
+    }
+
+    /**
+     * @return number of titles
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return number of links
+     */
+    public synchronized int edges() {
+        return edges;
+    }
+
+    /**
+     * Forget all titles and links
+     */
+    public synchronized void clear() {
+        arena = new TitleArena(false);
+        hashes = new int[16];
+        entries = new int[16];
+        title = new long[16];
+        next = new int[16];
+        parent = new int[16];
+        dist = new int[16];
+        entry = new int[16];
+        tail = new int[16];
+        size = 0;
+        edges = 0;
+    }
+
+    /**
+     * Link graph of one wiki language, created on first use
+     *
+     * @param language wiki language code, e.g. "en"
+     * @return link graph of {@code language}, same object on every call
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public static LinkGraph getInstance(String language) {
+        return LANGUAGES.computeIfAbsent(language, k -> new LinkGraph());
+    }
+
+    /**
+     * Root of {@code id}, compress the path on the way. Distances are summed
+     *     from the root down, so each node is rewritten after its parent.
+     *
+     * @param id title id
+     * @return root id
+     */
+    private int find(int id) {
+        int r = id;
+        int depth = 0;
+        while (parent[r] != r) {
+            r = parent[r];
+            ++depth;
+        }
+        if (depth < 2) {
+            return r;
+        }
+
+        int[] path = new int[depth];
+        for (int i = 0, c = id; c != r; ++i, c = parent[c]) {
+            path[i] = c;
+        }
+        for (int i = depth - 2; i > -1; --i) {
+            int c = path[i];
+            dist[c] += dist[parent[c]];
+            parent[c] = r;
+        }
+        return r;
+    }
+
+    /**
+     * Fill {@code entry} and {@code tail} of {@code id} and every title between
+     *     it and its cycle. Only for titles whose root closed a cycle.
+     *
+     * @param id title id
+     */
+    private void resolve(int id) {
+        int depth = 0;
+        for (int c = id; entry[c] < 0; c = next[c]) {
+            ++depth;
+        }
+        if (depth == 0) {
+            return;
+        }
+
+        int[] path = new int[depth];
+        int c = id;
+        for (int i = 0; i < depth; ++i, c = next[c]) {
+            path[i] = c;
+        }
+        // c is the first resolved title
+        for (int i = depth - 1; i > -1; --i) {
+            entry[path[i]] = entry[c];
+            tail[path[i]] = tail[c] + 1;
+            c = path[i];
+        }
+    }
+
+    /**
+     * @param item title
+     * @return id of title, {@code -1} if unknown
+     */
+    private int find(String item) {
+        byte[] key = item.getBytes(StandardCharsets.UTF_8);
+        int h = item.hashCode() * 0x9E3779B9;
+        int mask = entries.length - 1;
+        for (int i = h & mask; entries[i] != 0; i = (i + 1) & mask) {
+            int id = entries[i] - 1;
+            if (hashes[i] == h && arena.equals(title[id], key)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param item title
+     * @return id of title, new terminal if unknown
+     */
+    private int intern(String item) {
+        int id = find(item);
+        if (id >= 0) {
+            return id;
+        }
+
+        id = size++;
+        if (id == title.length) {
+            int n = title.length * 2;
+            title = Arrays.copyOf(title, n);
+            next = Arrays.copyOf(next, n);
+            parent = Arrays.copyOf(parent, n);
+            dist = Arrays.copyOf(dist, n);
+            entry = Arrays.copyOf(entry, n);
+            tail = Arrays.copyOf(tail, n);
+        }
+        title[id] = arena.append(item.getBytes(StandardCharsets.UTF_8));
+        next[id] = -1;
+        parent[id] = id;
+        dist[id] = 0;
+        entry[id] = -1;
+        tail[id] = 0;
+
+        if (size * 4 > entries.length * 3) {
+            // grow, keep load factor under 0.75
+            int[] oldHashes = hashes;
+            int[] oldEntries = entries;
+            hashes = new int[oldEntries.length * 2];
+            entries = new int[oldEntries.length * 2];
+            for (int i = 0; i < oldEntries.length; ++i) {
+                if (oldEntries[i] != 0) {
+                    put(oldHashes[i], oldEntries[i]);
+                }
+            }
+        }
+        put(item.hashCode() * 0x9E3779B9, id + 1);
+        return id;
+    }
+
+    private void put(int h, int e) {
+        int mask = entries.length - 1;
+        int i = h & mask;
+        while (entries[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        hashes[i] = h;
+        entries[i] = e;
+    }
+
+    private String get(int id) {
+        return arena.get(title[id]);
+    }
+}
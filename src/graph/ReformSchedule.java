@@ -0,0 +1,83 @@
+package graph;
+
+/**
+ * When and how {@link HeuristicSearchGraph} reorders nodes by heat.
+ *
+ * A pass is triggered after {@code max(min, size * factor)} successful lookups.
+ *     Inline schedule runs the whole pass in the lookup that triggered it,
+ *     background schedule hands it to a reorganizer thread which moves at most
+ *     {@code budget} parent nodes every {@code period} milliseconds, so lookups
+ *     never pay for the walk.
+ *
+ * Immutable, share freely.
+ */
+public final class ReformSchedule {
+    /**
+     * Same as the original fixed countdown, full pass inline every
+     *     {@code max(4, size * 0.25)} lookups.
+     */
+    public static final ReformSchedule DEFAULT = inline(4, 0.25);
+
+    final int min;
+    final double factor;
+    final boolean background;
+    final int budget;
+    final long period;
+
+    private ReformSchedule(int min, double factor, boolean background, int budget, long period) {
+        if (min < 1 || factor < 0) {
+            throw new IllegalArgumentException("min must be positive, factor non-negative");
+        }
+        if (background && (budget < 1 || period < 1)) {
+            throw new IllegalArgumentException("budget and period must be positive");
+        }
+        this.min = min;
+        this.factor = factor;
+        this.background = background;
+        this.budget = budget;
+        this.period = period;
+    }
+
+    /**
+     * Full reform pass inside the lookup which triggers it
+     *
+     * @param min    minimum lookups between passes
+     * @param factor lookups between passes relative to graph size
+     * @return schedule
+     * @exception IllegalArgumentException {@code min < 1} or {@code factor < 0}
+     */
+    public static ReformSchedule inline(int min, double factor) {
+        return new ReformSchedule(min, factor, false, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * Incremental reform pass on a background thread
+     *
+     * @param min    minimum lookups between passes
+     * @param factor lookups between passes relative to graph size
+     * @param budget parent nodes processed per step
+     * @param period milliseconds between steps
+     * @return schedule
+     * @exception IllegalArgumentException any parameter out of range
+     */
+    public static ReformSchedule background(int min, double factor, int budget, long period) {
+        return new ReformSchedule(min, factor, true, budget, period);
+    }
+
+    /**
+     * @param size current graph size
+     * @return lookups until next pass
+     */
+    int countdown(int size) {
+        return Math.max(min, (int) (size * factor));
+    }
+
+    @Override
+    public String toString() {
+        if (background) {
+            return String.format("background(min=%d, factor=%.2f, budget=%d, period=%dms)", min, factor, budget,
+                    period);
+        }
+        return String.format("inline(min=%d, factor=%.2f)", min, factor);
+    }
+}
@@ -0,0 +1,232 @@
+package graph;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Heat reorder driver shared by graph implementations
+ *
+ * Counts successful lookups and runs reform passes according to a
+ *     {@link ReformSchedule}. A pass visits parent slots bottom-up (reverse
+ *     BFS order), so every subgraph is reformed before its root is compared,
+ *     same as a DFS post-order walk, and a hot node can climb all the way up
+ *     in one pass. What happens at one parent is up to the {@link Target}.
+ *
+ * Only one pass runs at a time. Inline passes wait for the background one and
+ *     restart it from the bottom.
+ *
+ * Background passes of every reorganizer (all shards, all graphs) share one
+ *     daemon thread, each tick is bounded by the schedule budget.
+ */
+class Reorganizer {
+
+    /**
+     * Graph being reordered
+     */
+    interface Target {
+        /**
+         * @return number of slots handed out so far
+         */
+        int slotCount();
+
+        /**
+         * Compare the parent at {@code slot} with its children, swap hotter
+         *     children up. Must tolerate slots not attached yet.
+         *
+         * @param slot parent slot
+         */
+        void reform(int slot);
+    }
+
+    private static ScheduledExecutorService EXECUTOR;
+
+    private final Target target;
+    private final int bucketSize;
+
+    private volatile ReformSchedule schedule = ReformSchedule.DEFAULT;
+    private AtomicInteger countdown = new AtomicInteger(schedule.min);
+
+    // cursor is the next parent slot to visit, -1 if no pass running
+    private ReentrantLock lock = new ReentrantLock();
+    private int cursor = -1;
+    private volatile boolean pending;
+    private AtomicInteger epoch = new AtomicInteger(0); // finished passes
+    private ScheduledFuture<?> task;
+
+    Reorganizer(Target target, int bucketSize) {
+        this.target = target;
+        this.bucketSize = bucketSize;
+    }
+
+    /**
+     * Count one successful lookup. Reform inline or request a background pass
+     *     once countdown reaches 0.
+     *
+     * @param size current graph size
+     */
+    void hit(int size) {
+        hit(size, 1);
+    }
+
+    /**
+     * Count a batch of successful lookups
+     *
+     * @param size current graph size
+     * @param n    number of lookups
+     */
+    void hit(int size, int n) {
+        int left = countdown.addAndGet(-n);
+        if (left <= 0 && left + n > 0) {
+            ReformSchedule current = schedule;
+            if (current.background) {
+                pending = true;
+            } else {
+                reform();
+            }
+            countdown.set(current.countdown(size));
+        }
+    }
+
+    /**
+     * Full reform pass in calling thread
+     */
+    void reform() {
+        lock.lock();
+        try {
+            startPass();
+            if (step(Integer.MAX_VALUE)) {
+                epoch.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop running pass and countdown, used when graph is emptied
+     */
+    void reset() {
+        lock.lock();
+        try {
+            cursor = -1;
+            pending = false;
+        } finally {
+            lock.unlock();
+        }
+        countdown.set(schedule.min);
+    }
+
+    /**
+     * Change schedule. Switching to a background schedule schedules this
+     *     reorganizer on the shared daemon thread, switching back to inline
+     *     cancels it.
+     *
+     * @param schedule new schedule
+     * @param size     current graph size
+     * @exception NullPointerException parameter is {@code null}
+     */
+    synchronized void setSchedule(ReformSchedule schedule, int size) {
+        if (schedule == null) {
+            throw new NullPointerException("schedule");
+        }
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        this.schedule = schedule;
+        countdown.set(schedule.countdown(size));
+
+        if (schedule.background) {
+            task = executor().scheduleWithFixedDelay(this::tick, schedule.period, schedule.period,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    ReformSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Stop background passes of this reorganizer, if any. The shared thread
+     *     keeps running for others.
+     */
+    synchronized void shutdown() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * @return number of finished reform passes
+     */
+    int epoch() {
+        return epoch.get();
+    }
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (EXECUTOR == null) {
+            EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "graph-reorganizer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return EXECUTOR;
+    }
+
+    /**
+     * One background step. Starts a pass if one is requested, then visits at
+     *     most {@code budget} parents. Skipped if a pass is running inline.
+     */
+    private void tick() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (cursor < 0) {
+                if (!pending) {
+                    return;
+                }
+                pending = false;
+                startPass();
+            }
+            if (step(schedule.budget)) {
+                epoch.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            // keep reorganizer alive, the pass restarts on next request
+            cursor = -1;
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Position cursor at the last parent slot
+     */
+    private void startPass() {
+        int last = target.slotCount() - 1;
+        cursor = last < 1 ? -1 : (last - 1) / bucketSize;
+    }
+
+    /**
+     * Visit at most {@code budget} parents. Caller holds {@code lock}.
+     *
+     * @param budget maximum parents to visit
+     * @return {@code true} if the pass is finished
+     */
+    private boolean step(int budget) {
+        while (cursor > -1 && budget > 0) {
+            target.reform(cursor);
+            --cursor;
+            --budget;
+        }
+        return cursor < 0;
+    }
+}
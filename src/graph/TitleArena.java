@@ -0,0 +1,148 @@
+package graph;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only UTF-8 title storage used by {@link CompactSearchGraph}
+ *
+ * Titles are stored back to back in fixed size chunks, each prefixed by its
+ *     byte length (2 bytes, MediaWiki titles are at most 255 bytes). A title
+ *     is addressed by a {@code long} reference, its position in the arena
+ *     plus one, so {@code 0} can mean "no title".
+ *
+ * Chunks are heap or direct {@link ByteBuffer}, direct chunks live outside
+ *     the Java heap and are never scanned by GC.
+ *
+ * Appends reserve space with a CAS on the tail, concurrent appends never
+ *     block each other. Bytes of a title must be published (e.g. through a
+ *     volatile write of its reference) before another thread reads them.
+ */
+class TitleArena {
+    static final int CHUNK_BITS = 20;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private final boolean offHeap;
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    TitleArena(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Append title
+     *
+     * @param bytes UTF-8 encoded title
+     * @return reference to the title, never {@code 0}
+     * @exception IllegalArgumentException title longer than 65535 bytes
+     */
+    long append(byte[] bytes) {
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("title too long: " + bytes.length + " bytes");
+        }
+        int len = bytes.length + 2;
+
+        long start;
+        while (true) {
+            long pos = tail.get();
+            // never split a title across chunks
+            start = (pos & CHUNK_MASK) + len > CHUNK_SIZE ? ((pos >>> CHUNK_BITS) + 1) << CHUNK_BITS : pos;
+            if (tail.compareAndSet(pos, start + len)) {
+                break;
+            }
+        }
+
+        ByteBuffer chunk = chunk((int) (start >>> CHUNK_BITS)).duplicate();
+        chunk.position((int) (start & CHUNK_MASK));
+        chunk.putShort((short) bytes.length);
+        chunk.put(bytes);
+        return start + 1;
+    }
+
+    /**
+     * Compare stored title with {@code bytes}, without decoding
+     *
+     * @param ref   title reference
+     * @param bytes UTF-8 encoded title
+     * @return {@code true} if equal
+     */
+    boolean equals(long ref, byte[] bytes) {
+        ByteBuffer chunk = chunks[(int) ((ref - 1) >>> CHUNK_BITS)];
+        int off = (int) ((ref - 1) & CHUNK_MASK);
+        if ((chunk.getShort(off) & MAX_LENGTH) != bytes.length) {
+            return false;
+        }
+        off += 2;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (chunk.get(off + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param ref title reference
+     * @return stored UTF-8 bytes
+     */
+    byte[] bytes(long ref) {
+        ByteBuffer chunk = chunks[(int) ((ref - 1) >>> CHUNK_BITS)].duplicate();
+        int off = (int) ((ref - 1) & CHUNK_MASK);
+        byte[] res = new byte[chunk.getShort(off) & MAX_LENGTH];
+        chunk.position(off + 2);
+        chunk.get(res);
+        return res;
+    }
+
+    /**
+     * @param ref title reference
+     * @return decoded title
+     */
+    String get(long ref) {
+        return new String(bytes(ref), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return bytes reserved so far, including chunk tails left empty
+     */
+    long used() {
+        return tail.get();
+    }
+
+    /**
+     * @return bytes allocated for chunks
+     */
+    long capacity() {
+        return (long) chunks.length * CHUNK_SIZE;
+    }
+
+    /**
+     * @return {@code true} if chunks are allocated outside Java heap
+     */
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    private ByteBuffer chunk(int i) {
+        ByteBuffer[] arr = chunks;
+        if (i < arr.length && arr[i] != null) {
+            return arr[i];
+        }
+        synchronized (this) {
+            arr = chunks;
+            if (i >= arr.length) {
+                arr = Arrays.copyOf(arr, Math.max(i + 1, arr.length * 2));
+            }
+            if (arr[i] == null) {
+                arr[i] = offHeap ? ByteBuffer.allocateDirect(CHUNK_SIZE) : ByteBuffer.allocate(CHUNK_SIZE);
+            }
+            chunks = arr;
+            return arr[i];
+        }
+    }
+}
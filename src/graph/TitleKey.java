@@ -0,0 +1,111 @@
+package graph;
+
+import java.util.Locale;
+
+/**
+ * Immutable, share freely
+ *
+ * Title as displayed, paired with its case-insensitive key. Titles differing
+ *     only in case ("Science", "SCIENCE", "science") have the same key. The key
+ *     is computed once per title, with its hash, every later graph, index or
+ *     cache lookup reuses both instead of upper casing the title again.
+ *
+ * Keys are upper case, same form the crawler always stored, so graph snapshots
+ *     written before keep matching.
+ */
+public final class TitleKey {
+    private final String title;
+    private final String key;
+    private final int hash;
+
+    private TitleKey(String title, String key) {
+        this.title = title;
+        this.key = key;
+        this.hash = key.hashCode(); // also cached in the key string
+    }
+
+    /**
+     * @param title title as displayed
+     * @return title with its key
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public static TitleKey of(String title) {
+        return new TitleKey(title, fold(title));
+    }
+
+    /**
+     * Case fold a title, locale independent. ASCII titles are folded in one
+     *     pass, without allocating if already upper case. Other titles go
+     *     through lower then upper case, so characters with several case forms
+     *     (final sigma, Kelvin sign, sharp s) end up in one form.
+     *
+     * @param title title as displayed
+     * @return key of the title
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public static String fold(String title) {
+        int n = title.length();
+        int i = 0;
+        char c = 0;
+        while (i < n && (c = title.charAt(i)) < 0x80 && (c < 'a' || c > 'z')) {
+            ++i;
+        }
+        if (i == n) {
+            return title;
+        }
+        if (c >= 0x80) {
+            return title.toLowerCase(Locale.ROOT).toUpperCase(Locale.ROOT);
+        }
+
+        char[] res = title.toCharArray();
+        for (; i < n; ++i) {
+            c = res[i];
+            if (c >= 0x80) {
+                return title.toLowerCase(Locale.ROOT).toUpperCase(Locale.ROOT);
+            }
+            if (c >= 'a' && c <= 'z') {
+                res[i] = (char) (c - ('a' - 'A'));
+            }
+        }
+        return new String(res);
+    }
+
+    /**
+     * @return title as displayed
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * @return case folded key
+     */
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Same key, hashes are compared first
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TitleKey)) {
+            return false;
+        }
+        TitleKey other = (TitleKey) o;
+        return hash == other.hash && key.equals(other.key);
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
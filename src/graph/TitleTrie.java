@@ -0,0 +1,339 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safed data structure
+ *
+ * Set of titles answering prefix queries, a compressed (radix) trie: each edge
+ *     carries a run of characters, a node only branches where titles differ.
+ *     All titles starting with a prefix are one subtree, a query walks down
+ *     {@code prefix.length()} characters then lists the subtree, cost grows
+ *     with the number of matches, not with the number of titles.
+ *
+ * Readers never lock. Children of a node are an immutable array sorted by the
+ *     first character of their edge, replaced as a whole (copy on write).
+ *     Writers lock the node whose children they change, and the child being
+ *     split or merged, always parent before child. A node taken out of the
+ *     trie by a split or merge is marked dead and replaced by a copy, writers
+ *     that reach a dead node start over from root.
+ *
+ * Queries are weakly consistent, titles added or removed meanwhile may be listed
+ *     or not.
+ */
+public class TitleTrie {
+    private static final Node[] LEAF = new Node[0];
+
+    private final Node root = new Node("", false, LEAF);
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Edge label and the subtree under it. Label is never empty except at root.
+     */
+    private static final class Node {
+        final String label;
+        volatile boolean terminal; // a title ends here
+        volatile Node[] children; // sorted by first character of label
+        boolean dead; // replaced, guarded by the node's monitor
+
+        Node(String label, boolean terminal, Node[] children) {
+            this.label = label;
+            this.terminal = terminal;
+            this.children = children;
+        }
+
+        /**
+         * @param c first character of the edge
+         * @return child, {@code null} if none
+         */
+        Node child(char c) {
+            Node[] arr = children;
+            int lo = 0;
+            int hi = arr.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char m = arr[mid].label.charAt(0);
+                if (m < c) {
+                    lo = mid + 1;
+                } else if (m > c) {
+                    hi = mid - 1;
+                } else {
+                    return arr[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param title title to add
+     * @return {@code true} if added, {@code false} if already present
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public boolean add(String title) {
+        retry: while (true) {
+            Node n = root;
+            int i = 0;
+            while (true) {
+                Node next;
+                synchronized (n) {
+                    if (n.dead) {
+                        continue retry;
+                    }
+                    if (i == title.length()) {
+                        if (n.terminal) {
+                            return false;
+                        }
+                        n.terminal = true;
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    Node c = n.child(title.charAt(i));
+                    if (c == null) {
+                        n.children = with(n.children, new Node(title.substring(i), true, LEAF));
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    int l = common(c.label, title, i);
+                    if (l < c.label.length()) {
+                        split(n, c, l, title, i);
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    next = c;
+                    i += l;
+                }
+                n = next;
+            }
+        }
+    }
+
+    /**
+     * @param title title to remove
+     * @return {@code true} if removed, {@code false} if not present
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public boolean remove(String title) {
+        retry: while (true) {
+            Node grand = null;
+            Node parent = null;
+            Node n = root;
+            for (int i = 0; i < title.length(); i += n.label.length()) {
+                Node c = n.child(title.charAt(i));
+                if (c == null || !title.startsWith(c.label, i)) {
+                    return false;
+                }
+                grand = parent;
+                parent = n;
+                n = c;
+            }
+
+            // top-down, root stands in for missing ancestors, monitors are reentrant
+            synchronized (grand == null ? root : grand) {
+                synchronized (parent == null ? root : parent) {
+                    synchronized (n) {
+                        if (n.dead || parent != null && (parent.dead || parent.child(n.label.charAt(0)) != n)
+                                || grand != null && (grand.dead || grand.child(parent.label.charAt(0)) != parent)) {
+                            // changed since the walk down
+                            continue retry;
+                        }
+                        if (!n.terminal) {
+                            return false;
+                        }
+                        n.terminal = false;
+                        size.decrementAndGet();
+                        if (parent == null) {
+                            return true;
+                        }
+
+                        Node[] children = n.children;
+                        if (children.length == 1) {
+                            merge(parent, n, children[0]);
+                        } else if (children.length == 0) {
+                            n.dead = true;
+                            Node[] rest = without(parent.children, n);
+                            if (grand != null && !parent.terminal && rest.length == 1) {
+                                // parent only branched for n
+                                parent.children = rest;
+                                merge(grand, parent, rest[0]);
+                            } else {
+                                parent.children = rest;
+                            }
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param title title
+     * @return {@code true} if present
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public boolean contains(String title) {
+        Node n = root;
+        for (int i = 0; i < title.length(); i += n.label.length()) {
+            n = n.child(title.charAt(i));
+            if (n == null || !title.startsWith(n.label, i)) {
+                return false;
+            }
+        }
+        return n.terminal;
+    }
+
+    /**
+     * Visit every title starting with {@code prefix}, in character order
+     *
+     * @param prefix prefix, empty for all titles
+     * @param action called once per title
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public void forEach(String prefix, Consumer<String> action) {
+        Node n = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node c = n.child(prefix.charAt(i));
+            if (c == null) {
+                return;
+            }
+            int rest = prefix.length() - i;
+            if (c.label.length() >= rest) {
+                // prefix ends inside this edge, the whole subtree matches
+                if (c.label.regionMatches(0, prefix, i, rest)) {
+                    collect(c, new StringBuilder(prefix.length() + 32).append(prefix, 0, i).append(c.label),
+                            action);
+                }
+                return;
+            }
+            if (!prefix.startsWith(c.label, i)) {
+                return;
+            }
+            i += c.label.length();
+            n = c;
+        }
+        collect(n, new StringBuilder(prefix.length() + 32).append(prefix), action);
+    }
+
+    /**
+     * @param prefix prefix, empty for all titles
+     * @return titles starting with {@code prefix}, in character order
+     * @exception NullPointerException parameter is {@code null}
+     */
+    public String[] startsWith(String prefix) {
+        ArrayList<String> res = new ArrayList<String>();
+        forEach(prefix, res::add);
+        return res.toArray(new String[res.size()]);
+    }
+
+    /**
+     * @return number of titles
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Depth first from {@code n}, {@code path} holds the title up to and
+     *     including {@code n}'s label
+     */
+    private static void collect(Node n, StringBuilder path, Consumer<String> action) {
+        if (n.terminal) {
+            action.accept(path.toString());
+        }
+        int mark = path.length();
+        for (Node c : n.children) {
+            path.append(c.label);
+            collect(c, path, action);
+            path.setLength(mark);
+        }
+    }
+
+    /**
+     * Split edge of {@code c} after {@code l} characters, the title ends at
+     *     the split point or branches off there. Caller holds {@code n}'s monitor.
+     *
+     * @param n     parent of {@code c}
+     * @param c     child to split
+     * @param l     common prefix of the edge and the title's rest
+     * @param title title being added
+     * @param i     characters of title above {@code c}
+     */
+    private static void split(Node n, Node c, int l, String title, int i) {
+        synchronized (c) {
+            // c is still n's child, only n's monitor holders detach it
+            Node lower = new Node(c.label.substring(l), c.terminal, c.children);
+            boolean ends = i + l == title.length();
+            Node[] children = new Node[] { lower };
+            if (!ends) {
+                children = with(children, new Node(title.substring(i + l), true, LEAF));
+            }
+            n.children = replace(n.children, c, new Node(c.label.substring(0, l), ends, children));
+            c.dead = true;
+        }
+    }
+
+    /**
+     * Replace non-terminal {@code n} and its only child {@code c} by one node.
+     *     Caller holds monitors of {@code parent} and {@code n}.
+     */
+    private static void merge(Node parent, Node n, Node c) {
+        synchronized (c) {
+            Node res = new Node(n.label + c.label, c.terminal, c.children);
+            parent.children = replace(parent.children, n, res);
+            n.dead = true;
+            c.dead = true;
+        }
+    }
+
+    /**
+     * @return length of the common prefix of {@code label} and {@code title}
+     *     from {@code i}
+     */
+    private static int common(String label, String title, int i) {
+        int n = Math.min(label.length(), title.length() - i);
+        int l = 0;
+        while (l < n && label.charAt(l) == title.charAt(i + l)) {
+            ++l;
+        }
+        return l;
+    }
+
+    private static Node[] with(Node[] arr, Node node) {
+        char c = node.label.charAt(0);
+        int at = 0;
+        while (at < arr.length && arr[at].label.charAt(0) < c) {
+            ++at;
+        }
+        Node[] res = new Node[arr.length + 1];
+        System.arraycopy(arr, 0, res, 0, at);
+        res[at] = node;
+        System.arraycopy(arr, at, res, at + 1, arr.length - at);
+        return res;
+    }
+
+    private static Node[] without(Node[] arr, Node node) {
+        Node[] res = new Node[arr.length - 1];
+        for (int i = 0, j = 0; i < arr.length; ++i) {
+            if (arr[i] != node) {
+                res[j++] = arr[i];
+            }
+        }
+        return res;
+    }
+
+    private static Node[] replace(Node[] arr, Node from, Node to) {
+        Node[] res = Arrays.copyOf(arr, arr.length);
+        for (int i = 0; i < res.length; ++i) {
+            if (res[i] == from) {
+                res[i] = to;
+                break;
+            }
+        }
+        return res;
+    }
+}
@@ -12,7 +12,9 @@ public class App {
         for (String lang : arr) {
             MultiProcsWikiQuerier querier = new MultiProcsWikiQuerier();
             querier.setProperty(lang, 0, include, exclude);
-            querier.setProcs(1, 5000);
+            querier.setProcs(1);
+            // requests per second at most, lowered when the server pushes back
+            querier.setRate(5);
 
             // number of article chain
             querier.setLimit(1);
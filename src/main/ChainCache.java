@@ -0,0 +1,101 @@
+package main;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import graph.TitleKey;
+
+/**
+ * Memoized downstream chains, title -> rest of the chain from that title
+ *
+ * A chain is stored as a linked list of titles, the suffix of a title shares
+ *     its tail with every chain that joined it, so a chain joining a known
+ *     title is completed in O(1) and costs one node per new title.
+ *
+ * Least recently used titles are dropped beyond {@code capacity}. Tails are
+ *     kept alive by the titles still cached above them.
+ */
+class ChainCache {
+
+    /**
+     * One title of a chain and everything after it
+     */
+    static final class Suffix {
+        final TitleKey title;
+        final Suffix next;
+        final int length;
+
+        Suffix(TitleKey title, Suffix next) {
+            this.title = title;
+            this.next = next;
+            this.length = next == null ? 1 : next.length + 1;
+        }
+
+        /**
+         * @return titles joined with {@code sep}, starting with {@link #title}
+         */
+        String join(String sep) {
+            StringBuilder sb = new StringBuilder(length * 16);
+            for (Suffix s = this; s != null; s = s.next) {
+                if (s != this) {
+                    sb.append(sep);
+                }
+                sb.append(s.title.title());
+            }
+            return sb.toString();
+        }
+    }
+
+    private final LinkedHashMap<String, Suffix> map;
+
+    /**
+     * @param capacity maximum number of cached titles
+     * @exception IllegalArgumentException {@code capacity} is not positive
+     */
+    ChainCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        map = new LinkedHashMap<String, Suffix>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Suffix> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param key title key, see {@link TitleKey#key()}
+     * @return chain from the title, {@code null} if not cached
+     */
+    synchronized Suffix get(String key) {
+        return map.get(key);
+    }
+
+    /**
+     * Cache every title of a finished chain, last title first so each suffix
+     *     is built on the one after it.
+     *
+     * @param titles chain titles
+     * @param count  number of titles of {@code titles} to cache
+     * @param tail   known chain after the last title, may be {@code null}
+     * @return suffix of the first title
+     */
+    synchronized Suffix put(TitleKey[] titles, int count, Suffix tail) {
+        Suffix res = tail;
+        for (int i = count - 1; i > -1; --i) {
+            res = new Suffix(titles[i], res);
+            map.put(titles[i].key(), res);
+        }
+        return res;
+    }
+
+    /**
+     * @return number of cached titles
+     */
+    synchronized int size() {
+        return map.size();
+    }
+}
@@ -4,33 +4,53 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
-import java.util.concurrent.LinkedBlockingDeque;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.json.JSONException;
 import org.json.JSONObject;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 
 import graph.Graph;
 import graph.HeuristicSearchGraph;
+import graph.ReformSchedule;
+import graph.TitleKey;
+import wiki.LinkExtractor;
+import wiki.LinkFilter;
+import wiki.PageCache;
+import wiki.ParseReader;
+import wiki.RateLimiter;
+import wiki.TitleResolver;
 import wiki.WikiAPI;
 
 public class MultiProcsWikiQuerier {
-    private Thread tIds[]; // child threads ids
+    private static final String SNAPSHOT = "graph_%s.hsg";
+    private static final long SNAPSHOT_PERIOD = 5 * 60 * 1000;
+
     private int limit;
     private int procs;
+    private boolean virtual; // one virtual thread per chain
 
     private Bundle bundle;
 
-    private LinkedBlockingDeque<String> upward, downward;
-
     /**
      * 
      * @param procs
@@ -40,23 +60,117 @@ public class MultiProcsWikiQuerier {
      * @param omission elements will be skip, case sensitive
      */
     public MultiProcsWikiQuerier() {
-        upward = new LinkedBlockingDeque<String>();
-        downward = new LinkedBlockingDeque<String>();
         bundle = new Bundle();
     }
 
     public void setProperty(String lang, int nth, String[] include, String[] exclude) {
         bundle.lang = lang;
         bundle.nth = nth;
-        bundle.include = include;
-        bundle.exclude = exclude;
+        bundle.filter = new LinkFilter(include, exclude);
     }
 
-    public void setProcs(int numOfProcs, int delayMul) {
+    /**
+     * @param numOfProcs maximum number of chains walked at once
+     */
+    public void setProcs(int numOfProcs) {
         this.procs = numOfProcs;
+    }
+
+    /**
+     * Requests to the wiki are paced by the {@link RateLimiter} of its host,
+     *     shared by all chains, whatever their number. It adapts below
+     *     {@code rate} as the server slows down or pushes back.
+     * 
+     * @param rate highest rate, requests per second
+     * @exception IllegalArgumentException below 0.1 or not finite
+     */
+    public void setRate(double rate) {
+        new RateLimiter(rate, 1); // validate
+        bundle.rate = rate;
+    }
+
+    /**
+     * Walk each chain on its own virtual thread instead of a pool of platform
+     *     threads. Chains spend their time waiting on requests and delays, a
+     *     blocked virtual thread holds no carrier, so thousands of chains can
+     *     be in flight, {@code numOfProcs} of {@link #setProcs(int)} still
+     *     caps how many. Needs Java 21, platform threads are used on older
+     *     runtimes.
+     * 
+     * @param virtual {@code true} for virtual threads
+     */
+    public void setVirtualThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /**
+     * Titles followed by concurrent chains are resolved together, one query
+     *     per batch instead of one page fetch per hop for titles already known.
+     *     A batch is sent once every walking chain waits on it, {@code wait}
+     *     only bounds how long chains busy elsewhere are waited for. With one
+     *     chain in flight there is nothing to batch, each hop takes its title
+     *     from the page request alone.
+     * 
+     * @param size titles per query, at most {@link WikiAPI#MAX_TITLES}
+     * @param wait milliseconds a title waits for others to join its batch
+     * @exception IllegalArgumentException parameters out of range
+     */
+    public void setBatch(int size, long wait) {
+        new TitleResolver(new WikiAPI(bundle.lang), size, wait); // validate
+        bundle.batchSize = size;
+        bundle.batchWait = wait;
+    }
+
+    /**
+     * Articles are read from {@code cache} when there, fetched ones stored in
+     *     it, so reruns and chains crossing the same pages skip the network.
+     *     The caller closes it after {@link #query(String, String)}.
+     * 
+     * @param cache page cache, {@code null} for none
+     */
+    public void setCache(PageCache cache) {
+        bundle.cache = cache;
+    }
+
+    /**
+     * Bound the time spent waiting on the wiki. A hop in flight when the
+     *     chain runs out of time still finishes within its request deadline.
+     * 
+     * @param request milliseconds a request has to be answered in, retries
+     *                included
+     * @param chain   milliseconds a chain may walk, cut short after
+     * @exception IllegalArgumentException not positive
+     */
+    public void setDeadlines(long request, long chain) {
+        if (request <= 0 || chain <= 0) {
+            throw new IllegalArgumentException("deadlines must be positive");
+        }
+        bundle.requestDeadline = request;
+        bundle.chainDeadline = chain;
+    }
+
+    /**
+     * @param retries times a failed request is sent again, 0 for none
+     * @param backoff milliseconds, window of the first jittered pause, doubled
+     *                per retry
+     * @exception IllegalArgumentException parameters out of range
+     * @see WikiAPI#setRetries(int, Duration)
+     */
+    public void setRetries(int retries, long backoff) {
+        new WikiAPI(bundle.lang).setRetries(retries, Duration.ofMillis(backoff)); // validate
+        bundle.retries = retries;
+        bundle.backoff = backoff;
+    }
 
-        tIds = new Thread[numOfProcs];
-        bundle.delayMul = delayMul;
+    /**
+     * @param quantile latency quantile a request is duplicated at, e.g. 0.95,
+     *                 0 for no hedging
+     * @exception IllegalArgumentException out of range
+     * @see WikiAPI#setHedge(double)
+     */
+    public void setHedge(double quantile) {
+        new WikiAPI(bundle.lang).setHedge(quantile); // validate
+        bundle.hedge = quantile;
     }
 
     public void setLimit(int limit) {
@@ -67,50 +181,109 @@ public class MultiProcsWikiQuerier {
      * Receive data from child processes, store it as utf-8 format in user specified
      * location
      * 
+     * Every chain is a task, the call returns once all of them finished. 
+     *     Interrupting the calling thread cancels the chains still running.
+     * 
      * @param dest       destination that files will be store.
      * @param fName      file name
      * @param identifier very first identifier
      * 
      */
     public void query(String dest, String fName) {
-        // Get random articles, then buffered into the downward
-        // message queue.
-        WikiAPI api = new WikiAPI(bundle.lang);
-        for (String title : retriveTitles(api.queryRandomTitle(limit), limit)) {
-            downward.add(title);
+        HeuristicSearchGraph hsg = HeuristicSearchGraph.getInstance(bundle.lang);
+        Path snapshot = Paths.get(dest, String.format(SNAPSHOT, bundle.lang));
+        if (hsg.size() == 0 && Files.exists(snapshot)) {
+            // titles seen by previous runs, rebuilt in full before the first hop
+            try {
+                hsg.load(snapshot);
+            } catch (IOException e) {
+                System.err.println("Error: Failed to load graph snapshot, starting empty.");
+            }
         }
-        for (int i = 0; i < procs; ++i) {
-            downward.add(bundle.killSign);
+
+        // Get random articles, one chain each
+        WikiAPI api = bundle.api();
+        api.getRateLimiter().setTarget(bundle.rate);
+        String[] titles = retriveTitles(api.queryRandomTitle(limit), limit);
+        String[] keys = new String[titles.length];
+        for (int i = 0; i < titles.length; ++i) {
+            keys[i] = titles[i] == null ? "" : TitleKey.fold(titles[i]);
+        }
+        // skip seeds already walked by an earlier chain
+        boolean[] seen = hsg.containsAll(keys);
+        ArrayList<String> seeds = new ArrayList<String>();
+        for (int i = 0; i < titles.length; ++i) {
+            if (titles[i] != null && !seen[i]) {
+                seeds.add(titles[i]);
+            }
         }
+        // a lone chain has nobody to batch with, the page request resolves its title
+        bundle.resolver = Math.min(procs, seeds.size()) > 1
+                ? new TitleResolver(api, bundle.batchSize, bundle.batchWait)
+                : null;
 
         // create new file, then write current time as header
         File file = new File(String.format("%s/%s.txt", dest, fName));
         appendToFile(LocalDateTime.now().toString(), file);
 
-        // create threads
-        for (int i = 0; i < procs; i++) {
-            tIds[i] = new Thread(new WikiQuerier(bundle, upward, downward));
-            tIds[i].start();
-        }
+        // reorder graph in background, workers never pay for a full reform
+        hsg.setSchedule(ReformSchedule.background(4, 0.25, 1024, 10));
+        // a chain is a few dozen hops, filter grows if the crawl goes beyond
+        hsg.setExpectedSize(Math.max(limit * 32, 1024), 0.01);
 
+        ExecutorService pool = executor();
+        CompletionService<String> done = new ExecutorCompletionService<String>(pool);
+        Semaphore walking = new Semaphore(Math.max(1, procs));
         try {
-            int alive = procs;
-            while (alive > 0) {
-                while (upward.size() > 0) {
-                    String res = upward.poll();
-                    if (res.equals(bundle.killSign)) {
-                        --alive;
-                    } else {
-                        appendToFile(res, file);
+            for (String seed : seeds) {
+                WikiQuerier chain = new WikiQuerier(bundle, seed);
+                done.submit(() -> {
+                    walking.acquire();
+                    // a batch goes out once every walking chain asked, not after the wait
+                    TitleResolver resolver = bundle.resolver;
+                    if (resolver != null) {
+                        resolver.enter();
                     }
-                }
-                Thread.sleep(200);
+                    try {
+                        return chain.call();
+                    } finally {
+                        if (resolver != null) {
+                            resolver.leave();
+                        }
+                        walking.release();
+                    }
+                });
             }
 
+            long nextSnapshot = System.currentTimeMillis() + SNAPSHOT_PERIOD;
+            for (int left = seeds.size(); left > 0;) {
+                Future<String> res = done.poll(200, TimeUnit.MILLISECONDS);
+                if (res != null) {
+                    --left;
+                    try {
+                        appendToFile(res.get(), file);
+                    } catch (ExecutionException e) {
+                        System.err.println("Error: Chain failed, " + e.getCause());
+                    }
+                }
+                if (System.currentTimeMillis() > nextSnapshot) {
+                    // workers keep crawling while it is written
+                    hsg.snapshotAsync(snapshot);
+                    nextSnapshot = System.currentTimeMillis() + SNAPSHOT_PERIOD;
+                }
+            }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            // cancelled, chains in flight are interrupted below
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
         }
 
+        try {
+            hsg.snapshot(snapshot);
+        } catch (IOException e) {
+            System.err.println("Error: Failed to save graph snapshot.");
+        }
     }
 
     /**
@@ -132,9 +305,35 @@ public class MultiProcsWikiQuerier {
         }
     }
 
+    /**
+     * Thread per chain, virtual if requested and available, looked up
+     *     reflectively so the crawler still builds and runs before Java 21
+     * 
+     * @return executor of chains
+     */
+    private ExecutorService executor() {
+        if (virtual) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Warning: Virtual threads need Java 21, using platform threads.");
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, procs));
+    }
+
+    /**
+     * @return titles of the response, none if the query failed
+     */
     private String[] retriveTitles(String JSON, int size) {
         String[] ret = new String[size];
-        JSONObject pages = new JSONObject(JSON).getJSONObject("query").getJSONObject("pages");
+        JSONObject pages;
+        try {
+            pages = new JSONObject(JSON).getJSONObject("query").getJSONObject("pages");
+        } catch (JSONException e) {
+            System.err.println("Error: Failed to get random titles.");
+            return ret;
+        }
         Iterator<String> iter = pages.keys();
         int i = 0;
         while (i < size && iter.hasNext()) {
@@ -146,115 +345,213 @@ public class MultiProcsWikiQuerier {
     }
 }
 
-class WikiQuerier extends Thread {
+/**
+ * Walk of one chain, from a seed title until a known title, a loop or a
+ *     page without link to follow
+ */
+class WikiQuerier implements Callable<String> {
     private Bundle bundleInfo;
     private Graph hsg;
     private WikiAPI api;
-    private LinkedBlockingDeque<String> upward, downward;
-    private JSONObject json;
+    private String seed;
+    private LinkExtractor extractor = new LinkExtractor();
 
     /**
      * Constructor
      * 
-     * @param ranPage,  url of the random page
-     * @param n,        n of nth url extract from webpage
-     * @param limit,    maximun number of pages chain will be queried
-     * @param msgQueue, message passing queue, from current process to parent
-     *                  process
+     * @param bundleInfo settings and state shared by the chains of a language
+     * @param seed       first title of the chain
      */
-    public WikiQuerier(Bundle bundleInfo, LinkedBlockingDeque<String> upward, LinkedBlockingDeque<String> downward) {
+    public WikiQuerier(Bundle bundleInfo, String seed) {
         this.bundleInfo = bundleInfo;
-        this.upward = upward;
-        this.downward = downward;
-        hsg = HeuristicSearchGraph.getInstance();
-        api = new WikiAPI(bundleInfo.lang);
+        this.seed = seed;
+        hsg = HeuristicSearchGraph.getInstance(bundleInfo.lang);
+        api = bundleInfo.api();
     }
 
+    /**
+     * @return titles of the chain joined with " => ", completed from the chain
+     *     cache when it joined a known chain
+     * @exception InterruptedException crawl cancelled
+     */
     @Override
-    public void run() {
-        ArrayList<String> record = new ArrayList<String>();
-        String title;
-
-        while (downward.size() > 0) {
-            title = downward.poll();
-            if (title.equals(bundleInfo.killSign)) {
-                // job is done, kill thread
-                upward.add(bundleInfo.killSign);
-                return;
+    public String call() throws InterruptedException {
+        ArrayList<TitleKey> record = new ArrayList<TitleKey>();
+        String title = seed;
+        ChainCache.Suffix tail = null; // known rest of the chain
+        boolean complete = false; // chain reached its end, safe to cache
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bundleInfo.chainDeadline);
+
+        while (!title.isEmpty()) {
+            if (System.nanoTime() - end > 0) {
+                System.err.println("Error: Chain out of time after " + record.size() + " titles.");
+                break;
             }
-            // title = "統計學應用領域列表";
-            title = "Mikroökonomie";
-
-            while (!title.isEmpty()) {
-                String rawIn = api.queryArticle(title);
-                json = new JSONObject(rawIn);
-                if (json.has("parse")) {
-                    json = json.getJSONObject("parse");
-                } else {
-                    // page not exist
+            if (!record.isEmpty()) {
+                // link followed by an earlier chain, rest is known without a request
+                tail = bundleInfo.chains.get(TitleKey.fold(title));
+                if (tail != null) {
+                    hsg.contains(tail.title.key());
+                    complete = true;
                     break;
                 }
-                title = json.getString("title");
-                record.add(title);
+            }
 
-                if (!hsg.contains(title.toUpperCase())) {
-                    // for consistency, use upper case letters
-                    hsg.insert(title.toUpperCase());
-                } else {
+            // canonical title first, resolved in a batch with the hops of other
+            // chains, a known title then ends the chain without fetching its page
+            String next = null;
+            if (bundleInfo.resolver != null) {
+                try {
+                    title = bundleInfo.resolver.resolve(title);
+                } catch (IOException e) {
+                    System.err.println("Error: Failed to resolve title, " + e.getMessage());
                     break;
                 }
-                System.out.println(title);
-
-                String next = getNth();
-                if (!next.isEmpty() && !next.startsWith("#")) {
-                    title = next.substring(6).split("#")[0];
+            } else {
+                // single chain, the parse response names the page redirects lead to
+                String[] canonical = { title };
+                try {
+                    next = getNth(title, canonical);
+                } catch (IOException e) {
+                    System.err.println("Error: Failed to read article, " + e.getMessage());
+                    break;
                 }
+                title = next == null ? null : canonical[0];
+            }
+            if (title == null) {
+                // page not exist
+                break;
+            }
+            // case folded once per hop, graph and cache share the key
+            TitleKey key = TitleKey.of(title);
+
+            if (hsg.containsOrInsert(key.key())) {
+                // known title, another chain already walked from here
+                tail = bundleInfo.chains.get(key.key());
+                if (tail == null) {
+                    // chain still running elsewhere, evicted, or a loop of this chain
+                    complete = record.contains(key);
+                    record.add(key);
+                } else {
+                    complete = true;
+                }
+                break;
+            }
+            record.add(key);
 
-                // delay
+            if (next == null) {
                 try {
-                    Thread.sleep((int) (bundleInfo.delayMul * Math.random()));
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    next = getNth(title, null);
+                } catch (IOException e) {
+                    System.err.println("Error: Failed to read article, " + e.getMessage());
+                    break;
                 }
             }
+            if (next == null) {
+                // deleted meanwhile
+                break;
+            }
+            if (!next.isEmpty() && !next.startsWith("#")) {
+                title = next.substring(6).split("#")[0];
+            } else {
+                // nothing to follow, chain ends here
+                title = "";
+                complete = true;
+            }
+        }
 
-            upward.add(String.join(" => ", record));
-            record.clear(); // reset
+        TitleKey[] arr = record.toArray(new TitleKey[record.size()]);
+        if (complete) {
+            ChainCache.Suffix chain = bundleInfo.chains.put(arr, arr.length, tail);
+            return chain == null ? "" : chain.join(" => ");
         }
+        return record.stream().map(TitleKey::title).collect(Collectors.joining(" => "));
     }
 
-    private String getNth() {
-        String html = json.getJSONObject("text").getString("*");
-        Element body = Jsoup.parseBodyFragment(html).body();
-        System.out.println(body);
-        for (Element a_tag : body.select("div.mw-parser-output>div>p>a,div.mw-parser-output>div>ul>li>a")) {
-            try {
-                // extract title
-                final String T = URLDecoder.decode(a_tag.attr("href"), "utf-8").replace("_", " ");
-                if (bundleInfo.include == null || Arrays.stream(bundleInfo.include).anyMatch(e -> T.matches(e))) {
-                    if (bundleInfo.exclude == null || Arrays.stream(bundleInfo.exclude).noneMatch(e -> T.matches(e))) {
-                        System.out.println(T + "   " + a_tag.cssSelector());
-                        // return T;
-                    }
-                }
-            } catch (Exception exc) {
-                return "";
-            }
+    /**
+     * Stream the page, its HTML goes straight to the extractor and is read
+     *     only up to the link taken, the rest of the body is abandoned
+     * 
+     * @param title     title, redirects are followed
+     * @param canonical takes the title of the page read at index 0, {@code null}
+     *                  to skip it
+     * @return title of the {@code nth} accepted link, as "/wiki/Foo bar", ""
+     *     if there is none, {@code null} if the page doesn't exist
+     * @exception IOException request failed or response malformed
+     * @exception InterruptedException crawl cancelled
+     */
+    private String getNth(String title, String[] canonical) throws IOException, InterruptedException {
+        CompletableFuture<InputStream> res = api.openArticleAsync(title);
+        InputStream body;
+        try {
+            body = res.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            res.cancel(true);
+            res.thenAccept(in -> close(in));
+            throw e;
+        }
 
+        try (InputStream in = body) {
+            String[] next = { "" };
+            ParseReader reader = new ParseReader(in);
+            if (!reader.read(canonical == null ? null : t -> canonical[0] = t,
+                    html -> next[0] = extractor.nth(html, bundleInfo.filter, bundleInfo.nth))) {
+                return null;
+            }
+            return next[0];
         }
+    }
 
-        System.exit(0);
-        return "";
+    private static void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // abandoned anyway
+        }
     }
 }
 
 class Bundle {
     int nth = 0;
-    int delayMul = 1000;
+
+    // requests per second at most, to the language host
+    double rate = RateLimiter.DEFAULT_RATE;
 
     String lang = "en";
-    String killSign = "###STOP###";
 
-    String[] include;
-    String[] exclude;
+    // links followed, include and exclude rules compiled once
+    LinkFilter filter = new LinkFilter(null, null);
+
+    // downstream chains shared by workers, at most 64k titles
+    ChainCache chains = new ChainCache(1 << 16);
+
+    // canonical titles of links, batched across workers, null with one chain in flight
+    int batchSize = WikiAPI.MAX_TITLES;
+    long batchWait = 50;
+    TitleResolver resolver;
+
+    // articles kept on disk, null if not cached
+    PageCache cache;
+
+    // tail latency, milliseconds
+    long requestDeadline = WikiAPI.REQUEST_TIMEOUT.toMillis() * 2;
+    long chainDeadline = 10 * 60 * 1000;
+    int retries = WikiAPI.RETRIES;
+    long backoff = WikiAPI.BACKOFF.toMillis();
+    double hedge = 0;
+
+    /**
+     * @return API of the language with these settings
+     */
+    WikiAPI api() {
+        WikiAPI api = new WikiAPI(lang);
+        api.setCache(cache);
+        api.setDeadline(Duration.ofMillis(requestDeadline));
+        api.setRetries(retries, Duration.ofMillis(backoff));
+        api.setHedge(hedge);
+        return api;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package wiki;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safed
+ *
+ * Circuit breaker of one host, shared by every request to it. After
+ *     {@code threshold} failures in a row, network errors or HTTP 5xx (503
+ *     included, even when it only asks to slow down), the circuit opens:
+ *     requests fail at once instead of piling up on an unhealthy wiki. Once
+ *     {@code coolDown} passed one request is let through as a probe, its
+ *     success closes the circuit, its failure opens it again.
+ */
+public class CircuitBreaker {
+    /**
+     * Failures in a row opening a host's shared breaker
+     */
+    public final static int DEFAULT_THRESHOLD = 5;
+
+    /**
+     * Time a host's shared breaker stays open
+     */
+    public final static Duration DEFAULT_COOL_DOWN = Duration.ofSeconds(30);
+
+    private final static ConcurrentHashMap<String, CircuitBreaker> HOSTS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private final int threshold;
+    private final long coolDown;
+
+    // guarded by this
+    private int failures; // in a row
+    private boolean open;
+    private long openedAt;
+    private boolean probing; // a request is let through while open
+    private long rejected;
+
+    /**
+     * @param threshold failures in a row opening the circuit
+     * @param coolDown  time until a probe is let through
+     * @exception IllegalArgumentException parameters out of range
+     */
+    public CircuitBreaker(int threshold, Duration coolDown) {
+        if (threshold < 1 || coolDown.isNegative()) {
+            throw new IllegalArgumentException("threshold must be positive, cool-down not negative");
+        }
+        this.threshold = threshold;
+        this.coolDown = coolDown.toNanos();
+    }
+
+    /**
+     * Breaker shared by every {@link WikiAPI} of a host
+     *
+     * @param host host and port, e.g. "en.wikipedia.org"
+     * @return breaker of {@code host}
+     */
+    public static CircuitBreaker of(String host) {
+        return HOSTS.computeIfAbsent(host, h -> new CircuitBreaker(DEFAULT_THRESHOLD, DEFAULT_COOL_DOWN));
+    }
+
+    /**
+     * Ask to send a request, followed by {@link #onSuccess()} or
+     *     {@link #onFailure()} if allowed
+     *
+     * @return {@code false} if the circuit is open, the request is dropped
+     */
+    public synchronized boolean allow() {
+        if (!open) {
+            return true;
+        }
+        if (!probing && System.nanoTime() - openedAt >= coolDown) {
+            probing = true;
+            return true;
+        }
+        ++rejected;
+        return false;
+    }
+
+    /**
+     * The host answered
+     */
+    public synchronized void onSuccess() {
+        failures = 0;
+        open = false;
+        probing = false;
+    }
+
+    /**
+     * The request failed, network error or server error
+     */
+    public synchronized void onFailure() {
+        ++failures;
+        if (probing || failures >= threshold) {
+            open = true;
+            openedAt = System.nanoTime();
+            probing = false;
+        }
+    }
+
+    /**
+     * @return the circuit is open
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return requests dropped while open
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,777 @@
+package wiki;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * ! Warnning: not Thread-safed, one instance per worker
+ *
+ * Links of an article, read from its parsed HTML as it streams in. Anchors
+ *     matching
+ *     {@code div.mw-parser-output>div>p>a, div.mw-parser-output>div>ul>li>a}
+ *     are reported in document order, as Jsoup selects them from the DOM, but
+ *     without building one: only the stack of open elements is kept, element
+ *     names as hashes, and reading stops at the link asked for. Strings are
+ *     made for the href of candidate anchors only.
+ *
+ * The HTML5 tree building rules that decide parents of these elements are
+ *     followed: void and raw text elements, paragraphs closed by blocks, list
+ *     items by list items, cells and rows of tables, SVG and MathML, end tags
+ *     without an open element ignored. Misnested formatting elements and
+ *     content misplaced inside tables are not rearranged, MediaWiki's balanced
+ *     output doesn't contain them.
+ */
+public class LinkExtractor {
+    /**
+     * Selector of followed links, the links reported by {@link #scan(Reader, Predicate)}
+     */
+    public static final String SELECTOR = "div.mw-parser-output>div>p>a,div.mw-parser-output>div>ul>li>a";
+
+    private static final String OUTPUT_CLASS = "mw-parser-output";
+
+    // element kinds
+    private static final int VOID = 1; // no content, never open
+    private static final int RAW = 1 << 1; // text up to its end tag
+    private static final int BLOCK = 1 << 2; // closes an open paragraph
+    private static final int SCOPE = 1 << 3; // bounds the default scope
+    private static final int SPECIAL = 1 << 4; // bounds end tags of formatting elements
+    private static final int BUTTON = 1 << 5; // bounds the button scope
+    private static final int LIST = 1 << 6; // bounds the list item scope
+    private static final int TABLE_SCOPE = 1 << 7; // bounds the table scope
+    private static final int BREAKOUT = 1 << 8; // leaves SVG and MathML
+    private static final int FOREIGN = 1 << 9; // SVG or MathML element, on the stack only
+    private static final int OUTPUT = 1 << 10; // div.mw-parser-output, on the stack only
+    private static final int ID = 12; // shift of the element id
+
+    // element ids, 0 for the rest
+    private static final int A = 1, P = 2, DIV = 3, UL = 4, LI = 5, DD = 6, H = 7, TABLE = 8, SECTION = 9, TR = 10,
+            CELL = 11, SVG = 12, IGNORED = 13;
+
+    // names -> kinds, open addressing
+    private static final String[] NAMES = new String[512];
+    private static final int[] KINDS = new int[512];
+
+    static {
+        define(VOID, "area", "base", "basefont", "bgsound", "br", "col", "embed", "frame", "hr", "image", "img",
+                "input", "keygen", "link", "meta", "param", "source", "track", "wbr");
+        define(RAW, "iframe", "noembed", "noframes", "script", "style", "textarea", "title", "xmp");
+        define(BLOCK, "address", "article", "aside", "blockquote", "center", "details", "dialog", "dir", "div", "dl",
+                "dd", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6",
+                "header", "hgroup", "hr", "li", "listing", "main", "menu", "nav", "ol", "p", "pre", "section",
+                "summary", "table", "ul", "xmp");
+        define(SCOPE, "applet", "caption", "html", "marquee", "object", "table", "td", "template", "th");
+        define(SPECIAL, "address", "applet", "area", "article", "aside", "base", "basefont", "bgsound", "blockquote",
+                "body", "br", "button", "caption", "center", "col", "colgroup", "dd", "details", "dir", "div", "dl",
+                "dt", "embed", "fieldset", "figcaption", "figure", "footer", "form", "frame", "frameset", "h1", "h2",
+                "h3", "h4", "h5", "h6", "head", "header", "hgroup", "hr", "html", "iframe", "img", "input", "li",
+                "link", "listing", "main", "marquee", "menu", "meta", "nav", "noembed", "noframes", "noscript",
+                "object", "ol", "p", "param", "plaintext", "pre", "script", "section", "select", "source", "style",
+                "summary", "table", "tbody", "td", "template", "textarea", "tfoot", "th", "thead", "title", "tr",
+                "track", "ul", "wbr", "xmp");
+        define(BUTTON, "button");
+        define(LIST, "ol", "ul");
+        define(TABLE_SCOPE, "html", "table", "template");
+        define(BREAKOUT, "b", "big", "blockquote", "body", "br", "center", "code", "dd", "div", "dl", "dt", "em",
+                "embed", "h1", "h2", "h3", "h4", "h5", "h6", "head", "hr", "i", "img", "li", "listing", "menu",
+                "meta", "nobr", "ol", "p", "pre", "ruby", "s", "small", "span", "strike", "strong", "sub", "sup",
+                "table", "tt", "u", "ul", "var");
+        define(A << ID, "a");
+        define(P << ID, "p");
+        define(DIV << ID, "div");
+        define(UL << ID, "ul");
+        define(LI << ID, "li");
+        define(DD << ID, "dd", "dt");
+        define(H << ID, "h1", "h2", "h3", "h4", "h5", "h6");
+        define(TABLE << ID, "table");
+        define(SECTION << ID, "caption", "colgroup", "tbody", "tfoot", "thead");
+        define(TR << ID, "tr");
+        define(CELL << ID, "td", "th");
+        define(SVG << ID, "svg", "math");
+        define(IGNORED << ID, "body", "head", "html");
+    }
+
+    private Reader in;
+    private final char[] buf = new char[1 << 13];
+    private int pos;
+    private int lim;
+
+    // name of the current tag, lower case, first 16 chars kept
+    private final char[] name = new char[16];
+    private int len;
+    private int hash;
+    private boolean selfClosing;
+    private final StringBuilder href = new StringBuilder();
+    private final StringBuilder cls = new StringBuilder();
+
+    // open elements
+    private int[] hashes = new int[64];
+    private int[] kinds = new int[64];
+    private int depth;
+
+    /**
+     * Report links of {@link #SELECTOR} until the visitor stops
+     *
+     * @param html    parsed article HTML, not closed
+     * @param visitor takes each href, entities decoded, URL encoded as in the
+     *                page, {@code ""} if absent; {@code false} to stop
+     * @return {@code false} if the visitor stopped the scan
+     * @exception IOException reading {@code html} failed
+     */
+    public boolean scan(Reader html, Predicate<String> visitor) throws IOException {
+        in = html;
+        pos = lim = depth = 0;
+        try {
+            int c = read();
+            while (c != -1) {
+                if (c != '<') {
+                    c = text();
+                    continue;
+                }
+                c = read();
+                if (letter(c)) {
+                    if (!startTag(c, visitor)) {
+                        return false;
+                    }
+                    c = read();
+                } else if (c == '/') {
+                    c = read();
+                    if (letter(c)) {
+                        endTag(c);
+                    } else if (c != '>') {
+                        skipTo('>');
+                    }
+                    c = read();
+                } else if (c == '!') {
+                    markup();
+                    c = read();
+                } else if (c == '?') {
+                    skipTo('>');
+                    c = read();
+                }
+                // otherwise a plain '<', c is text
+            }
+            return true;
+        } finally {
+            in = null;
+        }
+    }
+
+    /**
+     * The {@code nth} link followed by {@code filter}
+     *
+     * @param html   parsed article HTML
+     * @param filter links that may be followed
+     * @param nth    index among followed links, from 0
+     * @return title of the link, URL decoded, underscores as spaces, {@code ""}
+     *     if there are fewer accepted links
+     */
+    public String nth(String html, LinkFilter filter, int nth) {
+        try {
+            return nth(new StringReader(html), filter, nth);
+        } catch (IOException e) {
+            // strings don't fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@link #nth(String, LinkFilter, int)} reading only as far as the link
+     *
+     * @exception IOException reading {@code html} failed
+     */
+    public String nth(Reader html, LinkFilter filter, int nth) throws IOException {
+        String[] res = { "" };
+        int[] left = { nth };
+        scan(html, h -> {
+            String title = filter.title(h);
+            if (title == null || left[0]-- > 0) {
+                return true;
+            }
+            res[0] = title;
+            return false;
+        });
+        return res[0];
+    }
+
+    /**
+     * @param href value of an href attribute
+     * @return URL decoded, underscores as spaces, {@code null} if malformed
+     */
+    public static String title(String href) {
+        try {
+            return URLDecoder.decode(href, StandardCharsets.UTF_8).replace('_', ' ');
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tag opened, {@code c} is the first letter of its name
+     *
+     * @return {@code false} if the visitor stopped the scan
+     */
+    private boolean startTag(int c, Predicate<String> visitor) throws IOException {
+        c = name(c);
+        int kind = kind();
+        if (!attributes(c, kind >>> ID == A, kind >>> ID == DIV)) {
+            return true; // end of input inside the tag, dropped
+        }
+
+        if (depth > 0 && (kinds[depth - 1] & FOREIGN) != 0) {
+            if ((kind & BREAKOUT) == 0) {
+                push(FOREIGN);
+                if (selfClosing) {
+                    --depth;
+                }
+                return true;
+            }
+            while (depth > 0 && (kinds[depth - 1] & FOREIGN) != 0) {
+                --depth;
+            }
+        }
+
+        int id = kind >>> ID;
+        int i;
+        switch (id) {
+            case IGNORED:
+                return true;
+            case SVG:
+                if (!selfClosing) {
+                    push(FOREIGN);
+                }
+                return true;
+            case LI:
+                // close the open list item, unless inside a nested block
+                for (i = depth - 1; i >= 0; --i) {
+                    int k = kinds[i] >>> ID;
+                    if (k == LI) {
+                        depth = i;
+                        break;
+                    }
+                    if ((kinds[i] & SPECIAL) != 0 && k != DIV && k != P) {
+                        break;
+                    }
+                }
+                break;
+            case DD:
+                for (i = depth - 1; i >= 0; --i) {
+                    int k = kinds[i] >>> ID;
+                    if (k == DD) {
+                        depth = i;
+                        break;
+                    }
+                    if ((kinds[i] & SPECIAL) != 0 && k != DIV && k != P) {
+                        break;
+                    }
+                }
+                break;
+            case CELL:
+                if (find(TABLE << ID, -1, 0) < 0) {
+                    return true;
+                }
+                for (i = depth - 1; i >= 0; --i) {
+                    int k = kinds[i] >>> ID;
+                    if (k == CELL) {
+                        depth = i;
+                        break;
+                    }
+                    if (k == TR || k == SECTION || k == TABLE) {
+                        break;
+                    }
+                }
+                break;
+            case TR:
+                if (find(TABLE << ID, -1, 0) < 0) {
+                    return true;
+                }
+                for (i = depth - 1; i >= 0; --i) {
+                    int k = kinds[i] >>> ID;
+                    if (k == CELL) {
+                        depth = i;
+                    } else if (k == TR) {
+                        depth = i;
+                        break;
+                    } else if (k == SECTION || k == TABLE) {
+                        break;
+                    }
+                }
+                break;
+            case SECTION:
+                i = find(TABLE << ID, -1, 0);
+                if (i < 0) {
+                    return true;
+                }
+                depth = i + 1;
+                break;
+            default:
+                break;
+        }
+
+        if ((kind & BLOCK) != 0) {
+            i = find(P << ID, -1, SCOPE | BUTTON);
+            if (i >= 0) {
+                depth = i;
+            }
+        }
+        if (id == H && depth > 0 && kinds[depth - 1] >>> ID == H) {
+            --depth;
+        }
+        if ((kind & RAW) != 0) {
+            skipRaw();
+            return true;
+        }
+        if ((kind & VOID) != 0) {
+            return true;
+        }
+        if (id == A) {
+            // an open anchor is closed first
+            i = find(A << ID, -1, SCOPE);
+            if (i >= 0) {
+                depth = i;
+            }
+            boolean selected = selected();
+            push(kind);
+            return !selected || visitor.test(href.indexOf("&") < 0 ? href.toString() : unescape(href));
+        }
+        push(id == DIV && hasToken(cls, OUTPUT_CLASS) ? kind | OUTPUT : kind);
+        return true;
+    }
+
+    /**
+     * Tag closed, {@code c} is the first letter of its name
+     */
+    private void endTag(int c) throws IOException {
+        c = name(c);
+        if (!attributes(c, false, false)) {
+            return;
+        }
+        for (int i = depth - 1; i >= 0 && (kinds[i] & FOREIGN) != 0; --i) {
+            if (hashes[i] == hash) {
+                depth = i;
+                return;
+            }
+        }
+
+        int kind = kind();
+        int i;
+        switch (kind >>> ID) {
+            case IGNORED:
+                return;
+            case P:
+                i = find(0, hash, SCOPE | BUTTON);
+                break;
+            case LI:
+                i = find(0, hash, SCOPE | LIST);
+                break;
+            case H:
+                i = find(H << ID, -1, SCOPE);
+                break;
+            case TABLE:
+            case SECTION:
+            case TR:
+            case CELL:
+                i = find(0, hash, TABLE_SCOPE);
+                break;
+            default:
+                i = find(0, hash, (kind & SPECIAL) != 0 ? SCOPE : SPECIAL);
+                break;
+        }
+        if (i >= 0) {
+            depth = i;
+        }
+    }
+
+    /**
+     * Anchor about to be opened matches {@link #SELECTOR}
+     */
+    private boolean selected() {
+        int t = depth - 1;
+        if (t >= 2 && kinds[t] >>> ID == P) {
+            return kinds[t - 1] >>> ID == DIV && (kinds[t - 2] & OUTPUT) != 0;
+        }
+        return t >= 3 && kinds[t] >>> ID == LI && kinds[t - 1] >>> ID == UL && kinds[t - 2] >>> ID == DIV
+                && (kinds[t - 3] & OUTPUT) != 0;
+    }
+
+    /**
+     * Nearest open element of an id, or of a name hash if {@code id} is 0
+     *
+     * @param stop kinds that end the search
+     * @return index in the stack, -1 if not open or behind a stop
+     */
+    private int find(int id, int hash, int stop) {
+        for (int i = depth - 1; i >= 0; --i) {
+            int k = kinds[i];
+            if (id != 0 ? (k & -(1 << ID)) == id : hashes[i] == hash) {
+                return i;
+            }
+            if ((k & stop) != 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private void push(int kind) {
+        if (depth == kinds.length) {
+            kinds = Arrays.copyOf(kinds, depth * 2);
+            hashes = Arrays.copyOf(hashes, depth * 2);
+        }
+        kinds[depth] = kind;
+        hashes[depth++] = hash;
+    }
+
+    /**
+     * Read a tag name, lower case
+     *
+     * @return char after the name
+     */
+    private int name(int c) throws IOException {
+        int h = 0;
+        int n = 0;
+        do {
+            char l = lower(c);
+            h = 31 * h + l;
+            if (n < name.length) {
+                name[n] = l;
+            }
+            ++n;
+            c = read();
+        } while (c != -1 && !space(c) && c != '/' && c != '>');
+        hash = h;
+        len = n;
+        return c;
+    }
+
+    /**
+     * Read attributes up to the end of the tag, keep href and class if asked,
+     *     the last of duplicates as Jsoup does
+     *
+     * @return {@code false} if the input ended inside the tag
+     */
+    private boolean attributes(int c, boolean keepHref, boolean keepClass) throws IOException {
+        selfClosing = false;
+        href.setLength(0);
+        cls.setLength(0);
+        while (true) {
+            while (space(c)) {
+                c = read();
+            }
+            if (c == -1) {
+                return false;
+            }
+            if (c == '>') {
+                return true;
+            }
+            if (c == '/') {
+                c = read();
+                if (c == '>') {
+                    selfClosing = true;
+                    return true;
+                }
+                continue;
+            }
+
+            // attribute name, a leading '=' belongs to it
+            int n = 0;
+            boolean isHref = true;
+            boolean isClass = true;
+            do {
+                char l = lower(c);
+                isHref = isHref && n < 4 && l == "href".charAt(n);
+                isClass = isClass && n < 5 && l == "class".charAt(n);
+                ++n;
+                c = read();
+            } while (c != -1 && !space(c) && c != '/' && c != '>' && c != '=');
+            StringBuilder value = null;
+            if (isHref && n == 4 && keepHref) {
+                value = href;
+            } else if (isClass && n == 5 && keepClass) {
+                value = cls;
+            }
+            if (value != null) {
+                value.setLength(0);
+            }
+
+            while (space(c)) {
+                c = read();
+            }
+            if (c != '=') {
+                continue;
+            }
+            c = read();
+            while (space(c)) {
+                c = read();
+            }
+            if (c == '"' || c == '\'') {
+                int quote = c;
+                while ((c = read()) != quote) {
+                    if (c == -1) {
+                        return false;
+                    }
+                    if (value != null) {
+                        value.append((char) c);
+                    }
+                }
+                c = read();
+            } else {
+                while (c != -1 && !space(c) && c != '>') {
+                    if (value != null) {
+                        value.append((char) c);
+                    }
+                    c = read();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return kind of the current tag name
+     */
+    private int kind() {
+        if (len > name.length) {
+            return 0;
+        }
+        for (int i = slot(hash);; i = (i + 1) & (NAMES.length - 1)) {
+            String n = NAMES[i];
+            if (n == null) {
+                return 0;
+            }
+            if (n.length() == len && n.hashCode() == hash) {
+                int j = 0;
+                while (j < len && n.charAt(j) == name[j]) {
+                    ++j;
+                }
+                if (j == len) {
+                    return KINDS[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Skip text, read the next '<'
+     */
+    private int text() throws IOException {
+        while (true) {
+            while (pos < lim) {
+                if (buf[pos++] == '<') {
+                    return '<';
+                }
+            }
+            if (read() == -1) {
+                return -1;
+            }
+            --pos;
+        }
+    }
+
+    /**
+     * Skip the content of a raw text element up to its end tag
+     */
+    private void skipRaw() throws IOException {
+        int h0 = hash;
+        int n0 = len;
+        int c = read();
+        while (c != -1) {
+            if (c != '<') {
+                c = read();
+                continue;
+            }
+            c = read();
+            if (c != '/') {
+                continue;
+            }
+            int h = 0;
+            int n = 0;
+            c = read();
+            while (letter(c) || c >= '0' && c <= '9') {
+                h = 31 * h + lower(c);
+                ++n;
+                c = read();
+            }
+            if (n == n0 && h == h0 && (space(c) || c == '/' || c == '>')) {
+                if (c != '>') {
+                    skipTo('>');
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * After "<!", skip a comment, doctype or CDATA section
+     */
+    private void markup() throws IOException {
+        int c = read();
+        if (c != '-') {
+            if (c != '>') {
+                skipTo('>');
+            }
+            return;
+        }
+        c = read();
+        if (c != '-') {
+            if (c != '>') {
+                skipTo('>');
+            }
+            return;
+        }
+        // comment, "<!-->" and "<!--->" end at once
+        int dashes = 2;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipTo(char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != end && c != -1);
+    }
+
+    private int read() throws IOException {
+        if (pos == lim) {
+            pos = 0;
+            lim = in.read(buf, 0, buf.length);
+            if (lim <= 0) {
+                lim = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    /**
+     * @return {@code value} with character references decoded
+     */
+    static String unescape(CharSequence value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        int n = value.length();
+        for (int i = 0; i < n; ++i) {
+            char c = value.charAt(i);
+            if (c != '&' || i + 2 >= n) {
+                sb.append(c);
+                continue;
+            }
+            int j = i + 1;
+            if (value.charAt(j) == '#') {
+                int radix = 10;
+                ++j;
+                if (j < n && (value.charAt(j) | 0x20) == 'x') {
+                    radix = 16;
+                    ++j;
+                }
+                int begin = j;
+                long cp = 0;
+                while (j < n && Character.digit(value.charAt(j), radix) >= 0) {
+                    cp = Math.min(cp * radix + Character.digit(value.charAt(j), radix), 0x110000);
+                    ++j;
+                }
+                if (j == begin) {
+                    sb.append(c);
+                    continue;
+                }
+                sb.appendCodePoint(cp == 0 || cp > Character.MAX_CODE_POINT ? 0xFFFD : (int) cp);
+            } else {
+                while (j < n && Character.isLetterOrDigit(value.charAt(j))) {
+                    ++j;
+                }
+                String ref = value.subSequence(i + 1, j).toString();
+                boolean semi = j < n && value.charAt(j) == ';';
+                char next = j < n ? value.charAt(j) : ' ';
+                String ch = entity(ref);
+                if (ch == null || !semi && (ref.length() > 4 || next == '=' || Character.isLetterOrDigit(next))) {
+                    sb.append(c);
+                    continue;
+                }
+                sb.append(ch);
+            }
+            if (j < n && value.charAt(j) == ';') {
+                ++j;
+            }
+            i = j - 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Named references MediaWiki writes into attributes
+     */
+    private static String entity(String ref) {
+        switch (ref) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return "\u00A0";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return whitespace separated {@code list} contains {@code token}, ASCII
+     *     case ignored
+     */
+    private static boolean hasToken(CharSequence list, String token) {
+        int n = list.length();
+        int t = token.length();
+        for (int i = 0; i + t <= n; ++i) {
+            if ((i == 0 || space(list.charAt(i - 1))) && (i + t == n || space(list.charAt(i + t)))) {
+                int j = 0;
+                while (j < t && lower(list.charAt(i + j)) == token.charAt(j)) {
+                    ++j;
+                }
+                if (j == t) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void define(int kind, String... names) {
+        for (String n : names) {
+            int i = slot(n.hashCode());
+            while (NAMES[i] != null && !NAMES[i].equals(n)) {
+                i = (i + 1) & (NAMES.length - 1);
+            }
+            NAMES[i] = n;
+            KINDS[i] |= kind;
+        }
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ hash >>> 16) & (NAMES.length - 1);
+    }
+
+    private static boolean letter(int c) {
+        return (c | 0x20) >= 'a' && (c | 0x20) <= 'z';
+    }
+
+    private static boolean space(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static char lower(int c) {
+        return (char) (c >= 'A' && c <= 'Z' ? c + 32 : c);
+    }
+}
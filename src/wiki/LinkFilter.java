@@ -0,0 +1,361 @@
+package wiki;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safed, immutable
+ *
+ * Include and exclude rules of followed links, compiled once. A title is
+ *     followed if it matches an include rule, or there are none, and no
+ *     exclude rule. Rules are regular expressions matching the whole title,
+ *     as {@link String#matches(String)}.
+ *
+ * Rules made of literals, {@code .} and the quantifiers {@code ? * +}, lazy
+ *     or not, are merged into one DFA. The DFA runs over the href as it is
+ *     decoded: '_' and '+' read as a space, {@link URLDecoder} is only called
+ *     from the first '%' on, or for a link that is followed. A state from
+ *     which no include rule can match anymore, or every continuation matches
+ *     an exclude rule, rejects at once, so most links are rejected after
+ *     their first characters, before any decoding or allocation. Rules
+ *     using other syntax fall back to precompiled {@link Pattern}s.
+ */
+public class LinkFilter {
+    private static final int MAX_STATES = 1 << 12;
+
+    // atoms of a rule, code point or one of
+    private static final int ANY = -1; // '.', all but line terminators
+    private static final int ALL = -2; // everything, stands for missing includes
+    // and how often it repeats
+    private static final int ONE = 0;
+    private static final int OPT = 1;
+    private static final int STAR = 2;
+    private static final int END = 3;
+
+    // DFA state flags
+    private static final byte ACCEPT = 1; // title ending here is followed
+    private static final byte REJECT = 2; // no title going through here is followed
+
+    // line terminators, sorted
+    private static final int[] TERMINATORS = { '\n', '\r', '\u0085', '\u2028', '\u2029' };
+
+    // DFA, null if a rule needs the fallback
+    private int[] next; // state * classes + class -> state
+    private byte[] flags;
+    private int classes;
+    private int[] ascii; // code point -> class, 0 for the rest
+    private int[] wide; // sorted code points above ASCII with a class of their own
+    private int[] wideClass;
+
+    // fallback
+    private Pattern[] includes; // null if everything included
+    private Pattern[] excludes;
+
+    /**
+     * @param include titles followed, {@code null} for all
+     * @param exclude titles not followed, {@code null} for none
+     * @exception java.util.regex.PatternSyntaxException invalid rule
+     */
+    public LinkFilter(String[] include, String[] exclude) {
+        includes = include == null ? null : compile(include);
+        excludes = exclude == null ? new Pattern[0] : compile(exclude);
+
+        ArrayList<int[]> rules = new ArrayList<int[]>();
+        int included = 0;
+        for (String rule : include == null ? new String[] { null } : include) {
+            int[] atoms = rule == null ? new int[] { ALL, STAR } : parse(rule);
+            if (atoms == null) {
+                return;
+            }
+            rules.add(atoms);
+            ++included;
+        }
+        for (String rule : exclude == null ? new String[0] : exclude) {
+            int[] atoms = parse(rule);
+            if (atoms == null) {
+                return;
+            }
+            rules.add(atoms);
+        }
+        build(rules, included);
+    }
+
+    /**
+     * @param href href of a link, URL encoded
+     * @return title of the link, URL decoded, underscores as spaces, if it is
+     *     followed, {@code null} if not or if {@code href} is malformed
+     */
+    public String title(String href) {
+        if (next == null) {
+            String title = LinkExtractor.title(href);
+            return title != null && accept(title) ? title : null;
+        }
+        int s = 0;
+        int n = href.length();
+        for (int i = 0; i < n;) {
+            int cp = href.codePointAt(i);
+            if (cp == '%') {
+                String title = LinkExtractor.title(href);
+                // chars before the first '%' decode to themselves
+                return title != null && run(title, i, s) ? title : null;
+            }
+            i += Character.charCount(cp);
+            s = next[s * classes + cls(cp == '_' || cp == '+' ? ' ' : cp)];
+            if ((flags[s] & REJECT) != 0) {
+                return null;
+            }
+        }
+        return (flags[s] & ACCEPT) != 0 ? LinkExtractor.title(href) : null;
+    }
+
+    /**
+     * @param title decoded title
+     * @return {@code title} is followed
+     */
+    public boolean accept(String title) {
+        if (next != null) {
+            return run(title, 0, 0);
+        }
+        boolean included = includes == null;
+        for (int i = 0; !included && i < includes.length; ++i) {
+            included = includes[i].matcher(title).matches();
+        }
+        for (int i = 0; included && i < excludes.length; ++i) {
+            included = !excludes[i].matcher(title).matches();
+        }
+        return included;
+    }
+
+    /**
+     * @return rules run as one DFA, none needed the fallback
+     */
+    boolean compiled() {
+        return next != null;
+    }
+
+    /**
+     * Run the DFA over {@code title} from index {@code from}, in state {@code s}
+     */
+    private boolean run(String title, int from, int s) {
+        int n = title.length();
+        for (int i = from; i < n;) {
+            int cp = title.codePointAt(i);
+            i += Character.charCount(cp);
+            s = next[s * classes + cls(cp)];
+            if ((flags[s] & REJECT) != 0) {
+                return false;
+            }
+        }
+        return (flags[s] & ACCEPT) != 0;
+    }
+
+    private int cls(int cp) {
+        if (cp < 128) {
+            return ascii[cp];
+        }
+        int i = Arrays.binarySearch(wide, cp);
+        return i < 0 ? 0 : wideClass[i];
+    }
+
+    /**
+     * @return atoms of {@code rule} as (code point, repeat) pairs, {@code null}
+     *     if it uses more than literals, '.' and quantifiers
+     */
+    private static int[] parse(String rule) {
+        int[] atoms = new int[rule.length() * 4];
+        int k = 0;
+        int n = rule.length();
+        for (int i = 0; i < n;) {
+            int cp = rule.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp == '\\') {
+                if (i == n) {
+                    return null;
+                }
+                cp = rule.codePointAt(i);
+                i += Character.charCount(cp);
+                if (Character.isLetterOrDigit(cp)) {
+                    return null; // classes, anchors, back references, quoting
+                }
+            } else if (cp == '.') {
+                cp = ANY;
+            } else if ("[](){}|^$*+?".indexOf(cp) >= 0) {
+                return null;
+            }
+
+            int repeat = ONE;
+            if (i < n && "?*+".indexOf(rule.charAt(i)) >= 0) {
+                char q = rule.charAt(i++);
+                if (i < n && rule.charAt(i) == '+') {
+                    return null; // possessive
+                }
+                if (i < n && rule.charAt(i) == '?') {
+                    ++i; // lazy, same whole match
+                }
+                if (q == '+') {
+                    atoms[k++] = cp;
+                    atoms[k++] = ONE;
+                }
+                repeat = q == '?' ? OPT : STAR;
+            }
+            atoms[k++] = cp;
+            atoms[k++] = repeat;
+        }
+        return Arrays.copyOf(atoms, k);
+    }
+
+    /**
+     * Subset construction over the NFA of all rules, the first
+     *     {@code included} of them include rules. Leaves the DFA unset if it
+     *     grows over {@link #MAX_STATES}.
+     */
+    private void build(ArrayList<int[]> rules, int included) {
+        // NFA: one state per atom, a state past the last atom of each rule
+        int size = 0;
+        for (int[] atoms : rules) {
+            size += atoms.length / 2 + 1;
+        }
+        int[] cps = new int[size];
+        int[] repeats = new int[size];
+        boolean[] include = new boolean[size];
+        BitSet start = new BitSet(size);
+        TreeSet<Integer> literals = new TreeSet<Integer>();
+        for (int t : TERMINATORS) {
+            literals.add(t);
+        }
+        int s = 0;
+        for (int r = 0; r < rules.size(); ++r) {
+            int[] atoms = rules.get(r);
+            start.set(s);
+            for (int j = 0; j <= atoms.length; j += 2, ++s) {
+                cps[s] = j < atoms.length ? atoms[j] : 0;
+                repeats[s] = j < atoms.length ? atoms[j + 1] : END;
+                include[s] = r < included;
+                if (j < atoms.length && atoms[j] >= 0) {
+                    literals.add(atoms[j]);
+                }
+            }
+        }
+
+        // input classes, one per literal, 0 for the rest
+        classes = literals.size() + 1;
+        ascii = new int[128];
+        wide = new int[classes];
+        wideClass = new int[classes];
+        int[] sample = new int[classes];
+        int w = 0;
+        int c = 1;
+        for (int cp : literals) {
+            sample[c] = cp;
+            if (cp < 128) {
+                ascii[cp] = c;
+            } else {
+                wide[w] = cp;
+                wideClass[w++] = c;
+            }
+            ++c;
+        }
+        wide = Arrays.copyOf(wide, w);
+        wideClass = Arrays.copyOf(wideClass, w);
+        sample[0] = 0xE000;
+        while (literals.contains(sample[0])) {
+            ++sample[0];
+        }
+
+        HashMap<BitSet, Integer> ids = new HashMap<BitSet, Integer>();
+        ArrayList<BitSet> states = new ArrayList<BitSet>();
+        int[] table = new int[classes * 16];
+        closure(start, repeats);
+        ids.put(start, 0);
+        states.add(start);
+        for (int i = 0; i < states.size(); ++i) {
+            BitSet from = states.get(i);
+            for (c = 0; c < classes; ++c) {
+                BitSet to = new BitSet(size);
+                for (int q = from.nextSetBit(0); q >= 0; q = from.nextSetBit(q + 1)) {
+                    int cp = cps[q];
+                    if (repeats[q] == END || !(cp == ALL || cp == sample[c]
+                            || cp == ANY && Arrays.binarySearch(TERMINATORS, sample[c]) < 0)) {
+                        continue;
+                    }
+                    to.set(repeats[q] == STAR ? q : q + 1);
+                }
+                closure(to, repeats);
+                Integer id = ids.get(to);
+                if (id == null) {
+                    if (states.size() == MAX_STATES) {
+                        return; // fallback
+                    }
+                    id = states.size();
+                    ids.put(to, id);
+                    states.add(to);
+                }
+                if (i * classes + c >= table.length) {
+                    table = Arrays.copyOf(table, table.length * 2);
+                }
+                table[i * classes + c] = id;
+            }
+        }
+
+        int count = states.size();
+        boolean[] matchIn = new boolean[count];
+        boolean[] matchEx = new boolean[count];
+        for (int i = 0; i < count; ++i) {
+            BitSet set = states.get(i);
+            for (int q = set.nextSetBit(0); q >= 0; q = set.nextSetBit(q + 1)) {
+                if (repeats[q] == END) {
+                    matchIn[i] |= include[q];
+                    matchEx[i] |= !include[q];
+                }
+            }
+        }
+        // reaches an include match, least fixpoint; always excluded, greatest
+        boolean[] live = matchIn.clone();
+        boolean[] doomed = matchEx.clone();
+        for (boolean changed = true; changed;) {
+            changed = false;
+            for (int i = 0; i < count; ++i) {
+                boolean l = live[i];
+                boolean d = doomed[i];
+                for (c = 0; c < classes; ++c) {
+                    int t = table[i * classes + c];
+                    l |= live[t];
+                    d &= doomed[t];
+                }
+                changed |= l != live[i] || d != doomed[i];
+                live[i] = l;
+                doomed[i] = d;
+            }
+        }
+
+        flags = new byte[count];
+        for (int i = 0; i < count; ++i) {
+            flags[i] = (byte) ((matchIn[i] && !matchEx[i] ? ACCEPT : 0) | (!live[i] || doomed[i] ? REJECT : 0));
+        }
+        next = Arrays.copyOf(table, count * classes);
+    }
+
+    /**
+     * Add states reached without input, skipping optional atoms
+     */
+    private static void closure(BitSet set, int[] repeats) {
+        for (int q = set.nextSetBit(0); q >= 0; q = set.nextSetBit(q + 1)) {
+            if (repeats[q] == OPT || repeats[q] == STAR) {
+                set.set(q + 1);
+            }
+        }
+    }
+
+    private static Pattern[] compile(String[] rules) {
+        Pattern[] res = new Pattern[rules.length];
+        for (int i = 0; i < rules.length; ++i) {
+            res[i] = Pattern.compile(rules[i]);
+        }
+        return res;
+    }
+}
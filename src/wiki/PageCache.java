@@ -0,0 +1,459 @@
+package wiki;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Thread-safed
+ *
+ * Persistent cache of responses, keyed by language and normalized title
+ *
+ * Bodies are stored gzip compressed, as the server sent them, and addressed by
+ *     their SHA-256: byte-identical bodies stored under several titles share
+ *     one copy. Parse responses of a redirect and of its target differ, the
+ *     former lists the redirect, so they are stored apart. Records are
+ *     appended to segment files, big-endian:
+ *     blob     'B', digest (32 bytes), length (int), bytes
+ *     key      'K', stored at (long, ms), digest (32 bytes), length (short),
+ *              "lang:Title" (UTF-8)
+ *
+ * The index, key -> digest -> segment and offset, lives in memory, rebuilt by
+ *     scanning the segments when the cache is opened; a torn record at the
+ *     end of a segment, left by a crash, is cut off. Readers read at an offset
+ *     without locks, one writer appends. A segment closed by the interrupt of
+ *     a reader or writer is reopened, the interrupted call fails. Beyond the size bound whole segments
+ *     are dropped, oldest first; entries older than the TTL are misses.
+ */
+public class PageCache implements Closeable {
+    private static final byte BLOB = 'B';
+    private static final byte KEY = 'K';
+    private static final int DIGEST = 32;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private volatile long ttl;
+
+    // digest, time stored of a key
+    private static class Entry {
+        final Digest digest;
+        final long time;
+
+        Entry(Digest digest, long time) {
+            this.digest = digest;
+            this.time = time;
+        }
+    }
+
+    // segment and offset of a blob's bytes
+    private static class Location {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Digest {
+        final byte[] bytes;
+        final int hash;
+
+        Digest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Digest && Arrays.equals(bytes, ((Digest) o).bytes);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> keys = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<Digest, Location> blobs = new ConcurrentHashMap<Digest, Location>();
+    private final ConcurrentSkipListMap<Integer, FileChannel> segments = new ConcurrentSkipListMap<Integer, FileChannel>();
+
+    // writer state, guarded by this
+    private int current; // segment appended to
+    private long bytes; // on disk, all segments
+    private boolean closed;
+
+    /**
+     * Open the cache in {@code dir}, created if missing
+     *
+     * @param dir      directory of the segments, one cache per directory
+     * @param maxBytes size bound of the segments, at least a few segments
+     *                 worth is kept
+     * @param ttl      milliseconds an entry stays valid, 0 for ever
+     * @exception IOException directory can't be read or created
+     */
+    public PageCache(Path dir, long maxBytes, long ttl) throws IOException {
+        if (maxBytes <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("size must be positive, TTL not negative");
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(1 << 16, maxBytes / 8);
+        this.ttl = ttl;
+        Files.createDirectories(dir);
+
+        TreeMap<Integer, Path> files = new TreeMap<Integer, Path>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    files.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), p);
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        for (Map.Entry<Integer, Path> e : files.entrySet()) {
+            FileChannel ch = FileChannel.open(e.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(e.getKey(), ch);
+            bytes += scan(e.getKey(), ch);
+            current = e.getKey();
+        }
+        if (segments.isEmpty()) {
+            roll();
+        }
+    }
+
+    /**
+     * @param ttl milliseconds an entry stays valid, 0 for ever
+     */
+    public void setTTL(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("TTL must not be negative");
+        }
+        this.ttl = ttl;
+    }
+
+    /**
+     * Cached body, as stored
+     *
+     * @param lang  wiki language code
+     * @param title page title
+     * @return gzip compressed body, {@code null} if missing or expired
+     * @exception IOException reading failed
+     */
+    public byte[] getCompressed(String lang, String title) throws IOException {
+        String key = key(lang, title);
+        Entry e = keys.get(key);
+        if (e == null) {
+            return null;
+        }
+        long ttl = this.ttl;
+        if (ttl > 0 && System.currentTimeMillis() - e.time > ttl) {
+            keys.remove(key, e);
+            return null;
+        }
+        Location loc = blobs.get(e.digest);
+        FileChannel ch = loc == null ? null : segments.get(loc.segment);
+        if (ch == null) {
+            // evicted
+            keys.remove(key, e);
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(loc.length);
+        try {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, loc.offset + buf.position()) < 0) {
+                    throw new EOFException("Cache segment cut short");
+                }
+            }
+        } catch (ClosedByInterruptException ex) {
+            // the interrupt closed the channel for every reader, not just this one
+            reopen(loc.segment, ch, -1);
+            throw ex;
+        } catch (ClosedChannelException ex) {
+            // evicted while reading
+            return null;
+        }
+        return buf.array();
+    }
+
+    /**
+     * @return cached body, inflated while it is read, {@code null} if missing
+     *     or expired
+     * @exception IOException reading failed
+     * @see #getCompressed(String, String)
+     */
+    public InputStream open(String lang, String title) throws IOException {
+        byte[] gz = getCompressed(lang, title);
+        return gz == null ? null : new GZIPInputStream(new ByteArrayInputStream(gz), 1 << 13);
+    }
+
+    /**
+     * Store a body, replaces the entry of the title
+     *
+     * @param lang  wiki language code
+     * @param title page title
+     * @param gz    gzip compressed body
+     * @exception IOException writing failed
+     */
+    public void putCompressed(String lang, String title, byte[] gz) throws IOException {
+        Digest digest = new Digest(sha256(gz));
+        String key = key(lang, title);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Cache closed");
+            }
+            Location loc = blobs.get(digest);
+            if (loc == null || !segments.containsKey(loc.segment)) {
+                ByteBuffer rec = ByteBuffer.allocate(1 + DIGEST + 4 + gz.length);
+                rec.put(BLOB).put(digest.bytes).putInt(gz.length).put(gz).flip();
+                long offset = append(rec);
+                blobs.put(digest, new Location(current, offset + 1 + DIGEST + 4, gz.length));
+            }
+            byte[] k = utf(key);
+            ByteBuffer rec = ByteBuffer.allocate(1 + 8 + DIGEST + 2 + k.length);
+            rec.put(KEY).putLong(now).put(digest.bytes).putShort((short) k.length).put(k).flip();
+            append(rec);
+            keys.put(key, new Entry(digest, now));
+            evict();
+        }
+    }
+
+    /**
+     * Store an uncompressed body
+     *
+     * @see #putCompressed(String, String, byte[])
+     */
+    public void put(String lang, String title, byte[] body) throws IOException {
+        putCompressed(lang, title, gzip(body));
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return bytes of all segments on disk
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (FileChannel ch : segments.values()) {
+            ch.close();
+        }
+        segments.clear();
+        keys.clear();
+        blobs.clear();
+    }
+
+    /**
+     * Title as MediaWiki compares them: underscores as spaces, trimmed, first
+     *     letter upper case
+     */
+    static String key(String lang, String title) {
+        title = title.replace('_', ' ').trim();
+        if (!title.isEmpty()) {
+            int first = title.codePointAt(0);
+            int upper = Character.toUpperCase(first);
+            if (upper != first) {
+                title = new StringBuilder().appendCodePoint(upper).append(title, Character.charCount(first), title.length())
+                        .toString();
+            }
+        }
+        return lang + ':' + title;
+    }
+
+    /**
+     * Append a record to the current segment, rolls over when it's full.
+     *     Caller holds the monitor.
+     *
+     * @return offset of the record
+     */
+    private long append(ByteBuffer rec) throws IOException {
+        FileChannel ch = segments.get(current);
+        long offset = -1;
+        int n = rec.remaining();
+        try {
+            if (ch.size() > 0 && ch.size() + n > segmentBytes) {
+                ch = roll();
+            }
+            offset = ch.size();
+            while (rec.hasRemaining()) {
+                ch.write(rec, offset + n - rec.remaining());
+            }
+        } catch (ClosedByInterruptException e) {
+            // part of the record may be written, cut it
+            reopen(current, ch, offset);
+            throw e;
+        }
+        bytes += n;
+        return offset;
+    }
+
+    /**
+     * Replace a segment channel closed by an interrupt, unless it was evicted
+     *     meanwhile. The caller's interrupt status is kept.
+     *
+     * @param id     segment
+     * @param dead   closed channel of the segment
+     * @param length length to cut the segment to, -1 to keep it
+     */
+    private synchronized void reopen(int id, FileChannel dead, long length) throws IOException {
+        if (closed || segments.get(id) != dead) {
+            // evicted, closed, or reopened by another caller
+            return;
+        }
+        // channel operations of an interrupted thread fail at once
+        boolean interrupted = Thread.interrupted();
+        try {
+            FileChannel ch = FileChannel.open(dir.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX)),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (length >= 0 && ch.size() > length) {
+                ch.truncate(length);
+            }
+            segments.put(id, ch);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Start a new segment. Caller holds the monitor.
+     */
+    private FileChannel roll() throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Path p = dir.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX));
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segments.put(id, ch);
+        current = id;
+        return ch;
+    }
+
+    /**
+     * Drop oldest segments beyond the size bound. Caller holds the monitor.
+     */
+    private void evict() throws IOException {
+        while (bytes > maxBytes && segments.size() > 1) {
+            Map.Entry<Integer, FileChannel> oldest = segments.pollFirstEntry();
+            int id = oldest.getKey();
+            FileChannel ch = oldest.getValue();
+            bytes -= ch.size();
+            ch.close();
+            Files.deleteIfExists(dir.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX)));
+            blobs.values().removeIf(loc -> loc.segment == id);
+            keys.values().removeIf(e -> !blobs.containsKey(e.digest));
+        }
+    }
+
+    /**
+     * Index the records of a segment, cut a torn tail
+     *
+     * @return bytes kept
+     */
+    private long scan(int id, FileChannel ch) throws IOException {
+        long size = ch.size();
+        long offset = 0;
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(ch.position(0)), 1 << 16));
+        try {
+            while (offset < size) {
+                byte type = in.readByte();
+                byte[] digest = new byte[DIGEST];
+                if (type == BLOB) {
+                    in.readFully(digest);
+                    int length = in.readInt();
+                    if (length < 0 || offset + 1 + DIGEST + 4 + length > size) {
+                        break;
+                    }
+                    in.skipNBytes(length);
+                    blobs.put(new Digest(digest), new Location(id, offset + 1 + DIGEST + 4, length));
+                    offset += 1 + DIGEST + 4 + length;
+                } else if (type == KEY) {
+                    long time = in.readLong();
+                    in.readFully(digest);
+                    int length = in.readUnsignedShort();
+                    byte[] k = new byte[length];
+                    in.readFully(k);
+                    keys.put(new String(k, StandardCharsets.UTF_8), new Entry(new Digest(digest), time));
+                    offset += 1 + 8 + DIGEST + 2 + length;
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // torn record
+        }
+        if (offset < size) {
+            ch.truncate(offset);
+        }
+        return offset;
+    }
+
+    private static byte[] utf(String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        return k.length <= 0xFFFF ? k : Arrays.copyOf(k, 0xFFFF);
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out, 1 << 13)) {
+            gz.write(body);
+        } catch (IOException e) {
+            // in memory
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,352 @@
+package wiki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * ! Warnning: not Thread-safed
+ *
+ * Title and HTML of an {@code action=parse} response, read while the body
+ *     streams in. Only {@code parse.title} and {@code parse.text["*"]} (or
+ *     {@code parse.text} of formatversion=2) are pulled out; the HTML is handed
+ *     over as a {@link Reader} decoding the JSON string on the fly, so no
+ *     part of the page is held beyond fixed size buffers, whatever its size.
+ *     Everything else is skipped without being materialized.
+ */
+public class ParseReader {
+    private static final int MAX_TITLE = 1 << 10; // MediaWiki titles are at most 255 bytes
+
+    /**
+     * Takes the HTML of the page, reads as much of it as needed
+     */
+    public interface TextVisitor {
+        void visit(Reader html) throws IOException;
+    }
+
+    private final Reader in;
+    private final char[] buf = new char[1 << 13];
+    private int pos;
+    private int lim;
+    private final StringBuilder str = new StringBuilder();
+
+    /**
+     * @param in response body, UTF-8
+     */
+    public ParseReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param in response body
+     */
+    public ParseReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read up to both fields, stops there without reading the rest of the
+     *     response
+     *
+     * @param title takes {@code parse.title}, {@code null} to skip it
+     * @param text  takes {@code parse.text}, {@code null} to skip it
+     * @return {@code false} if the response has no {@code parse} object, e.g.
+     *     it's an error
+     * @exception IOException reading failed, or not a JSON object
+     */
+    public boolean read(Consumer<String> title, TextVisitor text) throws IOException {
+        boolean parse = false;
+        if (skipSpace() != '{') {
+            throw malformed();
+        }
+        ++pos;
+        while (key()) {
+            if (!"parse".contentEquals(str) || peek() != '{') {
+                skipValue();
+                continue;
+            }
+            ++pos;
+            parse = true;
+            boolean needTitle = title != null;
+            boolean needText = text != null;
+            while ((needTitle || needText) && key()) {
+                if (needTitle && "title".contentEquals(str) && peek() == '"') {
+                    ++pos;
+                    if (string(MAX_TITLE)) {
+                        title.accept(str.toString());
+                    }
+                    needTitle = false;
+                } else if (needText && "text".contentEquals(str) && (peek() == '{' || peek() == '"')) {
+                    needText = false;
+                    if (!text(text, needTitle)) {
+                        return true;
+                    }
+                } else {
+                    skipValue();
+                }
+            }
+            return true;
+        }
+        return parse;
+    }
+
+    /**
+     * Value of {@code parse.text}, either a string or {"*": string}
+     *
+     * @param more members after it are still needed
+     * @return {@code false} if reading stopped inside the value
+     */
+    private boolean text(TextVisitor text, boolean more) throws IOException {
+        if (peek() == '"') {
+            ++pos;
+            return visit(text, more);
+        }
+        ++pos;
+        while (key()) {
+            if (str.length() == 1 && str.charAt(0) == '*' && peek() == '"') {
+                ++pos;
+                if (!visit(text, more)) {
+                    return false;
+                }
+                continue;
+            }
+            skipValue();
+        }
+        return true;
+    }
+
+    /**
+     * Hand the HTML over, skip what the visitor left only if more is needed
+     */
+    private boolean visit(TextVisitor text, boolean more) throws IOException {
+        TextReader html = new TextReader();
+        text.visit(html);
+        if (!more) {
+            return html.done;
+        }
+        html.drain();
+        return true;
+    }
+
+    /**
+     * Next member key of the current object, into {@code str}, and the ':'
+     *
+     * @return {@code false} if the object ended
+     */
+    private boolean key() throws IOException {
+        int c = skipSpace();
+        if (c == ',') {
+            ++pos;
+            c = skipSpace();
+        }
+        if (c == '}') {
+            ++pos;
+            return false;
+        }
+        if (c != '"') {
+            throw malformed();
+        }
+        ++pos;
+        string(MAX_TITLE);
+        if (skipSpace() != ':') {
+            throw malformed();
+        }
+        ++pos;
+        skipSpace();
+        return true;
+    }
+
+    /**
+     * Read a string after its opening quote into {@code str}
+     *
+     * @param max chars kept, the rest is skipped
+     * @return {@code false} if cut
+     */
+    private boolean string(int max) throws IOException {
+        str.setLength(0);
+        boolean whole = true;
+        int c;
+        while ((c = unescaped()) >= 0) {
+            if (str.length() < max) {
+                str.append((char) c);
+            } else {
+                whole = false;
+            }
+        }
+        return whole;
+    }
+
+    /**
+     * Next char of the current string, escapes decoded
+     *
+     * @return the char, -1 at the closing quote
+     */
+    private int unescaped() throws IOException {
+        int c = read();
+        if (c == '"') {
+            return -1;
+        }
+        if (c != '\\') {
+            if (c < 0) {
+                throw malformed();
+            }
+            return c;
+        }
+        c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int v = 0;
+                for (int i = 0; i < 4; ++i) {
+                    int d = Character.digit(read(), 16);
+                    if (d < 0) {
+                        throw malformed();
+                    }
+                    v = v << 4 | d;
+                }
+                return v;
+            default:
+                throw malformed();
+        }
+    }
+
+    /**
+     * Skip the value starting at the next char
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = skipSpace();
+            ++pos;
+            switch (c) {
+                case '{':
+                case '[':
+                    ++depth;
+                    break;
+                case '}':
+                case ']':
+                    --depth;
+                    break;
+                case '"':
+                    while (unescaped() >= 0) {
+                        // skip
+                    }
+                    break;
+                case ',':
+                case ':':
+                    break;
+                case -1:
+                    throw malformed();
+                default:
+                    // number, true, false, null
+                    while (pos < lim || fill()) {
+                        c = buf[pos];
+                        if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                            break;
+                        }
+                        ++pos;
+                    }
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Skip whitespace
+     *
+     * @return next char, not consumed, -1 at the end
+     */
+    private int skipSpace() throws IOException {
+        while (pos < lim || fill()) {
+            char c = buf[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            ++pos;
+        }
+        return -1;
+    }
+
+    private int peek() throws IOException {
+        return pos < lim || fill() ? buf[pos] : -1;
+    }
+
+    private int read() throws IOException {
+        return pos < lim || fill() ? buf[pos++] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        pos = 0;
+        lim = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private IOException malformed() {
+        return new IOException("Malformed parse response");
+    }
+
+    /**
+     * The HTML string, decoded as it is read, ends at its closing quote
+     */
+    private class TextReader extends Reader {
+        private boolean done;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            int n = 0;
+            while (n < len) {
+                // plain run straight from the buffer
+                if (pos < lim) {
+                    char c = buf[pos];
+                    if (c != '"' && c != '\\') {
+                        cbuf[off + n++] = c;
+                        ++pos;
+                        continue;
+                    }
+                }
+                int c = unescaped();
+                if (c < 0) {
+                    done = true;
+                    break;
+                }
+                cbuf[off + n++] = (char) c;
+            }
+            return n == 0 && done ? -1 : n;
+        }
+
+        /**
+         * Skip what the visitor left
+         */
+        void drain() throws IOException {
+            while (!done && unescaped() >= 0) {
+                // skip
+            }
+            done = true;
+        }
+
+        @Override
+        public void close() {
+            // the response is closed by its owner
+        }
+    }
+}
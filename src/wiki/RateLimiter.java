@@ -0,0 +1,237 @@
+package wiki;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safed
+ *
+ * Token bucket of one host, shared by every request to it. Requests start at
+ *     most {@code rate} per second, up to {@code burst} at once after a quiet
+ *     spell, never more than one second of the target rate.
+ *
+ * The rate adapts, additive increase, multiplicative decrease: every request
+ *     answered in time raises it by about one request per second each second,
+ *     up to the target; a response slower than {@link #setSlowLatency(Duration)}
+ *     cuts it by a tenth, a throttled one (HTTP 429, 503, MediaWiki maxlag)
+ *     halves it and stops the bucket for the {@code Retry-After} the server
+ *     asked. At most one cut per second, responses of requests sent together
+ *     count as one signal.
+ */
+public class RateLimiter {
+    /**
+     * Target of a host's shared limiter until set, requests per second
+     */
+    public final static double DEFAULT_RATE = 20;
+
+    private final static double MIN_RATE = 0.1;
+    private final static double SLOW_CUT = 0.9;
+    private final static double THROTTLED_CUT = 0.5;
+    private final static long CUT_GAP = TimeUnit.SECONDS.toNanos(1);
+    private final static Duration MAX_PAUSE = Duration.ofMinutes(2);
+    private final static Duration DEFAULT_PAUSE = Duration.ofSeconds(1);
+
+    private final static int LATENCIES = 256;
+    private final static int MIN_LATENCIES = 32;
+
+    private final static ConcurrentHashMap<String, RateLimiter> HOSTS = new ConcurrentHashMap<String, RateLimiter>();
+
+    // guarded by this
+    private double target;
+    private double rate;
+    private final double maxBurst;
+    private double burst; // maxBurst, at most a second of the target
+    private long slow = TimeUnit.SECONDS.toNanos(5);
+    private long next = System.nanoTime(); // start of the next request, credit if behind now
+    private long lastCut = Long.MIN_VALUE;
+    private long throttled;
+    private final long[] latencies = new long[LATENCIES]; // recent, ring
+    private long answered;
+
+    /**
+     * @param rate  target, requests per second
+     * @param burst requests started at once after a quiet spell, at least 1,
+     *              lowered to one second of the target while that is less
+     * @exception IllegalArgumentException parameters out of range
+     */
+    public RateLimiter(double rate, double burst) {
+        if (!(burst >= 1)) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        this.maxBurst = burst;
+        setTarget(rate);
+        // full bucket
+        this.next -= (long) ((this.burst - 1) * interval());
+    }
+
+    /**
+     * Limiter shared by every {@link WikiAPI} of a host
+     *
+     * @param host host and port, e.g. "en.wikipedia.org"
+     * @return limiter of {@code host}, created at {@link #DEFAULT_RATE}
+     */
+    public static RateLimiter of(String host) {
+        return HOSTS.computeIfAbsent(host, h -> new RateLimiter(DEFAULT_RATE, DEFAULT_RATE));
+    }
+
+    /**
+     * @param rate highest rate, requests per second, the current rate starts
+     *             there again, the burst follows it down to one second of
+     *             requests
+     * @exception IllegalArgumentException below 0.1 or not finite
+     */
+    public synchronized void setTarget(double rate) {
+        if (!(rate >= MIN_RATE) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("rate must be in [" + MIN_RATE + ", infinity)");
+        }
+        this.target = rate;
+        this.rate = rate;
+        this.burst = Math.min(maxBurst, Math.max(1, rate));
+    }
+
+    /**
+     * @return requests started at once after a quiet spell
+     */
+    public synchronized double getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param latency responses slower than this lower the rate
+     */
+    public synchronized void setSlowLatency(Duration latency) {
+        if (latency.isNegative() || latency.isZero()) {
+            throw new IllegalArgumentException("latency must be positive");
+        }
+        this.slow = latency.toNanos();
+    }
+
+    /**
+     * @return current rate, requests per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return throttled responses reported
+     */
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * Wait for a token
+     *
+     * @exception InterruptedException interrupted while waiting, the token is
+     *     spent anyway
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Take a token only if one is available now
+     *
+     * @return {@code true} if taken
+     */
+    public synchronized boolean tryAcquire() {
+        if (next - System.nanoTime() > 0) {
+            return false;
+        }
+        reserve();
+        return true;
+    }
+
+    /**
+     * @return completes once a token is available, at once if one is
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        long wait = reserve();
+        if (wait <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * A request was answered
+     *
+     * @param latency nanoseconds from sending to the response
+     */
+    public synchronized void onResponse(long latency) {
+        latencies[(int) (answered++ % LATENCIES)] = latency;
+        if (latency > slow) {
+            cut(SLOW_CUT);
+        } else {
+            // one request per second per second
+            rate = Math.min(target, rate + 1 / rate);
+        }
+    }
+
+    /**
+     * @param quantile in [0, 1], e.g. 0.95
+     * @return latency of that quantile among recent responses, nanoseconds,
+     *     -1 if too few were seen
+     */
+    public long latency(double quantile) {
+        long[] recent;
+        synchronized (this) {
+            if (answered < MIN_LATENCIES) {
+                return -1;
+            }
+            recent = Arrays.copyOf(latencies, (int) Math.min(answered, LATENCIES));
+        }
+        Arrays.sort(recent);
+        return recent[(int) Math.min(recent.length - 1, Math.max(0, Math.ceil(quantile * recent.length) - 1))];
+    }
+
+    /**
+     * The server asked to slow down
+     *
+     * @param retryAfter pause it asked for, {@code null} if none
+     */
+    public synchronized void onThrottled(Duration retryAfter) {
+        ++throttled;
+        cut(THROTTLED_CUT);
+        Duration pause = retryAfter == null || retryAfter.isNegative() ? DEFAULT_PAUSE : retryAfter;
+        if (pause.compareTo(MAX_PAUSE) > 0) {
+            pause = MAX_PAUSE;
+        }
+        next = Math.max(next, System.nanoTime() + pause.toNanos());
+    }
+
+    /**
+     * Take the next token
+     *
+     * @return nanoseconds until it may be used
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        double interval = interval();
+        // unused tokens, at most a burst
+        long start = Math.max(next, now - (long) ((burst - 1) * interval));
+        next = start + (long) interval;
+        return start - now;
+    }
+
+    private void cut(double factor) {
+        long now = System.nanoTime();
+        if (lastCut != Long.MIN_VALUE && now - lastCut < CUT_GAP) {
+            return;
+        }
+        lastCut = now;
+        rate = Math.max(MIN_RATE, rate * factor);
+    }
+
+    private double interval() {
+        return 1e9 / rate;
+    }
+}
@@ -0,0 +1,246 @@
+package wiki;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Thread-safed
+ *
+ * Canonical titles through batched queries. Titles asked by concurrent callers
+ *     are collected for at most {@code maxWait} milliseconds, or until
+ *     {@code batchSize} distinct titles are pending, then resolved with one
+ *     {@link WikiAPI#queryTitlesAsync(java.util.Collection)} request. Each
+ *     caller gets the result of its own title back.
+ *
+ * Callers that register with {@link #enter()} only wait for each other: once
+ *     every registered caller waits on the batch, it is sent at once.
+ *
+ * A title resolves to the title of the page it leads to, after normalization
+ *     ("science" -> "Science"), language variant conversion and one redirect,
+ *     or to {@code null} if there is no such page.
+ */
+public class TitleResolver {
+    private static ScheduledExecutorService TIMER;
+
+    private final WikiAPI api;
+    private final int batchSize;
+    private final long maxWait;
+
+    // pending titles -> their callers, guarded by this
+    private LinkedHashMap<String, CompletableFuture<String>> pending = new LinkedHashMap<String, CompletableFuture<String>>();
+    private ScheduledFuture<?> timer; // flushes pending, null if none pending
+    private long batches;
+    private int active; // callers registered with enter()
+    private int waiting; // calls waiting on pending
+
+    /**
+     * @param api       API of the wiki
+     * @param batchSize titles per request, at most {@link WikiAPI#MAX_TITLES}
+     * @param maxWait   milliseconds the first title of a batch waits for others
+     * @exception IllegalArgumentException parameters out of range
+     */
+    public TitleResolver(WikiAPI api, int batchSize, long maxWait) {
+        if (batchSize < 1 || batchSize > WikiAPI.MAX_TITLES) {
+            throw new IllegalArgumentException("batch size must be in [1, " + WikiAPI.MAX_TITLES + "]");
+        }
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("wait must not be negative");
+        }
+        this.api = api;
+        this.batchSize = batchSize;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param title title, as linked
+     * @return canonical title, {@code null} if the page doesn't exist,
+     *     completes exceptionally if the query failed
+     */
+    public CompletableFuture<String> resolveAsync(String title) {
+        CompletableFuture<String> res;
+        LinkedHashMap<String, CompletableFuture<String>> full = null;
+        synchronized (this) {
+            res = pending.get(title);
+            if (res == null) {
+                res = new CompletableFuture<String>();
+                pending.put(title, res);
+            }
+            ++waiting;
+            if (pending.size() >= batchSize || active > 0 && waiting >= active) {
+                full = take();
+            } else if (timer == null) {
+                timer = timer().schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return res;
+    }
+
+    /**
+     * A caller, e.g. a crawler chain, will ask for titles one at a time until
+     *     {@link #leave()}. A batch is sent as soon as every registered caller
+     *     waits on it, instead of after {@code maxWait}.
+     */
+    public synchronized void enter() {
+        ++active;
+    }
+
+    /**
+     * A caller registered with {@link #enter()} asks no more, the batch is
+     *     sent if every caller left waits on it
+     */
+    public void leave() {
+        LinkedHashMap<String, CompletableFuture<String>> full = null;
+        synchronized (this) {
+            --active;
+            if (!pending.isEmpty() && waiting >= active) {
+                full = take();
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Blocking {@link #resolveAsync(String)}
+     *
+     * @param title title, as linked
+     * @return canonical title, {@code null} if the page doesn't exist
+     * @exception IOException query failed
+     * @exception InterruptedException interrupted while waiting
+     */
+    public String resolve(String title) throws IOException, InterruptedException {
+        try {
+            return resolveAsync(title).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of requests sent
+     */
+    public synchronized long batches() {
+        return batches;
+    }
+
+    /**
+     * Send whatever is pending now
+     */
+    public void flush() {
+        LinkedHashMap<String, CompletableFuture<String>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        send(batch);
+    }
+
+    /**
+     * Detach pending titles, caller holds the monitor
+     */
+    private LinkedHashMap<String, CompletableFuture<String>> take() {
+        LinkedHashMap<String, CompletableFuture<String>> res = pending;
+        pending = new LinkedHashMap<String, CompletableFuture<String>>();
+        waiting = 0;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        ++batches;
+        return res;
+    }
+
+    private void send(LinkedHashMap<String, CompletableFuture<String>> batch) {
+        CompletableFuture<String> query;
+        try {
+            query = api.queryTitlesAsync(new ArrayList<String>(batch.keySet()));
+        } catch (RuntimeException e) {
+            batch.values().forEach(f -> f.completeExceptionally(e));
+            return;
+        }
+        query.whenComplete((json, err) -> {
+            if (err == null) {
+                try {
+                    Map<String, String> res = canonical(json, batch.keySet());
+                    batch.forEach((title, f) -> f.complete(res.get(title)));
+                    return;
+                } catch (JSONException e) {
+                    err = e;
+                }
+            }
+            for (CompletableFuture<String> f : batch.values()) {
+                f.completeExceptionally(err);
+            }
+        });
+    }
+
+    /**
+     * Follow each asked title through the {@code normalized}, {@code converted}
+     *     and {@code redirects} lists of a query response to its page
+     *
+     * @param json   response of {@code action=query&formatversion=2}
+     * @param titles asked titles
+     * @return asked title -> page title, {@code null} for missing or invalid pages
+     * @exception JSONException not a query response
+     */
+    static Map<String, String> canonical(String json, Iterable<String> titles) {
+        JSONObject query = new JSONObject(json).getJSONObject("query");
+        HashMap<String, String> step = new HashMap<String, String>();
+        for (String list : new String[] { "normalized", "converted", "redirects" }) {
+            JSONArray arr = query.optJSONArray(list);
+            for (int i = 0; arr != null && i < arr.length(); ++i) {
+                JSONObject o = arr.getJSONObject(i);
+                step.put(list.charAt(0) + o.getString("from"), o.getString("to"));
+            }
+        }
+        HashMap<String, Boolean> pages = new HashMap<String, Boolean>();
+        JSONArray arr = query.optJSONArray("pages");
+        for (int i = 0; arr != null && i < arr.length(); ++i) {
+            JSONObject page = arr.getJSONObject(i);
+            if (page.has("title")) {
+                pages.put(page.getString("title"), !page.optBoolean("missing") && !page.optBoolean("invalid"));
+            }
+        }
+
+        HashMap<String, String> res = new HashMap<String, String>();
+        for (String title : titles) {
+            String t = title;
+            for (char list : new char[] { 'n', 'c', 'r' }) {
+                t = step.getOrDefault(list + t, t);
+            }
+            res.put(title, pages.getOrDefault(t, false) ? t : null);
+        }
+        return res;
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (TIMER == null) {
+            TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "title-resolver");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return TIMER;
+    }
+}
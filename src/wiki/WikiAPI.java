@@ -1,9 +1,63 @@
 package wiki;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * MediaWiki API of one wiki language
+ *
+ * Requests go through a shared {@link HttpClient}, one per connect timeout.
+ *     Connections to a language host are kept alive and reused by every
+ *     {@code WikiAPI} of that host, HTTP/2 multiplexes concurrent requests
+ *     over one connection where the server supports it. Responses are asked
+ *     gzip compressed and inflated while they are read.
+ *
+ * Requests of a host wait for its shared {@link RateLimiter}, which adapts to
+ *     latency and to the server asking to slow down: HTTP 429, 503, or a
+ *     {@code maxlag} error when replication lags more than {@link #MAX_LAG}
+ *     seconds. Those responses are sent again, after the {@code Retry-After}
+ *     they ask for, up to {@link #MAX_THROTTLED} times.
+ *
+ * Tail latency is bounded by a deadline per request, covering retries and a
+ *     streamed body. Network errors and server errors are retried after a
+ *     jittered exponential backoff while the deadline allows. Optionally a
+ *     request still unanswered at a latency quantile of the host is hedged
+ *     with a duplicate. A {@link CircuitBreaker} shared per host fails
+ *     requests at once while the wiki is unhealthy.
+ *
+ * Every query has a blocking form, returning {@code ""} on failure, and an
+ *     asynchronous form completing exceptionally instead.
+ */
 public class WikiAPI {
 
     // public String page;
@@ -12,48 +66,722 @@ public class WikiAPI {
     // public boolean mobileformat;
     // public boolean noimages;
 
-    private final static String TEXT_URL = "https://%s.wikipedia.org/w/api.php?action=parse" + "&format=json"
+    private final static String ENDPOINT = "https://%s.wikipedia.org/w/api.php";
+
+    /**
+     * Seconds of replication lag beyond which the server turns requests away
+     */
+    public final static int MAX_LAG = 5;
+
+    /**
+     * Times a throttled request is sent again
+     */
+    public final static int MAX_THROTTLED = 3;
+
+    private final static String TEXT_URL = "%s?action=parse" + "&format=json" + "&maxlag=" + MAX_LAG
             + "&redirects=1" + "&page=%s" + "&prop=text" + "&mobileformat=1" + "&noimages=1" + "&utf8=1";
 
-    private final static String RAMDOM_URL = "https://%s.wikipedia.org/w/api.php?action=query" + "&format=json"
+    private final static String RAMDOM_URL = "%s?action=query" + "&format=json" + "&maxlag=" + MAX_LAG
             + "&generator=random" + "&grnnamespace=0" + "&grnlimit=%d" + "&utf8=1";
 
+    // POST form, titles resolved in bulk
+    private final static String TITLES_FORM = "action=query" + "&format=json" + "&formatversion=2" + "&maxlag="
+            + MAX_LAG + "&redirects=1" + "&converttitles=1" + "&titles=%s";
+
+    /**
+     * Most titles MediaWiki accepts in one query
+     */
+    public final static int MAX_TITLES = 50;
+
+    private final static String USER_AGENT = "WikiAnalyzer/1.0 (java.net.http)";
+
+    public final static Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public final static Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    public final static int RETRIES = 2;
+    public final static Duration BACKOFF = Duration.ofMillis(250);
+
+    private final static ConcurrentHashMap<Duration, HttpClient> CLIENTS = new ConcurrentHashMap<Duration, HttpClient>();
+    private static ScheduledThreadPoolExecutor TIMER; // deadlines, cancelled once met
 
     // language type
     private String lang;
+    private String endpoint;
+    private HttpClient client;
+    private Duration requestTimeout;
+    private Duration budget; // deadline of a request
+    private int retries = RETRIES;
+    private Duration backoff = BACKOFF;
+    private double hedge; // latency quantile, 0 for no hedging
+    private AtomicLong hedges = new AtomicLong();
+    private RateLimiter limiter;
+    private CircuitBreaker breaker;
+    private PageCache cache; // articles, null if not cached
 
 
+    /**
+     * API of {@code lang}.wikipedia.org, default timeouts
+     *
+     * @param lang wiki language code, e.g. "en"
+     */
     public WikiAPI(String lang) {
+        this(lang, String.format(ENDPOINT, lang), CONNECT_TIMEOUT, REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param lang           wiki language code, e.g. "en"
+     * @param endpoint       URL of api.php, e.g. a local stand-in for tests
+     * @param connectTimeout time to establish a connection
+     * @param requestTimeout time from sending a request until the response
+     *                       headers arrived, twice that is the deadline
+     * @exception IllegalArgumentException a timeout is not positive
+     */
+    public WikiAPI(String lang, String endpoint, Duration connectTimeout, Duration requestTimeout) {
+        if (connectTimeout.isNegative() || connectTimeout.isZero() || requestTimeout.isNegative()
+                || requestTimeout.isZero()) {
+            throw new IllegalArgumentException("timeouts must be positive");
+        }
         this.lang = lang;
+        this.endpoint = endpoint;
+        this.requestTimeout = requestTimeout;
+        this.budget = requestTimeout.multipliedBy(2);
+        this.limiter = RateLimiter.of(URI.create(endpoint).getAuthority());
+        this.breaker = CircuitBreaker.of(URI.create(endpoint).getAuthority());
+        this.client = CLIENTS.computeIfAbsent(connectTimeout, t -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(t)
+                .build());
     }
 
+    /**
+     * Answer article queries from {@code cache} where it can, store fetched
+     *     articles in it
+     *
+     * @param cache page cache, {@code null} for none
+     */
+    public void setCache(PageCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param deadline time a request has to be answered in, retries, hedges
+     *                 and a streamed body included
+     * @exception IllegalArgumentException not positive
+     */
+    public void setDeadline(Duration deadline) {
+        if (deadline.isNegative() || deadline.isZero()) {
+            throw new IllegalArgumentException("deadline must be positive");
+        }
+        this.budget = deadline;
+    }
+
+    /**
+     * Retry network errors and server errors, HTTP 5xx, after a pause drawn
+     *     at random up to {@code backoff} doubled per retry
+     *
+     * @param retries times a request is sent again, 0 for none
+     * @param backoff window of the first pause
+     * @exception IllegalArgumentException parameters out of range
+     */
+    public void setRetries(int retries, Duration backoff) {
+        if (retries < 0 || backoff.isNegative()) {
+            throw new IllegalArgumentException("retries and backoff must not be negative");
+        }
+        this.retries = retries;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Send a duplicate of a request still unanswered at the {@code quantile}
+     *     latency of recent requests to the host, e.g. 0.95 duplicates about
+     *     the slowest 5%, if the limiter has a token to spare
+     *
+     * @param quantile in (0, 1), 0 for no hedging
+     * @exception IllegalArgumentException out of range
+     */
+    public void setHedge(double quantile) {
+        if (!(quantile >= 0 && quantile < 1)) {
+            throw new IllegalArgumentException("quantile must be in [0, 1)");
+        }
+        this.hedge = quantile;
+    }
+
+    /**
+     * @return duplicates sent by hedging
+     */
+    public long hedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @param breaker breaker of this API alone, e.g. with a shorter cool-down,
+     *                instead of the one shared by the host
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = Objects.requireNonNull(breaker);
+    }
+
+    /**
+     * @return breaker of the host, shared with every {@code WikiAPI} of it
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * @return limiter of the host, shared with every {@code WikiAPI} of it
+     */
+    public RateLimiter getRateLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @return wiki language code
+     */
+    public String getLanguage() {
+        return lang;
+    }
+
+    /**
+     * Parsed HTML of an article, redirects followed
+     *
+     * @param title article title
+     * @return JSON response, {@code ""} if query unsuccessful
+     */
     public String queryArticle(String title) {
-        title = title.replace(" ", "_");
-        return urlGet(String.format(TEXT_URL, lang, title), "utf-8");
+        return join(queryArticleAsync(title));
+    }
+
+    /**
+     * {@link #queryArticle(String)} without blocking
+     *
+     * @param title article title
+     * @return JSON response, completes exceptionally if query unsuccessful
+     */
+    public CompletableFuture<String> queryArticleAsync(String title) {
+        if (cache == null) {
+            return getAsync(articleUrl(title));
+        }
+        return articleAsync(title).thenApply(gz -> {
+            try {
+                return read(new GZIPInputStream(new ByteArrayInputStream(gz), 1 << 13));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * {@link #queryArticle(String)} as a stream, handed over once the
+     *     response headers arrived and read while the body arrives, see
+     *     {@link ParseReader}. Caller closes the stream, closing it early
+     *     abandons the rest of the body. With a cache, a hit is read from
+     *     disk; a miss is received whole, compressed, to be stored.
+     *
+     * @param title article title
+     * @return JSON response body, completes exceptionally if query
+     *     unsuccessful
+     */
+    public CompletableFuture<InputStream> openArticleAsync(String title) {
+        if (cache == null) {
+            return openAsync(articleUrl(title));
+        }
+        return articleAsync(title).thenApply(gz -> {
+            try {
+                return new GZIPInputStream(new ByteArrayInputStream(gz), 1 << 13);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Compressed article, from the cache or fetched and stored. API errors
+     *     are handed over but not stored. A failing cache is passed by.
+     */
+    private CompletableFuture<byte[]> articleAsync(String title) {
+        try {
+            byte[] gz = cache.getCompressed(lang, title);
+            if (gz != null) {
+                return CompletableFuture.completedFuture(gz);
+            }
+        } catch (IOException e) {
+            System.err.println("Warnning: Page cache unreadable, " + e.getMessage());
+        }
+        String url = articleUrl(title);
+        HttpRequest request = builder(url).GET().build();
+        return send(request, HttpResponse.BodyHandlers.ofByteArray(), deadline()).thenApply(res -> {
+            try {
+                check(res, url);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            byte[] gz = compressed(res) ? res.body() : PageCache.gzip(res.body());
+            if (apiError(res, gz)) {
+                // e.g. invalid title, answered with 200
+                return gz;
+            }
+            try {
+                cache.putCompressed(lang, title, gz);
+            } catch (IOException e) {
+                System.err.println("Warnning: Page cache unwritable, " + e.getMessage());
+            }
+            return gz;
+        });
     }
 
     /**
      * From Wikipedia, get random articles' title
-     * 
+     *
      * @param count number of title to be query
-     * @return {@code null} if query unsuccessful, an utf-8 formatted
-     *         {@code BufferedReader[]} otherwise
-     * @exception NegativeArraySizeException parameter is negative value
+     * @return JSON response, {@code ""} if query unsuccessful
      */
     public String queryRandomTitle(int count) {
-        return urlGet(String.format(RAMDOM_URL, lang, count), "utf-8");
+        return join(queryRandomTitleAsync(count));
+    }
+
+    /**
+     * {@link #queryRandomTitle(int)} without blocking
+     *
+     * @param count number of title to be query
+     * @return JSON response, completes exceptionally if query unsuccessful
+     */
+    public CompletableFuture<String> queryRandomTitleAsync(int count) {
+        return getAsync(String.format(RAMDOM_URL, endpoint, count));
+    }
+
+    /**
+     * Resolve up to {@link #MAX_TITLES} titles in one request: normalization,
+     *     redirects and language variants. Sent as POST, long title lists are
+     *     not limited by URL length. See {@link TitleResolver} to batch titles
+     *     of concurrent callers.
+     *
+     * @param titles titles to resolve
+     * @return JSON response, completes exceptionally if query unsuccessful
+     * @exception IllegalArgumentException more than {@link #MAX_TITLES} titles
+     */
+    public CompletableFuture<String> queryTitlesAsync(Collection<String> titles) {
+        if (titles.size() > MAX_TITLES) {
+            throw new IllegalArgumentException("at most " + MAX_TITLES + " titles per query");
+        }
+        String form = String.format(TITLES_FORM, URLEncoder.encode(String.join("|", titles), StandardCharsets.UTF_8));
+        HttpRequest request = builder(endpoint)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        return sendAsync(request, endpoint);
+    }
+
+    /**
+     * @param title article title
+     * @return URL of the parse query of {@code title}
+     */
+    String articleUrl(String title) {
+        title = title.replace(" ", "_");
+        return String.format(TEXT_URL, endpoint, URLEncoder.encode(title, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * GET {@code url}, body decoded as UTF-8. The compressed body is received
+     *     without blocking a thread, then inflated in one go.
+     *
+     * @param url request URL
+     * @return body, completes exceptionally with {@link IOException} on
+     *     network errors, timeouts and non 2xx status
+     */
+    CompletableFuture<String> getAsync(String url) {
+        return sendAsync(builder(url).GET().build(), url);
+    }
+
+    private CompletableFuture<String> sendAsync(HttpRequest request, String url) {
+        return send(request, HttpResponse.BodyHandlers.ofByteArray(), deadline()).thenApply(res -> {
+            try {
+                check(res, url);
+                return read(body(res, new ByteArrayInputStream(res.body())));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * GET {@code url} and hand over the body as it arrives, inflated while it
+     *     is read. Caller closes the stream. The deadline holds for the body
+     *     too, a read past it fails with {@link HttpTimeoutException}.
+     *
+     * @param url request URL
+     * @return body stream, completes exceptionally with {@link IOException}
+     *     on network errors, timeouts and non 2xx status
+     */
+    CompletableFuture<InputStream> openAsync(String url) {
+        HttpRequest request = builder(url).GET().build();
+        long deadline = deadline();
+        return send(request, HttpResponse.BodyHandlers.ofInputStream(), deadline).thenApply(res -> {
+            InputStream in = new DeadlineInputStream(res.body(), deadline);
+            try {
+                check(res, url);
+                return body(res, in);
+            } catch (IOException e) {
+                try {
+                    in.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Send within the deadline: once the limiter lets it, again while the
+     *     server throttles it, after a jittered exponential backoff on network
+     *     errors and server errors while retries are left. Not sent at all
+     *     while the circuit of the host is open.
+     *
+     * @param deadline {@link System#nanoTime()} the request has to be
+     *                 answered by
+     * @return last response, completes exceptionally with the last error, or
+     *     {@link HttpTimeoutException} at the deadline
+     */
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+            long deadline) {
+        CompletableFuture<HttpResponse<T>> res = new CompletableFuture<HttpResponse<T>>();
+        ScheduledFuture<?> timeout = timer().schedule(() -> ForkJoinPool.commonPool().execute(
+                () -> res.completeExceptionally(new HttpTimeoutException("Deadline exceeded " + request.uri()))),
+                deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        // answered in time, the timer must not keep the response reachable
+        res.whenComplete((r, e) -> timeout.cancel(false));
+        attempt(request, handler, deadline, res, 0, 0);
+        return res;
+    }
+
+    private <T> void attempt(HttpRequest request, HttpResponse.BodyHandler<T> handler, long deadline,
+            CompletableFuture<HttpResponse<T>> res, int throttles, int failures) {
+        if (res.isDone()) {
+            // out of time
+            return;
+        }
+        if (!breaker.allow()) {
+            res.completeExceptionally(new IOException("Circuit open, " + request.uri().getAuthority() + " unhealthy"));
+            return;
+        }
+        limiter.acquireAsync().thenCompose(v -> hedged(request, handler)).whenComplete((r, e) -> {
+            if (e != null || r.statusCode() >= 500 && !throttled(r)) {
+                breaker.onFailure();
+                long backoff = backoff(failures);
+                if (failures < retries && System.nanoTime() + backoff < deadline) {
+                    if (r != null) {
+                        discard(r);
+                    }
+                    CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS)
+                            .execute(() -> attempt(request, handler, deadline, res, throttles, failures + 1));
+                } else if (e != null) {
+                    res.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                } else {
+                    deliver(res, r);
+                }
+                return;
+            }
+            // every answer settles the breaker, a probe answered 503 included
+            if (r.statusCode() < 500) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+            if (throttled(r)) {
+                limiter.onThrottled(retryAfter(r));
+                if (throttles < MAX_THROTTLED) {
+                    discard(r);
+                    attempt(request, handler, deadline, res, throttles + 1, failures);
+                    return;
+                }
+            }
+            deliver(res, r);
+        });
+    }
+
+    /**
+     * Send, and send a duplicate if no answer came within the hedging
+     *     quantile of recent latencies while the limiter has a token to spare.
+     *     The first answer wins, the other is discarded.
+     *
+     * @return first answer, completes exceptionally if all sent failed
+     */
+    private <T> CompletableFuture<HttpResponse<T>> hedged(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        CompletableFuture<HttpResponse<T>> first = one(request, handler);
+        long after = hedge > 0 ? limiter.latency(hedge) : -1;
+        if (after < 0) {
+            return first;
+        }
+        CompletableFuture<HttpResponse<T>> res = new CompletableFuture<HttpResponse<T>>();
+        AtomicInteger running = new AtomicInteger(1);
+        BiConsumer<HttpResponse<T>, Throwable> settle = (r, e) -> {
+            if (e == null) {
+                deliver(res, r);
+            } else if (running.decrementAndGet() == 0) {
+                res.completeExceptionally(e);
+            }
+        };
+        first.whenComplete(settle);
+        CompletableFuture.delayedExecutor(after, TimeUnit.NANOSECONDS).execute(() -> {
+            if (res.isDone() || !limiter.tryAcquire()) {
+                return;
+            }
+            if (running.getAndIncrement() == 0) {
+                // first failed meanwhile
+                return;
+            }
+            hedges.incrementAndGet();
+            one(request, handler).whenComplete(settle);
+        });
+        return res;
     }
 
-    private String urlGet(String url, String format) {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new URL(url).openStream(), format))) {
-            String line;
-            StringBuilder sb = new StringBuilder();
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
+    /**
+     * Send once, latency of proper answers goes to the limiter
+     */
+    private <T> CompletableFuture<HttpResponse<T>> one(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        long begin = System.nanoTime();
+        return client.sendAsync(request, handler).whenComplete((r, e) -> {
+            if (r != null && r.statusCode() < 500 && !throttled(r)) {
+                limiter.onResponse(System.nanoTime() - begin);
+            }
+        });
+    }
+
+    /**
+     * @return random pause before retry {@code n}, full jitter over an
+     *     exponentially growing window, nanoseconds
+     */
+    private long backoff(int n) {
+        long window = backoff.toNanos() << Math.min(n, 20);
+        return (long) (ThreadLocalRandom.current().nextDouble() * window);
+    }
+
+    /**
+     * Complete {@code res} with {@code r}, or release {@code r} if it's late
+     */
+    private static <T> void deliver(CompletableFuture<HttpResponse<T>> res, HttpResponse<T> r) {
+        if (!res.complete(r)) {
+            discard(r);
+        }
+    }
+
+    /**
+     * @return the server asks to slow down
+     */
+    private static boolean throttled(HttpResponse<?> res) {
+        return res.statusCode() == 429 || res.statusCode() == 503
+                || res.headers().firstValue("MediaWiki-API-Error").map(e -> e.equals("maxlag")).orElse(false);
+    }
+
+    /**
+     * @return pause asked by {@code Retry-After}, seconds or an HTTP date,
+     *     {@code null} if none or malformed
+     */
+    static Duration retryAfter(HttpResponse<?> res) {
+        String value = res.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // HTTP date
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Duration.between(ZonedDateTime.now(at.getZone()), at);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Release the body of a response not read
+     */
+    private static void discard(HttpResponse<?> res) {
+        if (res.body() instanceof InputStream) {
+            try {
+                ((InputStream) res.body()).close();
+            } catch (IOException e) {
+                // abandoned anyway
+            }
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()} a request sent now has to be
+     *     answered by
+     */
+    private long deadline() {
+        return System.nanoTime() + budget.toNanos();
+    }
+
+    private HttpRequest.Builder builder(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Accept-Encoding", "gzip")
+                .header("User-Agent", USER_AGENT);
+    }
+
+    private static void check(HttpResponse<?> res, String url) throws IOException {
+        if (res.statusCode() / 100 != 2) {
+            throw new IOException("HTTP " + res.statusCode() + " " + url);
+        }
+        if (throttled(res)) {
+            throw new IOException("Replication lag beyond " + MAX_LAG + "s " + url);
+        }
+    }
+
+    /**
+     * MediaWiki answers API errors with HTTP 200, flagged by the
+     *     {@code MediaWiki-API-Error} header and an {@code "error"} member, the
+     *     first one of the body
+     *
+     * @param gz body, gzip compressed
+     * @return {@code true} if the response is an error
+     */
+    private static boolean apiError(HttpResponse<?> res, byte[] gz) {
+        if (res.headers().firstValue("MediaWiki-API-Error").isPresent()) {
+            return true;
+        }
+        byte[] head = new byte[32];
+        int n = 0;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gz))) {
+            for (int r; n < head.length && (r = in.read(head, n, head.length - n)) > 0;) {
+                n += r;
+            }
+        } catch (IOException e) {
+            // not gzip, let the reader fail on it
+            return true;
+        }
+        return new String(head, 0, n, StandardCharsets.UTF_8).matches("(?s)\\s*\\{\\s*\"error\"\\s*:.*");
+    }
+
+    /**
+     * @return {@code in}, inflated if the server compressed the body
+     */
+    private static InputStream body(HttpResponse<?> res, InputStream in) throws IOException {
+        return compressed(res) ? new GZIPInputStream(in, 1 << 13) : in;
+    }
+
+    private static boolean compressed(HttpResponse<?> res) {
+        return res.headers().firstValue("Content-Encoding").map(e -> e.equalsIgnoreCase("gzip")).orElse(false);
+    }
+
+    /**
+     * Body stream closed at the deadline, a read blocked on a stalled
+     *     connection fails instead of waiting for ever
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private volatile boolean expired;
+        private final ScheduledFuture<?> timeout;
+
+        DeadlineInputStream(InputStream in, long deadline) {
+            super(in);
+            timeout = timer().schedule(() -> ForkJoinPool.commonPool().execute(() -> {
+                expired = true;
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // abandoned anyway
+                }
+            }), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close() throws IOException {
+            timeout.cancel(false);
+            super.close();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c;
+            try {
+                c = super.read();
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+            if (expired) {
+                // closed under the read
+                throw timeout();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+            if (expired) {
+                throw timeout();
+            }
+            return n;
+        }
+
+        private static HttpTimeoutException timeout() {
+            return new HttpTimeoutException("Deadline exceeded reading the body");
+        }
+    }
+
+    /**
+     * Read whole stream as UTF-8 and close it
+     */
+    /**
+     * @return deadlines not met nor expired yet
+     */
+    static int deadlines() {
+        return timer().getQueue().size();
+    }
+
+    /**
+     * Timer of deadlines, cancelled tasks leave its queue at once. Expiry is
+     *     handed to the common pool, the timer thread never runs callbacks.
+     */
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (TIMER == null) {
+            TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "wiki-deadline");
+                t.setDaemon(true);
+                return t;
+            });
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+        return TIMER;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (Reader r = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder(1 << 13);
+            char[] buf = new char[1 << 13];
+            int n;
+            while ((n = r.read(buf)) != -1) {
+                sb.append(buf, 0, n);
             }
             return sb.toString();
-        } catch (Exception e) {
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Blocking form of a query, failures are printed and answered with "".
+     *     An interrupted caller gives up on the request, interrupt flag stays
+     *     set for the caller to notice.
+     */
+    private static String join(CompletableFuture<String> res) {
+        try {
+            return res.get();
+        } catch (ExecutionException e) {
+            System.err.println("Error: Query failed, " + e.getCause());
+        } catch (InterruptedException e) {
+            res.cancel(true);
+            Thread.currentThread().interrupt();
         }
         return "";
     }
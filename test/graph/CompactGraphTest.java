@@ -0,0 +1,148 @@
+package graph;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompactGraphTest {
+    private CompactSearchGraph csg = new CompactSearchGraph();
+
+    @After
+    public void cleanup() {
+        csg.setSchedule(ReformSchedule.DEFAULT);
+        csg.clear();
+    }
+
+    /**
+     * Testing
+     * {@link CompactSearchGraph#traversal()} BFS order, same as {@link HeuristicSearchGraph}
+     * {@link CompactSearchGraph#reform(int)} hot node moves toward root, see GraphTest.HSG_3
+     */
+    @Test
+    public void CSG_0() {
+        assertFalse(csg.contains("a"));
+        assertArrayEquals(new String[] {}, csg.traversal());
+
+        csg.insert("a");
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(csg.contains("a"));
+        }
+        for (String s : new String[] { "b", "c", "d", "e", "f", "g", "h" }) {
+            csg.insert(s);
+        }
+        csg.contains("h");
+        csg.contains("h");
+        assertArrayEquals(new String[] { "a", "b", "c", "d", "e", "f", "g", "h" }, csg.traversal());
+        csg.contains("h");
+        assertArrayEquals(new String[] { "a", "h", "c", "d", "e", "f", "g", "b" }, csg.traversal());
+        assertEquals(8, csg.size());
+
+        csg.clear();
+        assertEquals(0, csg.size());
+        assertFalse(csg.contains("a"));
+    }
+
+    /**
+     * Testing
+     * {@link CompactSearchGraph#insert(String)} duplicates and non-ASCII titles,
+     *     heat goes to the holder closest to root, see GraphTest.HSG_4
+     */
+    @Test
+    public void CSG_1() {
+        for (String s : new String[] { "aaa", "統計學", "統計學", "ccc", "Mikroökonomie", "Mikroökonomie", "統計學" }) {
+            csg.insert(s);
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(csg.contains("統計學"));
+        }
+        assertFalse(csg.contains("統計"));
+        assertArrayEquals(new String[] { "統計學", "aaa", "統計學", "ccc", "Mikroökonomie", "Mikroökonomie", "統計學" },
+                csg.traversal());
+    }
+
+    /**
+     * Testing concurrency, off-heap titles, background reorder
+     */
+    @Test
+    public void CSG_2() throws InterruptedException {
+        CompactSearchGraph graph = new CompactSearchGraph(true);
+        graph.setSchedule(ReformSchedule.background(4, 0.25, 64, 1));
+        Thread[] arr = new Thread[4];
+        for (int t = 0; t < arr.length; ++t) {
+            final int offset = t;
+            arr[t] = new Thread(() -> {
+                for (int i = offset; i < 40000; i += arr.length) {
+                    graph.insert("title " + i);
+                    assertTrue(graph.contains("title " + i));
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        graph.setSchedule(ReformSchedule.DEFAULT);
+
+        assertEquals(40000, graph.size());
+        assertEquals(40000, graph.traversal().length);
+        for (int i = 0; i < 40000; ++i) {
+            assertTrue(graph.contains("title " + i));
+        }
+        assertTrue(graph.isOffHeap());
+    }
+
+    /**
+     * Testing
+     * {@link CompactSearchGraph#containsOrInsert(String)} concurrent callers insert each title once
+     */
+    @Test
+    public void CSG_3() throws InterruptedException {
+        AtomicInteger inserted = new AtomicInteger(0);
+        Thread[] arr = new Thread[4];
+        for (int t = 0; t < arr.length; ++t) {
+            arr[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; ++i) {
+                    if (!csg.containsOrInsert("title " + i)) {
+                        inserted.incrementAndGet();
+                    }
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        assertEquals(1000, inserted.get());
+        assertEquals(1000, csg.size());
+        assertArrayEquals(new boolean[] { true, false }, csg.containsAll(new String[] { "title 1", "title" }));
+    }
+
+    /**
+     * Testing
+     * {@link CompactSearchGraph#pop(String)} duplicates, probe runs stay intact, slots reused
+     */
+    @Test
+    public void CSG_4() {
+        for (int i = 0; i < 2000; ++i) {
+            csg.insert("title " + i);
+        }
+        csg.insert("title 7");
+        assertTrue(csg.pop("title 7"));
+        assertFalse(csg.pop("title 7"));
+        assertFalse(csg.contains("title 7"));
+        for (int i = 0; i < 2000; i += 3) {
+            csg.pop("title " + i);
+        }
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(i % 3 != 0 && i != 7, csg.contains("title " + i));
+        }
+        int size = csg.size();
+        assertEquals(size, csg.traversal().length);
+
+        csg.insert("new");
+        assertEquals(size + 1, csg.size());
+        assertEquals(size + 1, csg.traversal().length);
+        assertTrue(csg.contains("new"));
+    }
+}
@@ -0,0 +1,83 @@
+package graph;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class GraphScalingTest {
+    private static final int ITEMS = 200000;
+
+    private HeuristicSearchGraph hsg = HeuristicSearchGraph.getInstance();
+
+    @After
+    public void cleanup() {
+        hsg.clear();
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#insert(String)} concurrent inserts, 1 thread
+     *     up to all cores, every title must be stored exactly once. Throughput is
+     *     measured by the {@code fill} benchmark of {@code graph.GraphBench}.
+     */
+    @Test
+    public void insertScaling() throws InterruptedException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int t = 1; t < cores; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(cores);
+        if (cores == 1) {
+            counts.add(2);
+        }
+
+        for (int threads : counts) {
+            hsg.clear();
+            insertConcurrently(threads);
+
+            assertEquals(ITEMS, hsg.size());
+            String[] res = hsg.traversal();
+            assertEquals(ITEMS, res.length);
+            Set<String> seen = new HashSet<String>();
+            for (String title : res) {
+                assertTrue(title, seen.add(title));
+            }
+            for (int i = 0; i < ITEMS; ++i) {
+                assertTrue(seen.contains("t" + i));
+            }
+            for (int i = 0; i < ITEMS; i += 997) {
+                assertTrue(hsg.contains("t" + i));
+            }
+        }
+    }
+
+    private void insertConcurrently(int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] arr = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t;
+            arr[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = offset; i < ITEMS; i += threads) {
+                    hsg.insert("t" + i);
+                }
+            });
+            arr[t].start();
+        }
+
+        start.countDown();
+        for (Thread t : arr) {
+            t.join();
+        }
+    }
+}
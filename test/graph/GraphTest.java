@@ -3,7 +3,13 @@ package graph;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GraphTest {
     private HeuristicSearchGraph hsg;
@@ -175,6 +181,529 @@ public class GraphTest {
         assertEquals(5 * 64, hsg.traversal().length);
     }
 
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#contains(String)} title index stays correct across
+     *     {@link HeuristicSearchGraph#reform()} swaps and {@link HeuristicSearchGraph#clear()}
+     */
+    @Test
+    public void HSG_7() {
+        hsg.clear();
+        String[] res = intArray(0, 40);
+        for (String s : res) {
+            hsg.insert(s);
+        }
+        for (int i = 0; i < 200; ++i) {
+            assertTrue(hsg.contains(res[(i * 7) % res.length]));
+        }
+        for (String s : res) {
+            assertTrue(hsg.contains(s));
+        }
+        assertFalse(hsg.contains("40"));
+
+        String[] order = hsg.traversal();
+        Arrays.sort(order);
+        String[] expected = res.clone();
+        Arrays.sort(expected);
+        assertArrayEquals(expected, order);
+
+        hsg.clear();
+        assertFalse(hsg.contains(res[0]));
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#setSchedule(ReformSchedule)} background reorganizer
+     *     moves the hot node to root in bounded steps, lookups don't reform inline
+     */
+    @Test
+    public void HSG_8() throws InterruptedException {
+        hsg.clear();
+        hsg.setSchedule(ReformSchedule.background(4, 0.25, 1, 20));
+        try {
+            String[] res = intArray(0, 40);
+            for (String s : res) {
+                hsg.insert(s);
+            }
+            int epoch = hsg.reformEpoch();
+            for (int i = 0; i < 10; ++i) {
+                assertTrue(hsg.contains(res[39]));
+            }
+            // contains only requested the pass
+            assertEquals(epoch, hsg.reformEpoch());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (hsg.reformEpoch() == epoch && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(hsg.reformEpoch() > epoch);
+            assertEquals(res[39], hsg.traversal()[0]);
+            for (String s : res) {
+                assertTrue(hsg.contains(s));
+            }
+        } finally {
+            hsg.setSchedule(ReformSchedule.DEFAULT);
+            hsg.clear();
+        }
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#setExpectedSize(int, double)} negative lookup filter
+     *     never hides an inserted title, grows past expected size and keeps
+     *     its false positive rate near target
+     */
+    @Test
+    public void HSG_9() {
+        hsg.clear();
+        hsg.setExpectedSize(1000, 0.01);
+        String[] res = intArray(0, 4000);
+        for (String s : res) {
+            hsg.insert(s);
+        }
+        for (String s : res) {
+            assertTrue(hsg.contains(s));
+        }
+
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (String s : res) {
+            filter.put(s);
+        }
+        assertTrue(filter.stages() > 1);
+        int fp = 0;
+        for (String s : intArray(4000, 104000)) {
+            if (filter.mightContain(s)) {
+                ++fp;
+            }
+            assertFalse(hsg.contains(s));
+        }
+        assertTrue(fp < 100000 * 0.02);
+        assertTrue(filter.expectedFpp() < 0.02);
+        assertTrue(hsg.falsePositiveRate() < 0.02);
+        hsg.clear();
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#containsOrInsert(String)} concurrent callers insert each title once
+     * {@link HeuristicSearchGraph#insertAll(String[])} {@link HeuristicSearchGraph#containsAll(String[])}
+     *     batch keeps BFS order
+     */
+    @Test
+    public void HSG_10() throws InterruptedException {
+        hsg.clear();
+        String[] res = intArray(0, 1000);
+        AtomicInteger inserted = new AtomicInteger(0);
+        Thread[] arr = new Thread[4];
+        for (int t = 0; t < arr.length; ++t) {
+            arr[t] = new Thread(() -> {
+                for (String s : res) {
+                    if (!hsg.containsOrInsert(s)) {
+                        inserted.incrementAndGet();
+                    }
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        assertEquals(res.length, inserted.get());
+        assertEquals(res.length, hsg.size());
+        assertTrue(hsg.containsOrInsert(res[0]));
+        hsg.clear();
+
+        hsg.insertAll(intArray(0, 8));
+        hsg.insertAll(intArray(8, 20));
+        assertArrayEquals(intArray(0, 20), hsg.traversal());
+        boolean[] found = hsg.containsAll(intArray(18, 22));
+        assertArrayEquals(new boolean[] { true, true, false, false }, found);
+        hsg.clear();
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#snapshot(Path)} {@link HeuristicSearchGraph#load(Path)}
+     *     titles, BFS order and heat survive a round trip, snapshot while inserting
+     */
+    @Test
+    public void HSG_11() throws Exception {
+        hsg.clear();
+        String[] res = intArray(0, 30);
+        hsg.insertAll(res);
+        hsg.insert("統計學");
+        for (int i = 0; i < 3; ++i) {
+            hsg.contains("統計學");
+        }
+        String[] before = hsg.traversal();
+
+        Path file = Files.createTempFile("graph", ".hsg");
+        try {
+            hsg.snapshot(file);
+            hsg.clear();
+            hsg.load(file);
+            assertArrayEquals(before, hsg.traversal());
+            assertEquals(before.length, hsg.size());
+            assertTrue(hsg.contains("統計學"));
+            assertFalse(hsg.contains("30"));
+
+            assertEquals(3, GraphSnapshot.open(file).heat(before.length - 1));
+
+            // heat came back, 3 + 1 beats the 3 lookups of root
+            for (int i = 0; i < 3; ++i) {
+                hsg.contains("0");
+            }
+            hsg.contains("統計學");
+            assertEquals("統計學", hsg.traversal()[0]);
+
+            Thread writer = new Thread(() -> hsg.insertAll(intArray(100, 5000)));
+            writer.start();
+            hsg.snapshotAsync(file).get();
+            writer.join();
+            hsg.load(file);
+            assertTrue(hsg.size() >= before.length);
+        } finally {
+            Files.deleteIfExists(file);
+            hsg.clear();
+        }
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#getInstance(String)} one graph per language
+     * {@link HeuristicSearchGraph#HeuristicSearchGraph(int)} shards, concurrent writers
+     * {@link HeuristicSearchGraph#clear()} while readers and writers run
+     */
+    @Test
+    public void HSG_12() throws Exception {
+        HeuristicSearchGraph en = HeuristicSearchGraph.getInstance("en");
+        HeuristicSearchGraph de = HeuristicSearchGraph.getInstance("de");
+        assertSame(en, HeuristicSearchGraph.getInstance("en"));
+        assertNotSame(en, de);
+        assertNotSame(hsg, en);
+        en.insert("Berlin");
+        assertTrue(en.contains("Berlin"));
+        assertFalse(de.contains("Berlin"));
+        en.clear();
+
+        HeuristicSearchGraph sharded = new HeuristicSearchGraph(6);
+        assertEquals(8, sharded.shardCount());
+        String[] res = intArray(0, 4000);
+        AtomicInteger inserted = new AtomicInteger(0);
+        Thread[] arr = new Thread[4];
+        for (int t = 0; t < arr.length; ++t) {
+            arr[t] = new Thread(() -> {
+                for (String s : res) {
+                    if (!sharded.containsOrInsert(s)) {
+                        inserted.incrementAndGet();
+                    }
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        assertEquals(res.length, inserted.get());
+        assertEquals(res.length, sharded.size());
+        String[] all = sharded.traversal();
+        Arrays.sort(all);
+        String[] expected = res.clone();
+        Arrays.sort(expected);
+        assertArrayEquals(expected, all);
+
+        // round trip through a single shard graph and back
+        Path file = Files.createTempFile("graph", ".hsg");
+        try {
+            sharded.snapshot(file);
+            hsg.load(file);
+            assertEquals(res.length, hsg.size());
+            hsg.snapshot(file);
+            sharded.clear();
+            sharded.load(file);
+            assertEquals(res.length, sharded.size());
+            for (String s : res) {
+                assertTrue(sharded.contains(s));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            hsg.clear();
+        }
+
+        Thread writer = new Thread(() -> sharded.insertAll(intArray(10000, 20000)));
+        writer.start();
+        for (int i = 0; i < 20; ++i) {
+            sharded.clear();
+            sharded.contains("10000");
+        }
+        writer.join();
+        sharded.clear();
+        assertEquals(0, sharded.size());
+        assertFalse(sharded.contains("10000"));
+        assertArrayEquals(new String[] {}, sharded.traversal());
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#pop(String)} duplicates, holes reused, concurrent with reform
+     */
+    @Test
+    public void HSG_13() throws InterruptedException {
+        hsg.clear();
+        String[] res = intArray(0, 50);
+        hsg.insertAll(res);
+        hsg.insert("7");
+        assertTrue(hsg.pop("7"));
+        assertFalse(hsg.pop("7"));
+        assertFalse(hsg.contains("7"));
+        assertEquals(49, hsg.size());
+        assertEquals(49, hsg.traversal().length);
+
+        int slots = hsg.slotCount();
+        hsg.insert("new");
+        hsg.insert("newer");
+        assertEquals(slots, hsg.slotCount());
+        assertTrue(hsg.contains("new") && hsg.contains("newer"));
+
+        // pop while lookups keep reordering the tree
+        HeuristicSearchGraph graph = new HeuristicSearchGraph(4);
+        graph.insertAll(intArray(0, 2000));
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 20000; ++i) {
+                graph.contains(String.valueOf(1999 - i % 2000));
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 2000; i += 2) {
+            assertTrue(graph.pop(String.valueOf(i)));
+        }
+        reader.join();
+        assertEquals(1000, graph.size());
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(i % 2 == 1, graph.contains(String.valueOf(i)));
+        }
+        hsg.clear();
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#setCapacity(int)} size stays bounded, hot titles survive,
+     *     slots reused, counters exposed, lowered capacity reached however sparse
+     */
+    @Test
+    public void HSG_14() {
+        HeuristicSearchGraph graph = new HeuristicSearchGraph(2);
+        graph.setCapacity(200);
+        assertEquals(200, graph.getCapacity());
+
+        String[] hot = intArray(0, 20);
+        graph.insertAll(hot);
+        for (int round = 0; round < 5; ++round) {
+            for (String s : hot) {
+                assertTrue(graph.contains(s));
+            }
+        }
+        graph.insertAll(intArray(1000, 6000));
+        assertTrue(graph.size() <= 200);
+        assertTrue(graph.slotCount() <= 220);
+        assertTrue(graph.evictions() >= 4800);
+        int survived = 0;
+        for (String s : hot) {
+            if (graph.contains(s)) {
+                ++survived;
+            }
+        }
+        assertTrue("hot titles evicted: " + (20 - survived), survived >= 18);
+        assertTrue(graph.hitRate() > 0);
+
+        graph.setCapacity(50);
+        assertTrue(graph.size() <= 50);
+        // a few titles among hundreds of holes, sampling alone misses them
+        graph.setCapacity(2);
+        assertTrue("size " + graph.size(), graph.size() <= 2);
+        graph.setCapacity(0);
+        graph.insertAll(intArray(10000, 10100));
+        assertTrue(graph.size() > 100);
+
+        // split over shards, never above the bound as a whole
+        HeuristicSearchGraph sharded = new HeuristicSearchGraph(8);
+        sharded.setCapacity(100);
+        assertEquals(100, sharded.getCapacity());
+        sharded.insertAll(intArray(0, 5000));
+        assertTrue("size " + sharded.size(), sharded.size() <= 100);
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#stream()} BFS order when sequential, every title exactly
+     *     once however the spliterator is split
+     */
+    @Test
+    public void HSG_15() {
+        String[] res = intArray(0, 40);
+        hsg.insertAll(res);
+        for (int i = 0; i < 4; ++i) {
+            hsg.contains(res[37]);
+        }
+        assertArrayEquals(hsg.traversal(), hsg.stream().toArray(String[]::new));
+        assertEquals(res[37], hsg.stream().findFirst().get());
+        hsg.clear();
+        assertEquals(0, hsg.stream().count());
+
+        for (int shards : new int[] { 1, 8 }) {
+            HeuristicSearchGraph graph = new HeuristicSearchGraph(shards);
+            String[] all = intArray(0, 20000);
+            graph.insertAll(all);
+            Arrays.sort(all);
+
+            String[] parallel = graph.stream().parallel().toArray(String[]::new);
+            Arrays.sort(parallel);
+            assertArrayEquals(all, parallel);
+
+            // split down to single nodes
+            ArrayList<Spliterator<String>> parts = new ArrayList<Spliterator<String>>();
+            parts.add(graph.stream().parallel().spliterator());
+            for (int i = 0; i < parts.size(); ++i) {
+                Spliterator<String> part = parts.get(i).trySplit();
+                if (part != null) {
+                    parts.add(part);
+                    --i;
+                }
+            }
+            assertTrue("parts " + parts.size(), parts.size() > 100);
+            ArrayList<String> split = new ArrayList<String>();
+            for (Spliterator<String> part : parts) {
+                part.forEachRemaining(split::add);
+            }
+            String[] arr = split.toArray(new String[0]);
+            Arrays.sort(arr);
+            assertArrayEquals(all, arr);
+        }
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#setPrefixIndex(boolean)} built over present titles,
+     *     kept by inserts and removals, survives clear
+     * {@link HeuristicSearchGraph#startsWith(String)} sorted across shards
+     */
+    @Test
+    public void HSG_16() {
+        HeuristicSearchGraph graph = new HeuristicSearchGraph(4);
+        graph.insertAll(new String[] { "LIST OF A", "LIST OF B", "LISTING", "LIST OF A" });
+        try {
+            graph.startsWith("LIST");
+            fail("prefix index is off");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        graph.setPrefixIndex(true);
+        graph.insert("LIST OF C");
+        assertFalse(graph.containsOrInsert("LIST"));
+        assertArrayEquals(new String[] { "LIST OF A", "LIST OF B", "LIST OF C" }, graph.startsWith("LIST OF"));
+        assertEquals(5, graph.startsWith("").length);
+
+        // removed titles leave the index
+        assertTrue(graph.pop("LIST OF B"));
+        assertArrayEquals(new String[] { "LIST", "LIST OF A", "LIST OF C", "LISTING" }, graph.startsWith("LIST"));
+
+        graph.setCapacity(4);
+        for (int i = 0; i < 100; ++i) {
+            graph.insert("T" + i);
+        }
+        String[] expect = graph.stream().distinct().sorted().toArray(String[]::new);
+        assertArrayEquals(expect, graph.startsWith(""));
+        graph.setCapacity(0);
+
+        graph.clear();
+        assertArrayEquals(new String[] {}, graph.startsWith(""));
+        graph.insert("LIST OF D");
+        assertArrayEquals(new String[] { "LIST OF D" }, graph.startsWith("L"));
+
+        graph.setPrefixIndex(false);
+        try {
+            graph.startsWith("L");
+            fail("prefix index is off");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing
+     * heat of a hot node from concurrent lookups, sampled above {@code GraphNode.EXACT}
+     * {@link HeuristicSearchGraph#setHalfLife(long)} title hot early sinks once it
+     *     cooled down, without decay it stays at root
+     */
+    @Test
+    public void HSG_17() throws InterruptedException {
+        GraphNode node = new GraphNode();
+        Thread[] arr = new Thread[4];
+        for (int t = 0; t < arr.length; ++t) {
+            arr[t] = new Thread(() -> {
+                for (int i = 0; i < 250000; ++i) {
+                    GraphNode.hit(node, 0);
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        assertEquals(1000000, node.heat, 250000);
+        assertEquals(500, GraphNode.fade(1000, 8));
+        assertEquals(0, GraphNode.fade(1000, 8 * 31));
+        assertEquals(1000, GraphNode.fade(1000, -1));
+
+        for (long halfLife : new long[] { 0, 20 }) {
+            HeuristicSearchGraph graph = new HeuristicSearchGraph();
+            graph.setHalfLife(halfLife);
+            assertEquals(halfLife, graph.getHalfLife());
+            graph.insertAll(new String[] { "a", "b", "c", "d", "e", "f" });
+            // one reform pass, on the 42nd hit
+            graph.setSchedule(ReformSchedule.inline(42, 0));
+            for (int i = 0; i < 40; ++i) {
+                graph.contains("b");
+            }
+            Thread.sleep(300);
+            graph.contains("c");
+            graph.contains("c");
+            String[] expect = halfLife == 0 ? new String[] { "b", "a", "c", "d", "e", "f" }
+                    : new String[] { "c", "b", "a", "d", "e", "f" };
+            assertArrayEquals(expect, graph.traversal());
+        }
+    }
+
+    /**
+     * Testing
+     * {@link HeuristicSearchGraph#setPrefixIndex(boolean)} turned on while titles
+     *     are inserted, every title present afterwards is indexed
+     */
+    @Test
+    public void HSG_18() throws InterruptedException {
+        for (int round = 0; round < 20; ++round) {
+            HeuristicSearchGraph graph = new HeuristicSearchGraph(4);
+            Thread[] arr = new Thread[4];
+            for (int t = 0; t < arr.length; ++t) {
+                String[] titles = intArray(t * 2000, (t + 1) * 2000);
+                arr[t] = new Thread(() -> {
+                    for (String s : titles) {
+                        graph.insert(s);
+                    }
+                });
+                arr[t].start();
+            }
+            graph.setPrefixIndex(true);
+            for (Thread t : arr) {
+                t.join();
+            }
+            String[] expect = graph.stream().sorted().toArray(String[]::new);
+            assertEquals(8000, expect.length);
+            assertArrayEquals(expect, graph.startsWith(""));
+        }
+    }
+
     private String[] ranStringArray(int n) {
         String[] res = new String[n];
         Random r = new Random();
@@ -0,0 +1,128 @@
+package graph;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LinkGraphTest {
+    private LinkGraph lg = new LinkGraph();
+
+    /**
+     * Testing
+     * {@link LinkGraph#end(String)} chain ending at a terminal, extended at the end
+     * {@link LinkGraph#hops(String)} {@link LinkGraph#chain(String)}
+     */
+    @Test
+    public void LG_0() {
+        assertNull(lg.end("a"));
+        assertEquals(-1, lg.hops("a"));
+
+        assertTrue(lg.link("a", "b"));
+        assertTrue(lg.link("b", "c"));
+        assertFalse(lg.link("a", "x")); // first link is kept
+        assertEquals("b", lg.next("a"));
+        assertEquals("c", lg.end("a"));
+        assertEquals(2, lg.hops("a"));
+        assertEquals(0, lg.hops("c"));
+        assertArrayEquals(new String[] {}, lg.cycle("a"));
+
+        // join a second chain, then extend the shared terminal
+        lg.link("d", "b");
+        lg.link("c", "Science");
+        lg.link("Science", "Latin");
+        assertEquals("Latin", lg.end("d"));
+        assertEquals(4, lg.hops("a"));
+        assertEquals(4, lg.hops("d"));
+        assertArrayEquals(new String[] { "d", "b", "c", "Science", "Latin" }, lg.chain("d"));
+        assertEquals(7, lg.size());
+        assertEquals(5, lg.edges());
+
+        lg.clear();
+        assertEquals(0, lg.size());
+        assertFalse(lg.contains("a"));
+    }
+
+    /**
+     * Testing
+     * {@link LinkGraph#cycle(String)} cycle entry and order, tails attached before
+     *     and after the cycle closed, self link
+     */
+    @Test
+    public void LG_1() {
+        lg.link("t1", "t2");
+        lg.link("t2", "Philosophy");
+        lg.link("Philosophy", "Knowledge");
+        lg.link("Knowledge", "Awareness");
+        assertEquals("Awareness", lg.end("t1"));
+        lg.link("Awareness", "Knowledge");
+
+        assertNull(lg.end("t1"));
+        assertEquals(3, lg.hops("t1"));
+        assertArrayEquals(new String[] { "Knowledge", "Awareness" }, lg.cycle("t1"));
+        assertArrayEquals(new String[] { "Awareness", "Knowledge" }, lg.cycle("Awareness"));
+        assertArrayEquals(new String[] { "t1", "t2", "Philosophy", "Knowledge", "Awareness" }, lg.chain("t1"));
+
+        lg.link("late", "t2");
+        assertEquals(3, lg.hops("late"));
+        assertArrayEquals(new String[] { "Knowledge", "Awareness" }, lg.cycle("late"));
+
+        lg.link("self", "self");
+        assertNull(lg.end("self"));
+        assertEquals(0, lg.hops("self"));
+        assertArrayEquals(new String[] { "self" }, lg.cycle("self"));
+        assertArrayEquals(new String[] { "self" }, lg.chain("self"));
+    }
+
+    /**
+     * Testing
+     * random functional graph against plain link following
+     */
+    @Test
+    public void LG_2() {
+        Random r = new Random(42);
+        int n = 20000;
+        int[] next = new int[n];
+        Arrays.fill(next, -1);
+        for (int k = 0; k < n; ++k) {
+            int x = r.nextInt(n);
+            int y = r.nextInt(n);
+            if (next[x] == -1 && lg.link("統計 " + x, "統計 " + y)) {
+                next[x] = y;
+            }
+            if (k % 1000 == 0) {
+                int t = r.nextInt(n);
+                if (lg.contains("統計 " + t)) {
+                    check(next, t);
+                }
+            }
+        }
+        for (int t = 0; t < n; t += 97) {
+            if (lg.contains("統計 " + t)) {
+                check(next, t);
+            }
+        }
+    }
+
+    private void check(int[] next, int t) {
+        int[] seen = new int[next.length];
+        Arrays.fill(seen, -1);
+        int c = t;
+        int hops = 0;
+        while (next[c] != -1 && seen[c] < 0) {
+            seen[c] = hops++;
+            c = next[c];
+        }
+        String title = "統計 " + t;
+        if (next[c] == -1) {
+            assertEquals("統計 " + c, lg.end(title));
+            assertEquals(hops, lg.hops(title));
+        } else {
+            // c is where the cycle entered, seen[c] hops from t
+            assertNull(lg.end(title));
+            assertEquals(seen[c], lg.hops(title));
+            assertEquals(hops - seen[c], lg.cycle(title).length);
+            assertEquals("統計 " + c, lg.cycle(title)[0]);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package graph;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TitleTrieTest {
+    private TitleTrie trie = new TitleTrie();
+
+    /**
+     * Testing
+     * {@link TitleTrie#add(String)} edge splits, title ending on a split
+     * {@link TitleTrie#remove(String)} merges back
+     * {@link TitleTrie#startsWith(String)} prefix inside an edge, on a node
+     */
+    @Test
+    public void TT_0() {
+        assertArrayEquals(new String[] {}, trie.startsWith(""));
+        assertTrue(trie.add("List of rivers"));
+        assertTrue(trie.add("List of lakes"));
+        assertTrue(trie.add("List"));
+        assertTrue(trie.add("Lisbon"));
+        assertFalse(trie.add("List"));
+        assertEquals(4, trie.size());
+
+        assertArrayEquals(new String[] { "List of lakes", "List of rivers" }, trie.startsWith("List of"));
+        assertArrayEquals(new String[] { "List of lakes", "List of rivers" }, trie.startsWith("List o"));
+        assertArrayEquals(new String[] { "Lisbon", "List", "List of lakes", "List of rivers" },
+                trie.startsWith("Lis"));
+        assertArrayEquals(new String[] {}, trie.startsWith("List of m"));
+        assertArrayEquals(new String[] {}, trie.startsWith("Lisa"));
+        assertTrue(trie.contains("List"));
+        assertFalse(trie.contains("List "));
+
+        assertTrue(trie.remove("List of lakes"));
+        assertFalse(trie.remove("List of lakes"));
+        assertFalse(trie.remove("List of"));
+        assertTrue(trie.remove("List"));
+        assertArrayEquals(new String[] { "Lisbon", "List of rivers" }, trie.startsWith(""));
+        assertTrue(trie.remove("Lisbon"));
+        assertTrue(trie.remove("List of rivers"));
+        assertEquals(0, trie.size());
+        assertArrayEquals(new String[] {}, trie.startsWith("L"));
+
+        assertTrue(trie.add(""));
+        assertArrayEquals(new String[] { "" }, trie.startsWith(""));
+    }
+
+    /**
+     * Testing
+     * random adds and removes against {@link TreeSet}
+     */
+    @Test
+    public void TT_1() {
+        Random r = new Random(7);
+        TreeSet<String> set = new TreeSet<String>();
+        for (int k = 0; k < 50000; ++k) {
+            String title = title(r);
+            if (r.nextInt(3) == 0) {
+                assertEquals(set.remove(title), trie.remove(title));
+            } else {
+                assertEquals(set.add(title), trie.add(title));
+            }
+        }
+        assertEquals(set.size(), trie.size());
+        for (String prefix : new String[] { "", "a", "ab", "abc", "ba", "ccc" }) {
+            String[] expect = set.subSet(prefix, prefix + Character.MAX_VALUE).toArray(new String[0]);
+            assertArrayEquals(prefix, expect, trie.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Testing
+     * concurrent adds and removes of overlapping titles, each thread owns a
+     *     set of titles, shared prefixes are split and merged concurrently
+     */
+    @Test
+    public void TT_2() throws InterruptedException {
+        int n = 8;
+        AtomicInteger failures = new AtomicInteger(0);
+        Thread[] arr = new Thread[n];
+        for (int t = 0; t < n; ++t) {
+            final int id = t;
+            arr[t] = new Thread(() -> {
+                Random r = new Random(id);
+                for (int k = 0; k < 20000; ++k) {
+                    String title = title(r) + "#" + id;
+                    if (r.nextBoolean()) {
+                        trie.add(title);
+                    } else {
+                        trie.remove(title);
+                    }
+                }
+                // keep only even titles of this thread
+                for (String title : trie.startsWith("")) {
+                    if (title.endsWith("#" + id) && title.length() % 2 == 1 && !trie.remove(title)) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            arr[t].start();
+        }
+        for (Thread t : arr) {
+            t.join();
+        }
+        assertEquals(0, failures.get());
+
+        String[] all = trie.startsWith("");
+        assertEquals(trie.size(), all.length);
+        for (int i = 0; i < all.length; ++i) {
+            assertEquals(0, all[i].length() % 2);
+            assertTrue(trie.contains(all[i]));
+            if (i > 0) {
+                assertTrue(all[i - 1].compareTo(all[i]) < 0);
+            }
+        }
+    }
+
+    /**
+     * Testing
+     * {@link TitleKey#fold(String)} ASCII without allocation, Unicode case forms
+     */
+    @Test
+    public void TK_0() {
+        String upper = "SCIENCE 1";
+        assertSame(upper, TitleKey.fold(upper));
+        assertEquals("SCIENCE 1", TitleKey.fold("Science 1"));
+        assertEquals("MIKROÖKONOMIE", TitleKey.fold("Mikroökonomie"));
+        assertEquals(TitleKey.fold("ΟΔΥΣΣΕΥΣ"), TitleKey.fold("Οδυσσευς"));
+        assertEquals(TitleKey.fold("ΟΔΥΣΣΕΥΣ"), TitleKey.fold("οδυσσευσ"));
+        assertEquals(TitleKey.fold("STRASSE"), TitleKey.fold("Straße"));
+        assertEquals("K", TitleKey.fold("\u212A")); // Kelvin sign
+        assertEquals("統計學", TitleKey.fold("統計學"));
+
+        TitleKey a = TitleKey.of("Science");
+        TitleKey b = TitleKey.of("SCIENCE");
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals("Science", a.title());
+        assertEquals("SCIENCE", a.key());
+        assertNotEquals(a, TitleKey.of("Sciences"));
+    }
+
+    private static String title(Random r) {
+        int t = r.nextInt(6) + 1;
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < t; ++j) {
+            sb.append((char) (r.nextInt(3) + 'a'));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.time.Duration;
+
+/**
+ * {@link CircuitBreaker} states
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * Testing
+     * opens after failures in a row, one probe after the cool-down, closed
+     *     by its success, opened again by its failure
+     */
+    @Test
+    public void CB_0() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(3, Duration.ofMillis(100));
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.allow());
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allow());
+
+        Thread.sleep(150);
+        assertTrue(breaker.allow());
+        assertFalse(breaker.allow());
+        breaker.onFailure();
+        assertFalse(breaker.allow());
+        assertEquals(3, breaker.getRejected());
+
+        Thread.sleep(150);
+        assertTrue(breaker.allow());
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allow());
+        assertTrue(breaker.allow());
+
+        try {
+            new CircuitBreaker(0, Duration.ZERO);
+            fail("threshold must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
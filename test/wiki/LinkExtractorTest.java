@@ -0,0 +1,171 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+/**
+ * {@link LinkExtractor} against Jsoup, on recorded pages in test/wiki/pages
+ *     and generated ones
+ */
+public class LinkExtractorTest {
+    private static final Path PAGES = Paths.get("test", "wiki", "pages");
+
+    private LinkExtractor extractor = new LinkExtractor();
+
+    /**
+     * Testing
+     * {@link LinkExtractor#scan(Reader, java.util.function.Predicate)} same
+     *     links as Jsoup, in the same order, on every recorded page
+     */
+    @Test
+    public void LE_0() throws IOException {
+        int pages = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(PAGES, "*.html")) {
+            for (Path page : dir) {
+                String html = new String(Files.readAllBytes(page), StandardCharsets.UTF_8);
+                List<String> expect = jsoup(html);
+                assertFalse(page.toString(), expect.isEmpty());
+                assertEquals(page.toString(), expect, scan(html));
+                ++pages;
+            }
+        }
+        assertTrue(pages >= 3);
+    }
+
+    /**
+     * Testing
+     * generated pages, balanced or with optional end tags left out
+     */
+    @Test
+    public void LE_1() throws IOException {
+        Random r = new Random(20);
+        for (int k = 0; k < 2000; ++k) {
+            StringBuilder sb = new StringBuilder("<div class=\"mw-parser-output\">");
+            page(r, sb, 0);
+            String html = sb.append("</div>").toString();
+            assertEquals(html, jsoup(html), scan(html));
+        }
+    }
+
+    /**
+     * Testing
+     * {@link LinkExtractor#nth(String, LinkFilter, int)} followed links only,
+     *     decoded titles
+     * {@link LinkExtractor#scan(Reader, java.util.function.Predicate)} stops
+     *     reading at the link taken
+     */
+    @Test
+    public void LE_2() throws IOException {
+        String html = "<div class=\"mw-parser-output\"><div><p><a href=\"#cite_note-1\">1</a>"
+                + "<a href=\"/wiki/Help:IPA\">IPA</a><a href=\"/wiki/Mikro%C3%B6konomie\">x</a>"
+                + "<a href=\"/wiki/Bad%zz\">y</a><a href=\"/wiki/Social_science\">z</a></p></div></div>";
+        LinkFilter filter = new LinkFilter(null, new String[] { "#cite note.+?", "/wiki/.+?:.+?" });
+        assertEquals("/wiki/Mikroökonomie", extractor.nth(html, filter, 0));
+        assertEquals("/wiki/Social science", extractor.nth(html, filter, 1));
+        assertEquals("", extractor.nth(html, filter, 2));
+        assertEquals("#cite note-1", extractor.nth(html, new LinkFilter(null, null), 0));
+        assertNull(LinkExtractor.title("/wiki/Bad%zz"));
+
+        // long page, first link near the top
+        StringBuilder sb = new StringBuilder(html);
+        for (int i = 0; i < 100000; ++i) {
+            sb.append("<p>filler <a href=\"/wiki/F\">f</a></p>");
+        }
+        CountingReader in = new CountingReader(sb.toString());
+        assertFalse(extractor.scan(in, h -> false));
+        assertTrue(in.count < 1 << 14);
+    }
+
+    private List<String> scan(String html) throws IOException {
+        List<String> res = new ArrayList<String>();
+        // small reads, tags split across buffer refills
+        assertTrue(extractor.scan(new CountingReader(html), h -> res.add(h)));
+        return res;
+    }
+
+    private static List<String> jsoup(String html) {
+        List<String> res = new ArrayList<String>();
+        for (Element a : Jsoup.parseBodyFragment(html).body().select(LinkExtractor.SELECTOR)) {
+            res.add(a.attr("href"));
+        }
+        return res;
+    }
+
+    private static final String[] BLOCKS = { "div", "p", "ul", "li", "ol", "table", "blockquote", "section" };
+    private static final String[] INLINES = { "span", "b", "i", "sup", "small", "abbr" };
+
+    /**
+     * Random element tree, end tags of p and li sometimes left out where
+     *     HTML allows it
+     */
+    private static void page(Random r, StringBuilder sb, int level) {
+        int n = r.nextInt(5) + 1;
+        for (int i = 0; i < n; ++i) {
+            int pick = r.nextInt(10);
+            if (pick < 3 || level > 5) {
+                sb.append("<a href=\"/wiki/L").append(sb.length()).append("\">t</a> ");
+            } else if (pick < 4) {
+                String tag = INLINES[r.nextInt(INLINES.length)];
+                sb.append('<').append(tag).append("><a href=\"/wiki/I").append(sb.length()).append("\">i</a></")
+                        .append(tag).append('>');
+            } else if (pick < 5) {
+                sb.append(r.nextBoolean() ? "text " : "<br><img src=x>");
+            } else {
+                String tag = BLOCKS[r.nextInt(BLOCKS.length)];
+                if (tag.equals("table")) {
+                    sb.append("<table><tr><td>");
+                    page(r, sb, level + 1);
+                    sb.append(r.nextBoolean() ? "</td></tr></table>" : "</table>");
+                    continue;
+                }
+                sb.append('<').append(tag).append('>');
+                page(r, sb, level + 1);
+                boolean optional = tag.equals("li") || tag.equals("p");
+                if (!optional || r.nextInt(3) > 0) {
+                    sb.append("</").append(tag).append('>');
+                }
+            }
+        }
+    }
+
+    /**
+     * Reader handing out a few chars at a time, counts what was read
+     */
+    private static class CountingReader extends Reader {
+        private final StringReader in;
+        private long count;
+
+        CountingReader(String s) {
+            in = new StringReader(s);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = in.read(cbuf, off, Math.min(len, 7));
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * {@link LinkFilter} against decoding every href and calling
+ *     {@link String#matches(String)} for every rule
+ */
+public class LinkFilterTest {
+    private static final String[] INCLUDE = { "#.+?", "/wiki/.+?" };
+    private static final String[] EXCLUDE = { "/wiki/.+?:.+?", "#cite note.+?" };
+
+    private static final String[] HREFS = { "/wiki/Social_science", "/wiki/Help:IPA/English", "#cite_note-1",
+            "#Definitions", "/wiki/Mikro%C3%B6konomie", "/wiki/%E7%B5%B1%E8%A8%88%E5%AD%B8",
+            "/wiki/%D0%AD%D0%BA%D0%BE%D0%BD%D0%BE%D0%BC%D0%B8%D0%BA%D0%B0", "/wiki/Datei:Adam_Smith.jpg",
+            "/wiki/Category%3ALists", "/w/index.php?title=Foo&action=edit&redlink=1", "//upload.wikimedia.org/x.svg",
+            "https://doi.org/10.1000/182", "/wiki/C%2B%2B", "/wiki/A+B", "/wiki/", "#", "", "/wiki/Bad%zz",
+            "/wiki/%F0%9D%94%B8", "/wiki/Line%0Abreak" };
+
+    /**
+     * Testing
+     * {@link LinkFilter#title(String)} crawler rules, real hrefs
+     */
+    @Test
+    public void LF_0() {
+        LinkFilter filter = new LinkFilter(INCLUDE, EXCLUDE);
+        assertTrue(filter.compiled());
+        for (String href : HREFS) {
+            assertEquals(href, matches(INCLUDE, EXCLUDE, href), filter.title(href));
+        }
+        assertEquals("/wiki/Mikroökonomie", filter.title("/wiki/Mikro%C3%B6konomie"));
+        assertNull(filter.title("/wiki/Help:IPA/English"));
+        assertNull(filter.title("#cite_note-1"));
+
+        LinkFilter all = new LinkFilter(null, null);
+        LinkFilter none = new LinkFilter(new String[0], null);
+        for (String href : HREFS) {
+            assertEquals(href, LinkExtractor.title(href), all.title(href));
+            assertNull(href, none.title(href));
+        }
+    }
+
+    /**
+     * Testing
+     * random rules of literals, '.' and quantifiers over random hrefs
+     */
+    @Test
+    public void LF_1() {
+        Random r = new Random(21);
+        for (int k = 0; k < 300; ++k) {
+            String[] include = r.nextInt(4) == 0 ? null : rules(r);
+            String[] exclude = r.nextInt(4) == 0 ? null : rules(r);
+            LinkFilter filter = new LinkFilter(include, exclude);
+            assertTrue(filter.compiled());
+            for (int j = 0; j < 200; ++j) {
+                String href = href(r);
+                assertEquals(String.join(",", include == null ? new String[] { "null" } : include) + " - "
+                        + String.join(",", exclude == null ? new String[] { "null" } : exclude) + " : " + href,
+                        matches(include, exclude, href), filter.title(href));
+            }
+        }
+    }
+
+    /**
+     * Testing
+     * other syntax falls back to patterns, invalid rules rejected at once
+     */
+    @Test
+    public void LF_2() {
+        String[] include = { "/wiki/[A-Z].*", "(?i)#CITE.*" };
+        String[] exclude = { "/wiki/(Help|Datei):.+", ".*\\d" };
+        LinkFilter filter = new LinkFilter(include, exclude);
+        assertFalse(filter.compiled());
+        for (String href : HREFS) {
+            assertEquals(href, matches(include, exclude, href), filter.title(href));
+        }
+        assertEquals("#cite note-1a", filter.title("#cite_note-1a"));
+
+        try {
+            new LinkFilter(new String[] { "/wiki/(" }, null);
+            fail("invalid rule");
+        } catch (PatternSyntaxException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Previous filtering of getNth
+     */
+    private static String matches(String[] include, String[] exclude, String href) {
+        String t;
+        try {
+            t = URLDecoder.decode(href, StandardCharsets.UTF_8).replace("_", " ");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        boolean in = include == null;
+        for (int i = 0; !in && i < include.length; ++i) {
+            in = t.matches(include[i]);
+        }
+        for (int i = 0; in && exclude != null && i < exclude.length; ++i) {
+            in = !t.matches(exclude[i]);
+        }
+        return in ? t : null;
+    }
+
+    private static final String[] ATOMS = { "a", "b", ":", "/", " ", "ö", "𝔸", ".", ".", "\\.", "\\+" };
+    private static final String[] QUANTIFIERS = { "", "", "", "?", "*", "+", "*?", "+?", "??" };
+    private static final String[] PIECES = { "a", "b", ":", "/", "_", "+", " ", ".", "%C3%B6", "%3A", "%2B", "%2E",
+            "ö", "𝔸", "%F0%9D%94%B8", "%0A", "\n" };
+
+    private static String[] rules(Random r) {
+        String[] res = new String[r.nextInt(3) + 1];
+        for (int i = 0; i < res.length; ++i) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = r.nextInt(5) + 1; n > 0; --n) {
+                sb.append(ATOMS[r.nextInt(ATOMS.length)]).append(QUANTIFIERS[r.nextInt(QUANTIFIERS.length)]);
+            }
+            res[i] = sb.toString();
+        }
+        return res;
+    }
+
+    private static String href(Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = r.nextInt(7); n > 0; --n) {
+            sb.append(PIECES[r.nextInt(PIECES.length)]);
+        }
+        if (r.nextInt(50) == 0) {
+            sb.append("%z");
+        }
+        return sb.toString();
+    }
+}
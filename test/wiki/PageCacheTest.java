@@ -0,0 +1,262 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * {@link PageCache} in a temporary directory
+ */
+public class PageCacheTest {
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("pagecache");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        delete(dir);
+    }
+
+    /**
+     * Testing
+     * {@link PageCache#put(String, String, byte[])} and
+     *     {@link PageCache#open(String, String)} round trip, normalized keys,
+     *     languages apart, same content stored once
+     */
+    @Test
+    public void PC_0() throws IOException {
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            assertNull(cache.open("en", "Science"));
+            cache.put("en", "Social_science", body("social"));
+            assertEquals("social", read(cache.open("en", "social science")));
+            assertEquals("social", read(cache.open("en", " Social_science ")));
+            assertNull(cache.open("de", "Social science"));
+            assertNull(cache.open("en", "Social Science"));
+
+            // identical bodies share the blob
+            long before = cache.bytes();
+            byte[] big = body("x".repeat(1 << 14));
+            cache.put("en", "Mikroökonomie", big);
+            long one = cache.bytes() - before;
+            cache.put("en", "ökonomie", big);
+            assertTrue(cache.bytes() - before < one + 128);
+            assertEquals("x".repeat(1 << 14), read(cache.open("en", "Ökonomie")));
+
+            // replaced
+            cache.put("en", "Social science", body("new"));
+            assertEquals("new", read(cache.open("en", "Social_science")));
+            assertEquals(3, cache.size());
+        }
+    }
+
+    /**
+     * Testing
+     * {@link PageCache#setTTL(long)} entries expire
+     */
+    @Test
+    public void PC_1() throws Exception {
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            cache.put("en", "Old", body("old"));
+            Thread.sleep(30);
+            cache.put("en", "New", body("new"));
+            cache.setTTL(20);
+            assertNull(cache.getCompressed("en", "Old"));
+            assertEquals("new", read(cache.open("en", "New")));
+            cache.setTTL(0);
+            cache.put("en", "Old", body("again"));
+            assertEquals("again", read(cache.open("en", "Old")));
+        }
+        try {
+            new PageCache(dir, 0, 0);
+            fail("size must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing
+     * size bound, oldest segments dropped, recent entries kept
+     */
+    @Test
+    public void PC_2() throws IOException {
+        long max = 1 << 19;
+        Random r = new Random(23);
+        try (PageCache cache = new PageCache(dir, max, 0)) {
+            for (int i = 0; i < 400; ++i) {
+                // incompressible, about 4k each
+                byte[] b = new byte[4096];
+                r.nextBytes(b);
+                cache.put("en", "Page " + i, b);
+                assertTrue(cache.bytes() <= max);
+            }
+            assertTrue(segments(dir) > 1);
+            assertNull(cache.getCompressed("en", "Page 0"));
+            assertNotNull(cache.getCompressed("en", "Page 399"));
+            assertTrue(cache.size() < 400);
+            assertTrue(cache.size() > 64);
+        }
+    }
+
+    /**
+     * Testing
+     * reopened cache finds what was stored, a torn record at the end is cut
+     *     off and appending goes on after it
+     */
+    @Test
+    public void PC_3() throws IOException {
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            for (int i = 0; i < 50; ++i) {
+                cache.put("en", "Page " + i, body("page " + i));
+            }
+            cache.put("ja", "Page 0", body("ページ"));
+        }
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            last = files.max(Comparator.naturalOrder()).get();
+        }
+        long size = Files.size(last);
+        try (FileChannel ch = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // blob record cut short by a crash
+            ByteBuffer torn = ByteBuffer.allocate(1 + 32 + 4 + 10);
+            torn.put((byte) 'B').put(new byte[32]).putInt(1000).flip();
+            ch.write(torn);
+        }
+
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            assertEquals(size, Files.size(last));
+            assertEquals(51, cache.size());
+            assertEquals("page 7", read(cache.open("en", "page_7")));
+            assertEquals("ページ", read(cache.open("ja", "Page 0")));
+            cache.put("en", "Page 50", body("page 50"));
+        }
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            assertEquals("page 50", read(cache.open("en", "Page 50")));
+            assertEquals("page 49", read(cache.open("en", "Page 49")));
+        }
+    }
+
+    /**
+     * Testing
+     * concurrent readers and writers, evicting as they go
+     */
+    @Test
+    public void PC_4() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try (PageCache cache = new PageCache(dir, 1 << 18, 0)) {
+            List<Future<?>> res = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; ++t) {
+                final int id = t;
+                res.add(pool.submit(() -> {
+                    Random r = new Random(id);
+                    for (int i = 0; i < 2000; ++i) {
+                        String title = "Page " + r.nextInt(300);
+                        if (r.nextInt(4) == 0) {
+                            cache.put("en", title, body(title + " " + "x".repeat(r.nextInt(2048))));
+                        } else {
+                            InputStream in = cache.open("en", title);
+                            if (in != null) {
+                                // never another title's body, never torn
+                                assertTrue(read(in).startsWith(title + " "));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : res) {
+                f.get();
+            }
+            assertTrue(cache.bytes() <= 1 << 18);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Testing
+     * a read and a write of an interrupted thread fail, keep the interrupt,
+     *     and leave the segment usable for the other threads and on reopen
+     */
+    @Test
+    public void PC_5() throws Exception {
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            cache.put("en", "A", body("a"));
+            cache.put("en", "B", body("b"));
+            Thread.currentThread().interrupt();
+            try {
+                cache.open("en", "A");
+                fail("interrupted read");
+            } catch (IOException e) {
+                assertTrue(Thread.interrupted());
+            }
+            assertEquals("a", read(cache.open("en", "A")));
+            assertEquals("b", read(cache.open("en", "B")));
+
+            Thread.currentThread().interrupt();
+            try {
+                cache.put("en", "C", body("c"));
+                fail("interrupted write");
+            } catch (IOException e) {
+                assertTrue(Thread.interrupted());
+            }
+            cache.put("en", "D", body("d"));
+            assertEquals("d", read(cache.open("en", "D")));
+        }
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            assertEquals("a", read(cache.open("en", "A")));
+            assertEquals("d", read(cache.open("en", "D")));
+            assertNull(cache.open("en", "C"));
+        }
+    }
+
+    private static byte[] body(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream is = in) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int segments(Path dir) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.json.JSONObject;
+
+/**
+ * {@link ParseReader} against org.json on parse responses
+ */
+public class ParseReaderTest {
+    private LinkExtractor extractor = new LinkExtractor();
+    private LinkFilter filter = new LinkFilter(null, new String[] { "#.*", "/wiki/.+?:.+?" });
+
+    /**
+     * Testing
+     * {@link ParseReader#read(java.util.function.Consumer, ParseReader.TextVisitor)}
+     *     escapes decoded, other members skipped, both text formats, errors
+     */
+    @Test
+    public void PR_0() throws IOException {
+        String json = "{\"warnings\":{\"main\":{\"*\":\"x\"}},\"parse\":{\"title\":\"Mikro\\u00f6konomie \\\"\\/\\\\\","
+                + "\"pageid\":58391,\"revid\":-1.5e3,\"redirects\":[{\"from\":\"A\",\"to\":\"B\"},[],{}],"
+                + "\"new\":true,\"old\":false,\"none\":null,"
+                + "\"text\":{\"x\":[1,2],\"*\":\"<p>line\\nbreak \\ud835\\udd38 \\\"q\\\"<\\/p>\"},\"tail\":1}}";
+        String[] res = new String[2];
+        assertTrue(new ParseReader(new StringReader(json)).read(t -> res[0] = t, html -> res[1] = read(html)));
+        assertEquals("Mikroökonomie \"/\\", res[0]);
+        assertEquals("<p>line\nbreak \uD835\uDD38 \"q\"</p>", res[1]);
+
+        // formatversion=2, text first, fields skipped
+        json = " { \"parse\" : { \"text\" : \"<b>two</b>\" , \"title\" : \"Two\" } } ";
+        assertTrue(new ParseReader(new StringReader(json)).read(t -> res[0] = t, html -> res[1] = read(html)));
+        assertEquals("Two", res[0]);
+        assertEquals("<b>two</b>", res[1]);
+        assertTrue(new ParseReader(new StringReader(json)).read(null, null));
+
+        // visitor reading nothing
+        json = "{\"parse\":{\"text\":{\"*\":\"abc\\\"def\"},\"title\":\"After\"}}";
+        assertTrue(new ParseReader(new StringReader(json)).read(t -> res[0] = t, html -> {}));
+        assertEquals("After", res[0]);
+
+        json = "{\"error\":{\"code\":\"missingtitle\",\"info\":\"The page you specified doesn't exist.\"}}";
+        assertFalse(new ParseReader(new StringReader(json)).read(t -> fail(), html -> fail()));
+
+        for (String bad : new String[] { "", "[]", "{\"parse\":{\"text\":\"abc", "{\"parse\":{\"title\":\"\\x\"}}" }) {
+            try {
+                new ParseReader(new StringReader(bad)).read(t -> {}, html -> read(html));
+                fail(bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Testing
+     * same link as through a {@link JSONObject} on the recorded pages, UTF-8
+     *     bytes decoded across buffer boundaries
+     */
+    @Test
+    public void PR_1() throws IOException {
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get("test", "wiki", "pages"), "*.html")) {
+            for (Path page : dir) {
+                String html = new String(Files.readAllBytes(page), StandardCharsets.UTF_8);
+                JSONObject parse = new JSONObject().put("title", page.getFileName().toString())
+                        .put("text", new JSONObject().put("*", html));
+                byte[] json = new JSONObject().put("parse", parse).toString().getBytes(StandardCharsets.UTF_8);
+                for (int nth = 0; nth < 4; ++nth) {
+                    String expect = extractor.nth(html, filter, nth);
+                    String[] res = { null };
+                    final int n = nth;
+                    new ParseReader(new ByteArrayInputStream(json)).read(null,
+                            h -> res[0] = extractor.nth(h, filter, n));
+                    assertEquals(page + " " + nth, expect, res[0]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Testing
+     * a page of any size is read only up to the link taken
+     */
+    @Test
+    public void PR_2() throws IOException {
+        String head = "{\"parse\":{\"title\":\"Long\",\"text\":{\"*\":\"<div class=\\\"mw-parser-output\\\"><div>"
+                + "<p><a href=\\\"/wiki/First\\\">first<\\/a>";
+        String item = "<p>filler <a href=\\\"/wiki/Filler\\\">f<\\/a><\\/p>\\n";
+        EndlessReader in = new EndlessReader(head, item);
+        String[] res = { null };
+        assertTrue(new ParseReader(in).read(null, h -> res[0] = extractor.nth(h, filter, 0)));
+        assertEquals("/wiki/First", res[0]);
+        assertTrue(in.count < 1 << 16);
+    }
+
+    private static String read(Reader html) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[3];
+        int n;
+        while ((n = html.read(buf, 0, buf.length)) != -1) {
+            sb.append(buf, 0, n);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A head, then an item repeated forever, counts what was read
+     */
+    private static class EndlessReader extends Reader {
+        private final String head;
+        private final String item;
+        private long count;
+
+        EndlessReader(String head, String item) {
+            this.head = head;
+            this.item = item;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            for (int i = 0; i < len; ++i, ++count) {
+                cbuf[off + i] = count < head.length() ? head.charAt((int) count)
+                        : item.charAt((int) ((count - head.length()) % item.length()));
+            }
+            return len;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    }
+}
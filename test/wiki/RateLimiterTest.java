@@ -0,0 +1,105 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateLimiter} pacing and adaptation
+ */
+public class RateLimiterTest {
+
+    /**
+     * Testing
+     * {@link RateLimiter#acquire()} a burst at once, then at the rate
+     * {@link RateLimiter#acquireAsync()} shares the bucket
+     */
+    @Test
+    public void RL_0() throws Exception {
+        RateLimiter limiter = new RateLimiter(50, 5);
+        long begin = System.nanoTime();
+        for (int i = 0; i < 5; ++i) {
+            limiter.acquire();
+        }
+        assertTrue(System.nanoTime() - begin < TimeUnit.MILLISECONDS.toNanos(50));
+        for (int i = 0; i < 10; ++i) {
+            limiter.acquire();
+        }
+        long elapsed = System.nanoTime() - begin;
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(180));
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(600));
+
+        CompletableFuture<Void> async = limiter.acquireAsync();
+        assertFalse(async.isDone());
+        async.get(1, TimeUnit.SECONDS);
+
+        try {
+            new RateLimiter(0, 1);
+            fail("rate must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing
+     * throttled halves the rate once per signal and pauses the bucket,
+     *     answers in time raise it back up to the target, slow ones lower it
+     */
+    @Test
+    public void RL_1() throws Exception {
+        RateLimiter limiter = new RateLimiter(100, 1);
+        limiter.onThrottled(Duration.ofMillis(300));
+        limiter.onThrottled(Duration.ofMillis(300));
+        assertEquals(50, limiter.getRate(), 1e-9);
+        assertEquals(2, limiter.getThrottled());
+
+        long begin = System.nanoTime();
+        limiter.acquire();
+        assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(250));
+
+        for (int i = 0; i < 10000; ++i) {
+            limiter.onResponse(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertEquals(100, limiter.getRate(), 1e-9);
+
+        // one cut per second
+        limiter.setSlowLatency(Duration.ofSeconds(1));
+        limiter.onResponse(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(100, limiter.getRate(), 1e-9);
+        Thread.sleep(1100);
+        limiter.onResponse(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(90, limiter.getRate(), 1e-9);
+
+        // floor
+        limiter.setTarget(0.1);
+        Thread.sleep(1100);
+        limiter.onThrottled(null);
+        assertEquals(0.1, limiter.getRate(), 1e-9);
+    }
+
+    /**
+     * Testing
+     * {@link RateLimiter#setTarget(double)} a lower target lowers the burst of
+     *     the shared limiter to one second of requests, a higher one restores it
+     */
+    @Test
+    public void RL_2() throws Exception {
+        RateLimiter limiter = RateLimiter.of("burst.example.org");
+        assertEquals(RateLimiter.DEFAULT_RATE, limiter.getBurst(), 1e-9);
+        limiter.setTarget(5);
+        assertEquals(5, limiter.getBurst(), 1e-9);
+        Thread.sleep(1100);
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+
+        limiter.setTarget(50);
+        assertEquals(RateLimiter.DEFAULT_RATE, limiter.getBurst(), 1e-9);
+        assertEquals(1, new RateLimiter(0.5, 4).getBurst(), 1e-9);
+    }
+}
@@ -0,0 +1,208 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link TitleResolver} against a local stand-in of api.php
+ *
+ * The stand-in upper cases the first letter of a title, redirects "Sci" to
+ *     "Science", reports titles starting with "Red" missing and fails every
+ *     request that asks for "Broken".
+ */
+public class TitleResolverTest {
+    private HttpServer server;
+    private ExecutorService executor;
+    private WikiAPI api;
+    private ConcurrentLinkedQueue<List<String>> requests = new ConcurrentLinkedQueue<List<String>>();
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/w/api.php", this::handle);
+        server.start();
+        api = new WikiAPI("en", "http://127.0.0.1:" + server.getAddress().getPort() + "/w/api.php",
+                Duration.ofSeconds(5), Duration.ofSeconds(5));
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Testing
+     * {@link TitleResolver#resolveAsync(String)} titles of concurrent callers
+     *     share one request after the wait, duplicates asked once
+     * {@link TitleResolver#canonical(String, Iterable)} normalized, redirected,
+     *     missing
+     */
+    @Test
+    public void TR_0() throws Exception {
+        TitleResolver resolver = new TitleResolver(api, 50, 100);
+        CompletableFuture<String> a = resolver.resolveAsync("science");
+        CompletableFuture<String> b = resolver.resolveAsync("Sci");
+        CompletableFuture<String> c = resolver.resolveAsync("Red link");
+        CompletableFuture<String> d = resolver.resolveAsync("science");
+        assertSame(a, d);
+
+        assertEquals("Science", a.get());
+        assertEquals("Science", b.get());
+        assertNull(c.get());
+        assertEquals(1, requests.size());
+        assertEquals(Arrays.asList("science", "Sci", "Red link"), requests.peek());
+        assertEquals(1, resolver.batches());
+    }
+
+    /**
+     * Testing
+     * full batches sent without waiting, request size capped
+     */
+    @Test
+    public void TR_1() throws Exception {
+        TitleResolver resolver = new TitleResolver(api, 50, 60_000);
+        List<CompletableFuture<String>> res = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 120; ++i) {
+            res.add(resolver.resolveAsync("page " + i));
+        }
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("Page " + i, res.get(i).get());
+        }
+        assertEquals(2, requests.size());
+        assertFalse(res.get(100).isDone());
+
+        resolver.flush();
+        for (int i = 100; i < 120; ++i) {
+            assertEquals("Page " + i, res.get(i).get());
+        }
+        for (List<String> titles : requests) {
+            assertTrue(titles.size() <= WikiAPI.MAX_TITLES);
+        }
+        assertEquals(3, resolver.batches());
+
+        try {
+            new TitleResolver(api, WikiAPI.MAX_TITLES + 1, 0);
+            fail("batch larger than a query");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Testing
+     * {@link TitleResolver#resolve(String)} failed request reaches every
+     *     caller of the batch as {@link IOException}
+     */
+    @Test
+    public void TR_2() throws Exception {
+        TitleResolver resolver = new TitleResolver(api, 2, 60_000);
+        CompletableFuture<String> other = resolver.resolveAsync("Other");
+        try {
+            resolver.resolve("Broken");
+            fail("500 must fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("500"));
+        }
+        assertTrue(other.isCompletedExceptionally());
+    }
+
+    /**
+     * Testing
+     * {@link TitleResolver#enter()} a batch is sent once every registered
+     *     caller waits on it, without waiting out {@code maxWait}
+     * {@link TitleResolver#leave()} a caller leaving sends the batch of the
+     *     others
+     */
+    @Test
+    public void TR_3() throws Exception {
+        TitleResolver resolver = new TitleResolver(api, 50, 60_000);
+        resolver.enter();
+        resolver.enter();
+        CompletableFuture<String> a = resolver.resolveAsync("science");
+        Thread.sleep(100);
+        assertFalse(a.isDone());
+        assertEquals("Science", resolver.resolveAsync("Sci").get(5, TimeUnit.SECONDS));
+        assertEquals("Science", a.get(5, TimeUnit.SECONDS));
+        assertEquals(1, resolver.batches());
+
+        CompletableFuture<String> b = resolver.resolveAsync("Red link");
+        resolver.leave();
+        assertNull(b.get(5, TimeUnit.SECONDS));
+        assertEquals(2, resolver.batches());
+        resolver.leave();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        String form;
+        try (InputStream in = ex.getRequestBody()) {
+            form = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<String> titles = new ArrayList<String>();
+        for (String kv : form.split("&")) {
+            if (kv.startsWith("titles=")) {
+                titles = Arrays.asList(URLDecoder.decode(kv.substring(7), StandardCharsets.UTF_8).split("\\|"));
+            }
+        }
+        requests.add(titles);
+        if (!"POST".equals(ex.getRequestMethod()) || titles.contains("Broken")) {
+            ex.sendResponseHeaders(500, -1);
+            ex.close();
+            return;
+        }
+
+        StringBuilder normalized = new StringBuilder();
+        StringBuilder redirects = new StringBuilder();
+        StringBuilder pages = new StringBuilder();
+        for (String title : titles) {
+            String t = Character.toUpperCase(title.charAt(0)) + title.substring(1);
+            if (!t.equals(title)) {
+                append(normalized, "{\"from\":\"" + title + "\",\"to\":\"" + t + "\"}");
+            }
+            if (t.equals("Sci")) {
+                append(redirects, "{\"from\":\"Sci\",\"to\":\"Science\"}");
+                t = "Science";
+            }
+            if (t.startsWith("Red")) {
+                append(pages, "{\"ns\":0,\"title\":\"" + t + "\",\"missing\":true}");
+            } else {
+                append(pages, "{\"pageid\":1,\"ns\":0,\"title\":\"" + t + "\"}");
+            }
+        }
+        String body = "{\"batchcomplete\":true,\"query\":{\"normalized\":[" + normalized + "],\"redirects\":["
+                + redirects + "],\"pages\":[" + pages + "]}}";
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static void append(StringBuilder sb, String item) {
+        sb.append(sb.length() == 0 ? "" : ",").append(item);
+    }
+}
@@ -0,0 +1,421 @@
+package wiki;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * {@link WikiAPI} against a local stand-in of api.php
+ *
+ * The stand-in answers {@code action=parse} with the page name, compressed if
+ *     the request accepts gzip, {@code action=query} with a fixed body,
+ *     {@code page=Missing} with 404 and {@code page=Slow} after 2 seconds.
+ *     {@code page=Busy} is answered 429 the first time, {@code page=Lagged}
+ *     always with a maxlag error, {@code page=Invalid} with an API error in
+ *     header and body, {@code page=Erroneous} in the body only, both HTTP 200.
+ *     {@code page=Flaky} fails with 500 twice,
+ *     {@code page=Broken} always; {@code page=Stalled} stops sending its body,
+ *     {@code page=Hedged} answers its first request after 2 seconds,
+ *     {@code page=Unavailable} is answered 503 while {@code unavailable} is set.
+ */
+public class WikiAPITest {
+    private HttpServer server;
+    private ExecutorService executor;
+    private WikiAPI api;
+    private ConcurrentLinkedQueue<String> queries = new ConcurrentLinkedQueue<String>();
+    private ConcurrentLinkedQueue<String> encodings = new ConcurrentLinkedQueue<String>();
+    private AtomicInteger busy = new AtomicInteger();
+    private AtomicInteger flaky = new AtomicInteger();
+    private AtomicInteger hedged = new AtomicInteger();
+    private volatile boolean unavailable;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/w/api.php", this::handle);
+        server.start();
+        api = new WikiAPI("en", "http://127.0.0.1:" + server.getAddress().getPort() + "/w/api.php",
+                Duration.ofSeconds(5), Duration.ofMillis(500));
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Testing
+     * {@link WikiAPI#queryArticle(String)} title encoded, gzip asked and inflated
+     * {@link WikiAPI#queryRandomTitle(int)}
+     * {@link WikiAPI#queryArticleAsync(String)} concurrent requests, their
+     *     deadline timers cancelled once answered
+     */
+    @Test
+    public void WA_0() throws Exception {
+        assertEquals("{\"page\":\"Mikro%C3%B6konomie_%26_Co\"}", api.queryArticle("Mikroökonomie & Co"));
+        assertTrue(queries.peek().contains("action=parse"));
+        assertEquals("gzip", encodings.peek());
+
+        assertEquals("{\"query\":{}}", api.queryRandomTitle(3));
+        assertTrue(queries.stream().anyMatch(q -> q.contains("grnlimit=3")));
+
+        List<CompletableFuture<String>> res = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 32; ++i) {
+            res.add(api.queryArticleAsync("Page " + i));
+        }
+        for (int i = 0; i < res.size(); ++i) {
+            assertEquals("{\"page\":\"Page_" + i + "\"}", res.get(i).get());
+        }
+        // deadlines met are cancelled, not left to expire
+        for (int i = 0; i < 100 && WikiAPI.deadlines() > 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, WikiAPI.deadlines());
+    }
+
+    /**
+     * Testing
+     * failures, "" from the blocking form, exceptional completion with an
+     *     {@link IOException} from the asynchronous form, request timeout
+     */
+    @Test
+    public void WA_1() throws Exception {
+        assertEquals("", api.queryArticle("Missing"));
+        try {
+            api.queryArticleAsync("Missing").get();
+            fail("404 must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage().contains("404"));
+        }
+
+        long begin = System.nanoTime();
+        try {
+            api.queryArticleAsync("Slow").get();
+            fail("timeout expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+        assertTrue(System.nanoTime() - begin < 1_900_000_000L);
+    }
+
+    /**
+     * Testing
+     * large compressed body read as a stream
+     */
+    @Test
+    public void WA_2() throws Exception {
+        String title = "Long_" + "x".repeat(200);
+        try (InputStream in = api.openAsync(api.articleUrl(title)).get()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            String body = out.toString(StandardCharsets.UTF_8);
+            assertEquals(1 << 20, body.length());
+            assertTrue(body.startsWith(title));
+        }
+    }
+
+    /**
+     * Testing
+     * {@link WikiAPI#setCache(PageCache)} an article is fetched once, as a
+     *     string or a stream, failures and API errors are not stored
+     */
+    @Test
+    public void WA_3() throws Exception {
+        Path dir = Files.createTempDirectory("pagecache");
+        try (PageCache cache = new PageCache(dir, 1 << 20, 0)) {
+            api.setCache(cache);
+            assertEquals("{\"page\":\"Cached\"}", api.queryArticleAsync("Cached").get());
+            assertEquals("{\"page\":\"Cached\"}", api.queryArticle("Cached"));
+            try (InputStream in = api.openArticleAsync("Cached").get()) {
+                assertEquals("{\"page\":\"Cached\"}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            assertEquals(1, queries.stream().filter(q -> q.contains("page=Cached")).count());
+
+            assertEquals("", api.queryArticle("Missing"));
+            assertEquals("", api.queryArticle("Missing"));
+            assertEquals(2, queries.stream().filter(q -> q.contains("page=Missing")).count());
+
+            for (String page : new String[] { "Invalid", "Erroneous" }) {
+                for (int i = 0; i < 2; ++i) {
+                    assertTrue(api.queryArticle(page).contains("invalidtitle"));
+                }
+                assertEquals(2, queries.stream().filter(q -> q.contains("page=" + page)).count());
+            }
+            assertEquals(1, cache.size());
+        } finally {
+            PageCacheTest.delete(dir);
+        }
+    }
+
+    /**
+     * Testing
+     * throttled requests sent again after {@code Retry-After}, rate lowered,
+     *     failure once retries are used up
+     */
+    @Test
+    public void WA_4() throws Exception {
+        RateLimiter limiter = api.getRateLimiter();
+        assertSame(limiter, new WikiAPI("en", "http://127.0.0.1:" + server.getAddress().getPort() + "/w/api.php",
+                Duration.ofSeconds(5), Duration.ofMillis(500)).getRateLimiter());
+        assertTrue(queries.isEmpty());
+        // room for the pause asked
+        api.setDeadline(Duration.ofSeconds(5));
+
+        long begin = System.nanoTime();
+        assertEquals("{\"page\":\"Busy\"}", api.queryArticleAsync("Busy").get());
+        assertTrue(System.nanoTime() - begin >= 1_000_000_000L);
+        assertEquals(2, busy.get());
+        assertEquals(1, limiter.getThrottled());
+        assertTrue(limiter.getRate() < RateLimiter.DEFAULT_RATE);
+
+        try {
+            api.queryArticleAsync("Lagged").get();
+            fail("maxlag must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(1 + WikiAPI.MAX_THROTTLED, queries.stream().filter(q -> q.contains("page=Lagged")).count());
+        assertTrue(queries.stream().allMatch(q -> q.contains("maxlag=" + WikiAPI.MAX_LAG)));
+    }
+
+    /**
+     * Testing
+     * {@link WikiAPI#setRetries(int, Duration)} server errors retried, then
+     *     the circuit of the host opens and requests fail without being sent
+     */
+    @Test
+    public void WA_5() throws Exception {
+        api.setRetries(3, Duration.ofMillis(20));
+        assertEquals("{\"page\":\"Flaky\"}", api.queryArticleAsync("Flaky").get());
+        assertEquals(3, flaky.get());
+
+        api.setRetries(0, Duration.ZERO);
+        for (int i = 0; i < CircuitBreaker.DEFAULT_THRESHOLD; ++i) {
+            try {
+                api.queryArticleAsync("Broken").get();
+                fail("500 must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("500"));
+            }
+        }
+        assertTrue(api.getCircuitBreaker().isOpen());
+        int sent = queries.size();
+        try {
+            api.queryArticleAsync("Page").get();
+            fail("circuit open");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(sent, queries.size());
+        assertEquals(1, api.getCircuitBreaker().getRejected());
+    }
+
+    /**
+     * Testing
+     * {@link WikiAPI#setDeadline(Duration)} a stalled body fails in time
+     * {@link WikiAPI#setHedge(double)} a slow request overtaken by its
+     *     duplicate
+     */
+    @Test
+    public void WA_6() throws Exception {
+        api.setDeadline(Duration.ofMillis(300));
+        long begin = System.nanoTime();
+        try (InputStream in = api.openArticleAsync("Stalled").get()) {
+            in.readAllBytes();
+            fail("deadline expected");
+        } catch (HttpTimeoutException e) {
+            // expected, while reading
+        } catch (ExecutionException e) {
+            // or even before the headers
+            assertTrue(e.getCause() instanceof HttpTimeoutException);
+        }
+        assertTrue(System.nanoTime() - begin < 1_500_000_000L);
+
+        api.setDeadline(Duration.ofSeconds(5));
+        api.setHedge(0.9);
+        for (int i = 0; i < 40; ++i) {
+            api.queryArticle("Page " + i);
+        }
+        // the quickest responses are rarely hedged
+        long hedges = api.hedges();
+        assertTrue(hedges < 10);
+        begin = System.nanoTime();
+        assertEquals("{\"page\":\"Hedged\"}", api.queryArticleAsync("Hedged").get());
+        assertTrue(System.nanoTime() - begin < 1_500_000_000L);
+        assertEquals(hedges + 1, api.hedges());
+        assertEquals(2, hedged.get());
+    }
+
+    /**
+     * Testing
+     * {@link WikiAPI#setCircuitBreaker(CircuitBreaker)} a host answering only
+     *     503 opens the circuit, a probe answered 503 opens it again, the next
+     *     probe answered in time closes it
+     */
+    @Test
+    public void WA_7() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMillis(100));
+        api.setCircuitBreaker(breaker);
+        api.setRetries(0, Duration.ZERO);
+        api.setDeadline(Duration.ofSeconds(5));
+        unavailable = true;
+        try {
+            api.queryArticleAsync("Unavailable").get();
+            fail("503 must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(breaker.isOpen());
+
+        Thread.sleep(150);
+        int sent = queries.size();
+        try {
+            api.queryArticleAsync("Unavailable").get();
+            fail("probe answered 503");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(sent + 1, queries.size());
+        assertTrue(breaker.isOpen());
+
+        Thread.sleep(150);
+        unavailable = false;
+        assertEquals("{\"page\":\"Unavailable\"}", api.queryArticleAsync("Unavailable").get());
+        assertFalse(breaker.isOpen());
+        assertEquals("{\"page\":\"Page\"}", api.queryArticleAsync("Page").get());
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        String query = ex.getRequestURI().getRawQuery();
+        queries.add(query);
+        String encoding = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        encodings.add(encoding == null ? "" : encoding);
+
+        String page = null;
+        for (String kv : query.split("&")) {
+            if (kv.startsWith("page=")) {
+                page = kv.substring(5);
+            }
+        }
+        if ("Missing".equals(page)) {
+            ex.sendResponseHeaders(404, -1);
+            ex.close();
+            return;
+        }
+        if ("Busy".equals(page) && busy.incrementAndGet() == 1) {
+            ex.getResponseHeaders().set("Retry-After", "1");
+            ex.sendResponseHeaders(429, -1);
+            ex.close();
+            return;
+        }
+        if ("Lagged".equals(page)) {
+            byte[] bytes = "{\"error\":{\"code\":\"maxlag\"}}".getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("MediaWiki-API-Error", "maxlag");
+            ex.getResponseHeaders().set("Retry-After", "0");
+            ex.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(bytes);
+            }
+            return;
+        }
+        if ("Invalid".equals(page) || "Erroneous".equals(page)) {
+            byte[] bytes = "{\"error\":{\"code\":\"invalidtitle\"}}".getBytes(StandardCharsets.UTF_8);
+            if ("Invalid".equals(page)) {
+                ex.getResponseHeaders().set("MediaWiki-API-Error", "invalidtitle");
+            }
+            ex.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(bytes);
+            }
+            return;
+        }
+        if ("Unavailable".equals(page) && unavailable) {
+            ex.getResponseHeaders().set("Retry-After", "0");
+            ex.sendResponseHeaders(503, -1);
+            ex.close();
+            return;
+        }
+        if ("Flaky".equals(page) && flaky.incrementAndGet() <= 2 || "Broken".equals(page)) {
+            ex.sendResponseHeaders(500, -1);
+            ex.close();
+            return;
+        }
+        if ("Stalled".equals(page)) {
+            ex.sendResponseHeaders(200, 0);
+            ex.getResponseBody().write("{\"page\":".getBytes(StandardCharsets.UTF_8));
+            ex.getResponseBody().flush();
+            sleep(2000);
+            ex.close();
+            return;
+        }
+        if ("Hedged".equals(page) && hedged.incrementAndGet() == 1) {
+            sleep(2000);
+        }
+        if ("Slow".equals(page)) {
+            sleep(2000);
+        }
+
+        String body;
+        if (page == null) {
+            body = "{\"query\":{}}";
+        } else if (page.startsWith("Long_")) {
+            StringBuilder sb = new StringBuilder(1 << 20).append(page);
+            while (sb.length() < 1 << 20) {
+                sb.append((char) ('a' + sb.length() % 26));
+            }
+            body = sb.toString();
+        } else {
+            body = "{\"page\":\"" + page + "\"}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (encoding != null && encoding.contains("gzip")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+                gz.write(bytes);
+            }
+            bytes = out.toByteArray();
+            ex.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // server stopping
+        }
+    }
+}